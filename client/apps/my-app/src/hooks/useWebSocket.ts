@@ -91,6 +91,16 @@ export function useWebSocket(options: UseWebSocketOptions = {}) {
             }
           });
 
+          client.subscribe('/topic/orders/batch', (message: IMessage) => {
+            try {
+              const orders: Order[] = JSON.parse(message.body);
+              console.log('Received order batch:', orders.length);
+              orders.forEach((order) => onOrderUpdate?.(order));
+            } catch (error) {
+              console.error('Error parsing order batch:', error);
+            }
+          });
+
           client.subscribe('/topic/orders/delete', (message: IMessage) => {
             try {
               const orderId: string = message.body;
@@ -114,6 +124,16 @@ export function useWebSocket(options: UseWebSocketOptions = {}) {
             }
           });
 
+          client.subscribe('/topic/customers/batch', (message: IMessage) => {
+            try {
+              const customers: Customer[] = JSON.parse(message.body);
+              console.log('Received customer batch:', customers.length);
+              customers.forEach((customer) => onCustomerUpdate?.(customer));
+            } catch (error) {
+              console.error('Error parsing customer batch:', error);
+            }
+          });
+
           client.subscribe('/topic/customers/delete', (message: IMessage) => {
             try {
               const customerId: string = message.body;
@@ -137,6 +157,16 @@ export function useWebSocket(options: UseWebSocketOptions = {}) {
             }
           });
 
+          client.subscribe('/topic/products/batch', (message: IMessage) => {
+            try {
+              const products: Product[] = JSON.parse(message.body);
+              console.log('Received product batch:', products.length);
+              products.forEach((product) => onProductUpdate?.(product));
+            } catch (error) {
+              console.error('Error parsing product batch:', error);
+            }
+          });
+
           client.subscribe('/topic/products/delete', (message: IMessage) => {
             try {
               const productId: string = message.body;
@@ -47,6 +47,9 @@ declare -A COUNTER_FILES=(
     ["sfc_counter.json"]=$INITIAL_SFC_NUMBER
 )
 
+# Sequence high-water marks (jsondb.sequence-block-size)
+SEQUENCE_LOG_FILE="sequences.log"
+
 # Function to print colored messages
 print_info() {
     echo -e "${GREEN}[INFO]${NC} $1"
@@ -93,6 +96,60 @@ reset_data_files() {
     done
 }
 
+# Function to remove write-ahead logs (jsondb.storage-mode=log)
+reset_write_ahead_logs() {
+    for file in "${DATA_FILES[@]}"; do
+        for logfile in "$file.wal" "$file.wal.checkpoint"; do
+            if [ -f "$DATA_DIR/$logfile" ]; then
+                rm -f "$DATA_DIR/$logfile"
+                print_info "Removed: $logfile"
+            fi
+        done
+    done
+}
+
+# Function to remove the shared transaction journal, which would otherwise be replayed into the reset files
+reset_transaction_journal() {
+    for logfile in "transactions.log" "transactions.log.tmp"; do
+        if [ -f "$DATA_DIR/$logfile" ]; then
+            rm -f "$DATA_DIR/$logfile"
+            print_info "Removed: $logfile"
+        fi
+    done
+}
+
+# Function to remove binary snapshots (jsondb.binary-snapshot=true)
+reset_binary_snapshots() {
+    for file in "${DATA_FILES[@]}"; do
+        if [ -f "$DATA_DIR/$file.smile" ]; then
+            rm -f "$DATA_DIR/$file.smile" "$DATA_DIR/$file.smile.crc"
+            print_info "Removed: $file.smile"
+        fi
+    done
+}
+
+# Function to remove snapshot checksums and retained older snapshots (<file>.crc, <file>.1, ...)
+reset_snapshot_history() {
+    for file in "${DATA_FILES[@]}"; do
+        for oldfile in "$DATA_DIR/$file".crc "$DATA_DIR/$file".tmp "$DATA_DIR/$file".[0-9]*; do
+            if [ -f "$oldfile" ]; then
+                rm -f "$oldfile"
+                print_info "Removed: $(basename "$oldfile")"
+            fi
+        done
+    done
+}
+
+# Function to remove entity history streams (jsondb.history=true)
+reset_entity_history() {
+    for file in "${DATA_FILES[@]}"; do
+        if [ -f "$DATA_DIR/$file.history" ]; then
+            rm -f "$DATA_DIR/$file.history"
+            print_info "Removed: $file.history"
+        fi
+    done
+}
+
 # Function to reset counter files
 reset_counter_files() {
     print_info "Resetting counter files..."
@@ -104,6 +161,14 @@ reset_counter_files() {
         echo "$initial_value" > "$filepath"
         print_info "Reset: $counter_file to $initial_value"
     done
+
+    # Sequences continue from the counter files above once their log is gone
+    for logfile in "$SEQUENCE_LOG_FILE" "$SEQUENCE_LOG_FILE.tmp"; do
+        if [ -f "$DATA_DIR/$logfile" ]; then
+            rm -f "$DATA_DIR/$logfile"
+            print_info "Removed: $logfile"
+        fi
+    done
 }
 
 # Main function
@@ -150,6 +215,11 @@ main() {
     
     # Reset data files
     reset_data_files
+    reset_write_ahead_logs
+    reset_transaction_journal
+    reset_binary_snapshots
+    reset_snapshot_history
+    reset_entity_history
     
     echo ""
     
@@ -3,11 +3,12 @@ package com.edge;
 /**
  * @author Hidenori Takaku
  */
-import org.springframework.boot.ApplicationRunner;
+import com.edge.config.ConditionalGetInterceptor;
+import com.edge.config.RepositoryReadinessInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.stereotype.Component;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -33,6 +34,12 @@ public class EdgeApplication
 	public static class WebConfig implements WebMvcConfigurer
 	{
 
+		@Autowired
+		private RepositoryReadinessInterceptor repositoryReadinessInterceptor;
+
+		@Autowired
+		private ConditionalGetInterceptor conditionalGetInterceptor;
+
 		@Override
 		public void configureMessageConverters(List<org.springframework.http.converter.HttpMessageConverter<?>> converters)
 		{
@@ -55,16 +62,12 @@ public class EdgeApplication
 					.allowedHeaders("*")
 					.allowCredentials(true);
 		}
-	}
 
-	@Bean
-	public ApplicationRunner initData(com.edge.repository.UserRepository userRepository)
-	{
-		return args -> {
-			System.out.println("ApplicationRunner: Initializing UserRepository...");
-			// Force initialization of UserRepository
-			userRepository.getAllUsers();
-			System.out.println("ApplicationRunner: UserRepository initialized");
-		};
+		@Override
+		public void addInterceptors(org.springframework.web.servlet.config.annotation.InterceptorRegistry registry)
+		{
+			registry.addInterceptor(repositoryReadinessInterceptor).addPathPatterns("/api/**");
+			registry.addInterceptor(conditionalGetInterceptor).addPathPatterns("/api/**");
+		}
 	}
 }
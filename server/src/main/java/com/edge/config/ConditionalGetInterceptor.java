@@ -0,0 +1,106 @@
+package com.edge.config;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.EntityVersion;
+import com.edge.repository.RepositoryRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.Optional;
+
+/**
+ * Conditional GET for /api/{resource} and /api/{resource}/{id}. The ETag is built from the
+ * repository's version (or the entity's) and the query string, and Last-Modified from the
+ * time of the last change, so a request whose If-None-Match or If-Modified-Since still matches
+ * gets 304 before the controller runs and nothing is read or serialized. Other paths under a
+ * resource are left alone, as they may not be backed by that repository alone, and so are
+ * responses with referenced entities inlined (include=...).
+ * <p>
+ * The ETag is weak: the same version is served plain or compressed, and a strong tag would
+ * have to differ between the two, or Tomcat would not compress the response. Weak comparison
+ * is all If-None-Match uses, so revalidation works the same. If-None-Match takes precedence
+ * over If-Modified-Since. Last-Modified has whole seconds only, so it is left out while the
+ * second of the last change is still running: a further change within that second would
+ * otherwise still match it.
+ */
+@Component
+public class ConditionalGetInterceptor implements HandlerInterceptor
+{
+    private static final String API_PREFIX = "/api/";
+    private static final String INCLUDE_PARAMETER = "include";
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+    {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod()))
+        {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.startsWith(API_PREFIX))
+        {
+            return true;
+        }
+        String[] segments = path.substring(API_PREFIX.length()).split("/");
+        if (segments.length > 2)
+        {
+            return true;
+        }
+        if (request.getParameter(INCLUDE_PARAMETER) != null)
+        {
+            // The body also holds entities of other repositories, which the tag does not cover
+            return true;
+        }
+        Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(segments[0]);
+        if (repository.isEmpty() || !repository.get().isLoaded())
+        {
+            return true;
+        }
+
+        String tag = segments[0] + "-" + Long.toHexString(repository.get().getVersionEpoch());
+        long lastModified;
+        if (segments.length == 1)
+        {
+            tag += "-" + repository.get().getVersion();
+            lastModified = repository.get().getLastModified();
+        }
+        else
+        {
+            EntityVersion version = repository.get().getEntityVersion(segments[1]);
+            if (version == null)
+            {
+                return true;
+            }
+            tag += "-" + segments[1] + "-" + version.getVersion();
+            lastModified = version.getLastModified();
+        }
+        if (request.getQueryString() != null)
+        {
+            // Paging, sorting and field selection change the body
+            tag += "-" + Integer.toHexString(request.getQueryString().hashCode());
+        }
+
+        if (lastModified / 1000 >= System.currentTimeMillis() / 1000)
+        {
+            // A later change in this second would not show in Last-Modified
+            lastModified = -1;
+        }
+
+        // Caches must ask again each time, which costs a 304 when nothing changed
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        // Weak, as one tag stands for the plain and the compressed body; Tomcat does not
+        // compress responses with a strong ETag
+        return !new ServletWebRequest(request, response).checkNotModified("W/\"" + tag + "\"", lastModified);
+    }
+}
@@ -0,0 +1,77 @@
+package com.edge.config;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.AbstractMappingJacksonResponseBodyAdvice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies ?fields=... to every JSON response of the REST controllers, e.g.
+ * /api/orders?fields=summary or /api/orders?fields=orderNumber,status,items.productId.
+ * All beans get a Jackson filter through a mix-in; it writes everything unless a request
+ * asks for fields, in which case a {@link FieldSelectionFilter} is used for that response.
+ */
+@RestControllerAdvice
+public class FieldSelectionAdvice extends AbstractMappingJacksonResponseBodyAdvice
+{
+    static final String FILTER_ID = "fieldSelection";
+    private static final String FIELDS_PARAMETER = "fields";
+
+    @JsonFilter(FILTER_ID)
+    interface FieldSelectionMixIn
+    {
+    }
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer fieldSelectionCustomizer()
+    {
+        return builder -> builder
+            .mixIn(Object.class, FieldSelectionMixIn.class)
+            .filters(new SimpleFilterProvider().addFilter(FILTER_ID, SimpleBeanPropertyFilter.serializeAll()));
+    }
+
+    @Override
+    protected void beforeBodyWriteInternal(MappingJacksonValue bodyContainer, MediaType contentType,
+                                           MethodParameter returnType, ServerHttpRequest request, ServerHttpResponse response)
+    {
+        if (!(request instanceof ServletServerHttpRequest servletRequest))
+        {
+            return;
+        }
+        String[] values = servletRequest.getServletRequest().getParameterValues(FIELDS_PARAMETER);
+        if (values == null)
+        {
+            return;
+        }
+        List<String> fields = new ArrayList<>();
+        for (String value : values)
+        {
+            for (String field : value.split(","))
+            {
+                if (!field.isBlank())
+                {
+                    fields.add(field.trim());
+                }
+            }
+        }
+        if (!fields.isEmpty())
+        {
+            bodyContainer.setFilters(new SimpleFilterProvider().addFilter(FILTER_ID, new FieldSelectionFilter(fields)));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.edge.config;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.entity.Customer;
+import com.edge.entity.Order;
+import com.edge.entity.Product;
+import com.edge.entity.PurchaseOrder;
+import com.edge.entity.RMA;
+import com.edge.entity.SFC;
+import com.edge.entity.Vendor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes only the requested properties of entities while the response is serialized, so no
+ * trimmed copies are built. Paths are relative to the outermost entity of each response
+ * element ("orderNumber", "items.productId"); naming a property selects all of it, and the
+ * top-level id is always written. A requested name that is a projection of the entity (see
+ * {@link #PROJECTIONS}) stands for its fields; "summary" on an entity without one selects
+ * everything. Wrappers around entities (pages, change sets, maps) are written in full.
+ */
+public class FieldSelectionFilter extends SimpleBeanPropertyFilter
+{
+    private static final String ENTITY_PACKAGE = Order.class.getPackageName();
+
+    /**
+     * Named field sets for list screens.
+     */
+    static final Map<Class<?>, Map<String, List<String>>> PROJECTIONS = Map.of(
+        Order.class, Map.of("summary",
+            List.of("orderNumber", "customerId", "orderDate", "status", "total", "invoiceNumber")),
+        PurchaseOrder.class, Map.of("summary",
+            List.of("orderNumber", "supplierId", "orderDate", "expectedDeliveryDate", "status", "total")),
+        RMA.class, Map.of("summary",
+            List.of("rmaNumber", "orderNumber", "customerName", "rmaDate", "status", "total")),
+        SFC.class, Map.of("summary",
+            List.of("sfcNumber", "rmaNumber", "customerName", "status", "assignedTo", "createdDate")),
+        Customer.class, Map.of("summary", List.of("customerNumber", "companyName", "email")),
+        Vendor.class, Map.of("summary", List.of("vendorNumber", "companyName", "email")),
+        Product.class, Map.of("summary", List.of("productCode", "productName", "unitPrice", "active")));
+
+    private static class Selection
+    {
+        private final boolean all;
+        private final Set<String> selected = new HashSet<>();
+        // Proper prefixes of selected paths, whose objects are written with only the selected parts
+        private final Set<String> ancestors = new HashSet<>();
+
+        private Selection(Class<?> entityClass, List<String> fields)
+        {
+            Map<String, List<String>> projections = PROJECTIONS.getOrDefault(entityClass, Map.of());
+            boolean selectAll = false;
+            for (String field : fields)
+            {
+                List<String> projection = projections.get(field);
+                if (projection != null)
+                {
+                    projection.forEach(this::add);
+                }
+                else if ("summary".equals(field))
+                {
+                    selectAll = true;
+                }
+                else
+                {
+                    add(field);
+                }
+            }
+            add("id");
+            this.all = selectAll;
+        }
+
+        private void add(String path)
+        {
+            selected.add(path);
+            for (int dot = path.indexOf('.'); dot >= 0; dot = path.indexOf('.', dot + 1))
+            {
+                ancestors.add(path.substring(0, dot));
+            }
+        }
+
+        private boolean includes(String path)
+        {
+            if (all || selected.contains(path) || ancestors.contains(path))
+            {
+                return true;
+            }
+            for (int dot = path.indexOf('.'); dot >= 0; dot = path.indexOf('.', dot + 1))
+            {
+                if (selected.contains(path.substring(0, dot)))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final List<String> fields;
+    private final Map<Class<?>, Selection> selections = new HashMap<>();
+
+    public FieldSelectionFilter(List<String> fields)
+    {
+        this.fields = fields;
+    }
+
+    @Override
+    public void serializeAsField(Object pojo, JsonGenerator gen, SerializerProvider provider, PropertyWriter writer)
+        throws Exception
+    {
+        if (include(gen, writer.getName()))
+        {
+            writer.serializeAsField(pojo, gen, provider);
+        }
+        else if (!gen.canOmitFields())
+        {
+            writer.serializeAsOmittedField(pojo, gen, provider);
+        }
+    }
+
+    /**
+     * Works out the path of the property from the generator's contexts: each enclosing object
+     * context knows its bean and the name of the property being written.
+     */
+    private boolean include(JsonGenerator gen, String name)
+    {
+        JsonStreamContext current = gen.getOutputContext();
+        Object root = isEntity(current.getCurrentValue()) ? current.getCurrentValue() : null;
+        String prefix = "";
+        List<String> names = new ArrayList<>();
+        for (JsonStreamContext context = current.getParent(); context != null; context = context.getParent())
+        {
+            if (context.inObject())
+            {
+                names.add(0, context.getCurrentName());
+                if (isEntity(context.getCurrentValue()))
+                {
+                    root = context.getCurrentValue();
+                    prefix = String.join(".", names) + ".";
+                }
+            }
+        }
+        if (root == null)
+        {
+            return true;
+        }
+        Selection selection = selections.computeIfAbsent(root.getClass(), type -> new Selection(type, fields));
+        return selection.includes(prefix + name);
+    }
+
+    private boolean isEntity(Object value)
+    {
+        return value != null && value.getClass().getPackageName().equals(ENTITY_PACKAGE);
+    }
+}
@@ -15,6 +15,40 @@ public class JsonDbConfig
     
     private String filePath = "./data/users.json";
     private boolean autoSave = true;
+    private StorageMode storageMode = StorageMode.SNAPSHOT;
+    private int checkpointThreshold = 1000;
+    private Durability durability = Durability.SYNC;
+    private long flushIntervalMs = 200;
+    private boolean binarySnapshot = false;
+    private int snapshotRetention = 2;
+    private int warmUpThreads = 4;
+    private long warmUpWaitMs = 10000;
+    private int sequenceBlockSize = 100;
+    private boolean history = true;
+    private int historyRetentionDays = 365;
+
+    /**
+     * SNAPSHOT rewrites the whole data file on every change.
+     * LOG appends each change to a per-entity write-ahead log and only rewrites
+     * the data file at checkpoints.
+     */
+    public enum StorageMode
+    {
+        SNAPSHOT, LOG
+    }
+
+    /**
+     * When autoSave is on, controls when a change reaches disk.
+     * SYNC writes and fsyncs before the request returns.
+     * GROUP_COMMIT blocks the request until the next background flush, which writes and
+     * fsyncs all changes made in that window at once.
+     * ASYNC returns immediately; the background flush writes without fsync.
+     * With autoSave off, changes are only written on shutdown or an explicit saveAll.
+     */
+    public enum Durability
+    {
+        SYNC, GROUP_COMMIT, ASYNC
+    }
     
     public String getFilePath()
     {
@@ -35,4 +69,146 @@ public class JsonDbConfig
     {
         this.autoSave = autoSave;
     }
+
+    public StorageMode getStorageMode()
+    {
+        return storageMode;
+    }
+
+    public void setStorageMode(StorageMode storageMode)
+    {
+        this.storageMode = storageMode;
+    }
+
+    public int getCheckpointThreshold()
+    {
+        return checkpointThreshold;
+    }
+
+    public void setCheckpointThreshold(int checkpointThreshold)
+    {
+        this.checkpointThreshold = checkpointThreshold;
+    }
+
+    public Durability getDurability()
+    {
+        return durability;
+    }
+
+    public void setDurability(Durability durability)
+    {
+        this.durability = durability;
+    }
+
+    public long getFlushIntervalMs()
+    {
+        return flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(long flushIntervalMs)
+    {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * When on, every snapshot is also written as a Smile (binary JSON) file next to the JSON
+     * file and loaded on startup in its place while it is not older than the JSON file.
+     */
+    public boolean isBinarySnapshot()
+    {
+        return binarySnapshot;
+    }
+
+    public void setBinarySnapshot(boolean binarySnapshot)
+    {
+        this.binarySnapshot = binarySnapshot;
+    }
+
+    /**
+     * Number of previous snapshots kept as &lt;file&gt;.1, .2, ... to fall back on when the
+     * current one fails its checksum.
+     */
+    public int getSnapshotRetention()
+    {
+        return snapshotRetention;
+    }
+
+    public void setSnapshotRetention(int snapshotRetention)
+    {
+        this.snapshotRetention = snapshotRetention;
+    }
+
+    public int getWarmUpThreads()
+    {
+        return warmUpThreads;
+    }
+
+    public void setWarmUpThreads(int warmUpThreads)
+    {
+        this.warmUpThreads = warmUpThreads;
+    }
+
+    /**
+     * How long a request waits for its repository to finish loading before getting 503.
+     */
+    public long getWarmUpWaitMs()
+    {
+        return warmUpWaitMs;
+    }
+
+    public void setWarmUpWaitMs(long warmUpWaitMs)
+    {
+        this.warmUpWaitMs = warmUpWaitMs;
+    }
+
+    /**
+     * How many document numbers a sequence reserves on disk at a time. Numbers left over in
+     * the current block are skipped if the process dies without a clean shutdown.
+     */
+    public int getSequenceBlockSize()
+    {
+        return sequenceBlockSize;
+    }
+
+    public void setSequenceBlockSize(int sequenceBlockSize)
+    {
+        this.sequenceBlockSize = sequenceBlockSize;
+    }
+
+    /**
+     * When on, every change is also appended to data/&lt;file&gt;.history, which answers
+     * history and point-in-time queries and feeds the change cursors.
+     */
+    public boolean isHistory()
+    {
+        return history;
+    }
+
+    public void setHistory(boolean history)
+    {
+        this.history = history;
+    }
+
+    /**
+     * How far back history and point-in-time queries reach. Older events that no longer make
+     * up the state since then are dropped from the history file when the repository loads;
+     * 0 keeps every event.
+     */
+    public int getHistoryRetentionDays()
+    {
+        return historyRetentionDays;
+    }
+
+    public void setHistoryRetentionDays(int historyRetentionDays)
+    {
+        this.historyRetentionDays = historyRetentionDays;
+    }
+
+    /**
+     * Whether changes are flushed by the background flusher instead of the request thread.
+     */
+    public boolean isWriteBehind()
+    {
+        return autoSave && durability != Durability.SYNC;
+    }
 }
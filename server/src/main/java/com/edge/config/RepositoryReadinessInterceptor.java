@@ -0,0 +1,75 @@
+package com.edge.config;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.RepositoryRegistry;
+import com.edge.repository.RepositoryWarmUp;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.Optional;
+
+/**
+ * Holds /api/{resource} requests while the resource's repository is still loading. A request
+ * waits up to jsondb.warm-up-wait-ms and then gets 503 with Retry-After. Requests for a
+ * repository whose load failed get 503 without Retry-After until the application is restarted.
+ */
+@Component
+public class RepositoryReadinessInterceptor implements HandlerInterceptor
+{
+    private static final String API_PREFIX = "/api/";
+
+    @Autowired
+    private JsonDbConfig config;
+
+    @Autowired
+    private RepositoryWarmUp repositoryWarmUp;
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception
+    {
+        if (repositoryWarmUp.isReady() && !repositoryWarmUp.hasFailures())
+        {
+            return true;
+        }
+
+        Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(resourceOf(request));
+        if (repository.isEmpty())
+        {
+            return true;
+        }
+        if (!repository.get().isLoaded() && !repository.get().awaitLoaded(config.getWarmUpWaitMs()))
+        {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return false;
+        }
+        if (!repository.get().isAvailable())
+        {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return false;
+        }
+        return true;
+    }
+
+    private String resourceOf(HttpServletRequest request)
+    {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.startsWith(API_PREFIX))
+        {
+            return "";
+        }
+        int end = path.indexOf('/', API_PREFIX.length());
+        return end < 0 ? path.substring(API_PREFIX.length()) : path.substring(API_PREFIX.length(), end);
+    }
+}
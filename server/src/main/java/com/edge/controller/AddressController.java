@@ -4,6 +4,9 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Address;
+import com.edge.entity.Customer;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.AddressService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -21,9 +24,19 @@ public class AddressController {
     @Autowired
     private AddressService addressService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Address> getAllAddresses() {
-        return addressService.getAllAddresses();
+    public ResponseEntity<?> getAllAddresses(PageQuery pageQuery) {
+        if (!pageQuery.isPaged()) {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(addressService::forEachAddressAfter));
+        }
+        try {
+            return ResponseEntity.ok(addressService.getAddressPage(pageQuery));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -33,6 +46,20 @@ public class AddressController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Address>> getAddressesByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(addressService.getAddressesByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Address>> lookupAddresses(@RequestBody List<String> ids) {
+        return getAddressesByIds(ids);
+    }
+
     @GetMapping(value = "/customer/{customerId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public List<Address> getAddressesByCustomerId(@PathVariable String customerId) {
         return addressService.getAddressesByCustomerId(customerId);
@@ -45,6 +72,11 @@ public class AddressController {
         return addressService.getAddressesByCustomerIdAndType(customerId, addressType);
     }
 
+    @GetMapping(value = "/{id}/customers", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public List<Customer> getCustomersByAddressId(@PathVariable String id) {
+        return addressService.getCustomersByAddressId(id);
+    }
+
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public Address createAddress(@RequestBody Address address) {
         return addressService.createAddress(address);
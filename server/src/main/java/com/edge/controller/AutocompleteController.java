@@ -0,0 +1,81 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.RepositoryRegistry;
+import com.edge.repository.Suggestion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Typeahead for order entry: values starting with what the user typed, e.g.
+ * /api/autocomplete?q=PROD-0&entities=products&field=productCode. Without entities all
+ * repositories with prefix indexes are asked (orders, customers, products); matches are
+ * returned in value order, ignoring case.
+ */
+@Component
+@RestController
+@RequestMapping("/api/autocomplete")
+public class AutocompleteController {
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 100;
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<List<Suggestion>> complete(@RequestParam String q,
+                                                     @RequestParam(required = false) List<String> entities,
+                                                     @RequestParam(required = false) String field,
+                                                     @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit) {
+        if (q.isBlank()) {
+            return ResponseEntity.ok(List.of());
+        }
+        List<AbstractJsonRepository<?>> repositories = new ArrayList<>();
+        if (entities == null || entities.isEmpty()) {
+            repositoryRegistry.getAll().stream()
+                    .filter(repository -> field == null
+                            ? !repository.getPrefixFields().isEmpty()
+                            : repository.getPrefixFields().contains(field))
+                    .forEach(repositories::add);
+        } else {
+            for (String entity : entities) {
+                Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(entity.trim());
+                if (repository.isEmpty() || repository.get().getPrefixFields().isEmpty()) {
+                    return ResponseEntity.badRequest().build();
+                }
+                repositories.add(repository.get());
+            }
+        }
+        int maxSuggestions = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        List<Suggestion> suggestions = new ArrayList<>();
+        try {
+            for (AbstractJsonRepository<?> repository : repositories) {
+                suggestions.addAll(repository.complete(q, field, maxSuggestions));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        suggestions.sort(Comparator.comparing((Suggestion suggestion) -> suggestion.getValue().trim().toLowerCase(Locale.ROOT))
+                .thenComparing(Suggestion::getEntity)
+                .thenComparing(Suggestion::getField));
+        return ResponseEntity.ok(suggestions.size() > maxSuggestions
+                ? new ArrayList<>(suggestions.subList(0, maxSuggestions)) : suggestions);
+    }
+}
@@ -0,0 +1,107 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.ChangeSet;
+import com.edge.repository.RepositoryRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Incremental sync for clients that missed WebSocket updates, e.g. after a reconnect. Each
+ * repository numbers its changes; a client keeps the cursor from the last response and asks
+ * only for what changed after it.
+ * <p>
+ * since is either one sequence for all requested entities (0 for everything) or the cursor
+ * returned by the previous call, e.g. "inventory:45,orders:130".
+ */
+@Component
+@RestController
+@RequestMapping("/api/changes")
+public class ChangeController {
+
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10000;
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<Map<String, Object>> getChanges(@RequestParam(defaultValue = "0") String since,
+                                                          @RequestParam(required = false) List<String> entities,
+                                                          @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit) {
+        List<AbstractJsonRepository<?>> repositories = new ArrayList<>();
+        if (entities == null || entities.isEmpty()) {
+            repositories.addAll(repositoryRegistry.getAll());
+        } else {
+            for (String entity : entities) {
+                Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(entity.trim());
+                if (repository.isEmpty()) {
+                    return ResponseEntity.badRequest().build();
+                }
+                repositories.add(repository.get());
+            }
+        }
+
+        Map<String, Long> cursor;
+        try {
+            cursor = parseCursor(since);
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        Map<String, ChangeSet> changes = new LinkedHashMap<>();
+        StringBuilder nextCursor = new StringBuilder();
+        for (AbstractJsonRepository<?> repository : repositories) {
+            String name = repository.getResourceName();
+            long entitySince = cursor.getOrDefault(name, cursor.getOrDefault(null, 0L));
+            ChangeSet changeSet = repository.getChangesSince(entitySince, pageSize);
+            changes.put(name, changeSet);
+            if (nextCursor.length() > 0) {
+                nextCursor.append(',');
+            }
+            nextCursor.append(name).append(':').append(changeSet.getSequence());
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("cursor", nextCursor.toString());
+        result.put("entities", changes);
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Parses "42" into {null: 42} and "orders:130,inventory:45" into one entry per entity.
+     */
+    private Map<String, Long> parseCursor(String since) {
+        Map<String, Long> cursor = new HashMap<>();
+        for (String part : since.split(",")) {
+            String trimmed = part.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int separator = trimmed.lastIndexOf(':');
+            if (separator < 0) {
+                cursor.put(null, Long.parseLong(trimmed));
+            } else {
+                cursor.put(trimmed.substring(0, separator), Long.parseLong(trimmed.substring(separator + 1)));
+            }
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,120 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes a whole entity collection to the response, for the unpaged list endpoints and
+ * /api/export. Entities are written in ID order, a chunk at a time: each chunk is serialized
+ * under the repository's read lock into a token buffer that is written out after the lock is
+ * released. Memory use does not grow with the collection, and a slow client never holds up
+ * writers.
+ */
+@Component
+public class CollectionStreamWriter {
+
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Walks a collection in ID order, like {@link com.edge.repository.AbstractJsonRepository#forEachAfter}.
+     */
+    @FunctionalInterface
+    public interface ChunkedSource<T> {
+        String forEachAfter(String afterId, int limit, Consumer<? super T> action);
+    }
+
+    @FunctionalInterface
+    private interface ItemWriter {
+        void write(JsonGenerator generator, Object item) throws IOException;
+    }
+
+    /**
+     * A response body that Jackson writes as a JSON array, chunk by chunk. It goes through the
+     * regular message converter, so field selection and compression apply as for any body.
+     */
+    public static final class StreamedCollection extends JsonSerializable.Base {
+
+        private final ChunkedSource<?> source;
+
+        private StreamedCollection(ChunkedSource<?> source) {
+            this.source = source;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            generator.writeStartArray();
+            writeChunks(source, generator, (chunk, item) -> serializers.defaultSerializeValue(item, chunk));
+            generator.writeEndArray();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer)
+                throws IOException {
+            serialize(generator, serializers);
+        }
+    }
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    public StreamedCollection jsonArray(ChunkedSource<?> source) {
+        return new StreamedCollection(source);
+    }
+
+    /**
+     * A body writing the collection as a JSON array or, with ndjson, one entity per line.
+     */
+    public StreamingResponseBody body(ChunkedSource<?> source, boolean ndjson) {
+        return out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(StreamUtils.nonClosing(out))) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                if (!ndjson) {
+                    generator.writeStartArray();
+                }
+                writeChunks(source, generator, objectMapper::writeValue);
+                if (ndjson) {
+                    generator.writeRaw('\n');
+                } else {
+                    generator.writeEndArray();
+                }
+            }
+            out.flush();
+        };
+    }
+
+    private static void writeChunks(ChunkedSource<?> source, JsonGenerator generator, ItemWriter itemWriter)
+            throws IOException {
+        String lastId = null;
+        do {
+            TokenBuffer chunk = new TokenBuffer(generator.getCodec(), false);
+            try {
+                lastId = source.forEachAfter(lastId, CHUNK_SIZE, item -> {
+                    try {
+                        itemWriter.write(chunk, item);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            chunk.serialize(generator);
+        } while (lastId != null);
+    }
+}
@@ -4,6 +4,9 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Customer;
+import com.edge.repository.BatchResult;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.CustomerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -21,9 +24,19 @@ public class CustomerController {
     @Autowired
     private CustomerService customerService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Customer> getAllCustomers() {
-        return customerService.getAllCustomers();
+    public ResponseEntity<?> getAllCustomers(PageQuery pageQuery) {
+        if (!pageQuery.isPaged()) {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(customerService::forEachCustomerAfter));
+        }
+        try {
+            return ResponseEntity.ok(customerService.getCustomerPage(pageQuery));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -33,6 +46,20 @@ public class CustomerController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Customer>> getCustomersByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(customerService.getCustomersByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Customer>> lookupCustomers(@RequestBody List<String> ids) {
+        return getCustomersByIds(ids);
+    }
+
     @GetMapping(value = "/email/{email}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Customer> getCustomerByEmail(@PathVariable String email) {
         return customerService.getCustomerByEmail(email)
@@ -45,6 +72,14 @@ public class CustomerController {
         return customerService.createCustomer(customer);
     }
 
+    /**
+     * Creates customers without an id and updates those with one; one result per customer.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public List<BatchResult<Customer>> saveCustomers(@RequestBody List<Customer> customers) {
+        return customerService.saveCustomers(customers);
+    }
+
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Customer> updateCustomer(@PathVariable String id, @RequestBody Customer customerDetails) {
         try {
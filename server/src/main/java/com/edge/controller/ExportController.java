@@ -0,0 +1,68 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.RepositoryRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Optional;
+
+/**
+ * Full dump of one entity collection, e.g. /api/export/orders, as a JSON array or, with
+ * format=ndjson or Accept: application/x-ndjson, one entity per line. Written in ID order and a
+ * chunk at a time by {@link CollectionStreamWriter}, so memory use does not grow with the
+ * collection.
+ */
+@Component
+@RestController
+@RequestMapping("/api/export")
+public class ExportController {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
+    @GetMapping("/{entity}")
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable String entity,
+                                                        @RequestParam(required = false) String format,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(entity);
+        if (repository.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        boolean ndjson;
+        if (format != null) {
+            if (!format.equals("json") && !format.equals("ndjson")) {
+                return ResponseEntity.badRequest().build();
+            }
+            ndjson = format.equals("ndjson");
+        } else {
+            ndjson = accept != null && accept.contains(NDJSON);
+        }
+
+        StreamingResponseBody body = collectionStreamWriter.body(repository.get()::forEachAfter, ndjson);
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.parseMediaType(NDJSON + ";charset=UTF-8")
+                        : MediaType.parseMediaType(MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + entity + (ndjson ? ".ndjson" : ".json") + "\"")
+                .body(body);
+    }
+}
@@ -0,0 +1,74 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.HistoryLog;
+import com.edge.repository.RepositoryRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
+
+@Component
+@RestController
+@RequestMapping("/api")
+public class HistoryController {
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    /**
+     * Every recorded version of an entity within the history retention period, oldest first
+     * (see jsondb.history-retention-days). With asOf (an instant such as 2025-01-31T23:59:59Z,
+     * or a local date-time in the server's zone) returns the entity as it was at that moment
+     * instead.
+     */
+    @GetMapping(value = "/{entity}/{id}/history", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<?> getHistory(@PathVariable String entity, @PathVariable String id,
+                                        @RequestParam(required = false) String asOf) {
+        Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(entity);
+        if (repository.isEmpty() || !repository.get().isHistoryEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        if (asOf != null) {
+            Instant timestamp;
+            try {
+                timestamp = parseTimestamp(asOf);
+            } catch (DateTimeParseException e) {
+                return ResponseEntity.badRequest().build();
+            }
+            return repository.get().asOf(id, timestamp)
+                    .<ResponseEntity<?>>map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        }
+
+        List<HistoryLog.Event> events = repository.get().getHistory(id);
+        if (events.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(events);
+    }
+
+    private Instant parseTimestamp(String value) {
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant();
+        }
+    }
+}
@@ -4,6 +4,11 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Inventory;
+import com.edge.repository.AbstractJsonRepository.DataPersistenceException;
+import com.edge.repository.BatchResult;
+import com.edge.repository.InventoryAdjustment;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.InventoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -19,10 +24,20 @@ public class InventoryController {
     
     @Autowired
     private InventoryService inventoryService;
+
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
     
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Inventory>> getAllInventory() {
-        return ResponseEntity.ok(inventoryService.getAllInventory());
+    public ResponseEntity<?> getAllInventory(PageQuery pageQuery) {
+        if (!pageQuery.isPaged()) {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(inventoryService::forEachInventoryAfter));
+        }
+        try {
+            return ResponseEntity.ok(inventoryService.getInventoryPage(pageQuery));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
     
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -32,6 +47,20 @@ public class InventoryController {
             .orElse(ResponseEntity.notFound().build());
     }
     
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Inventory>> getInventoryByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(inventoryService.getInventoryByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Inventory>> lookupInventory(@RequestBody List<String> ids) {
+        return getInventoryByIds(ids);
+    }
+    
     @GetMapping(value = "/product/{productId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<List<Inventory>> getInventoryByProductId(@PathVariable String productId) {
         return ResponseEntity.ok(inventoryService.getInventoryByProductId(productId));
@@ -61,6 +90,14 @@ public class InventoryController {
         }
     }
     
+    /**
+     * Sets many stock levels at once; one result per entry, in order.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public List<BatchResult<Inventory>> saveInventory(@RequestBody List<Inventory> entries) {
+        return inventoryService.saveInventory(entries);
+    }
+    
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Inventory> updateInventory(@PathVariable String id, @RequestBody Inventory inventory) {
         try {
@@ -85,6 +122,21 @@ public class InventoryController {
         }
     }
     
+    /**
+     * Applies a list of stock changes, e.g. a cycle count or a received shipment, all or
+     * nothing: if any quantity would become negative no change is made.
+     */
+    @PostMapping(value = "/adjust/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<List<Inventory>> adjustInventory(@RequestBody List<InventoryAdjustment> adjustments) {
+        try {
+            return ResponseEntity.ok(inventoryService.adjustInventory(adjustments));
+        } catch (DataPersistenceException e) {
+            return ResponseEntity.internalServerError().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
     @DeleteMapping(value = "/{id}")
     public ResponseEntity<Void> deleteInventory(@PathVariable String id) {
         try {
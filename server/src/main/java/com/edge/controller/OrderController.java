@@ -4,6 +4,10 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Order;
+import com.edge.repository.BatchResult;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.service.OrderService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -12,6 +16,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Optional;
 
 @Component
 @RestController
@@ -21,16 +26,58 @@ public class OrderController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Order> getAllOrders() {
-        return orderService.getAllOrders();
+    public ResponseEntity<?> getAllOrders(PageQuery pageQuery, @RequestParam(required = false) List<String> include) {
+        try {
+            if (!pageQuery.isPaged()) {
+                // References are expanded a page at a time, never for the whole collection
+                if (include != null) {
+                    return ResponseEntity.badRequest().build();
+                }
+                return ResponseEntity.ok(collectionStreamWriter.jsonArray(orderService::forEachOrderAfter));
+            }
+            ResultPage<Order> page = orderService.getOrderPage(pageQuery);
+            if (include == null) {
+                return ResponseEntity.ok(page);
+            }
+            return ResponseEntity.ok(new ResultPage<>(orderService.expandOrders(page.getItems(), include),
+                    page.getTotal(), page.getLimit(), page.getSort(), page.getNextCursor()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<Order> getOrderById(@PathVariable String id) {
-        return orderService.getOrderById(id)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<?> getOrderById(@PathVariable String id, @RequestParam(required = false) List<String> include) {
+        Optional<Order> order = orderService.getOrderById(id);
+        if (order.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (include == null) {
+            return ResponseEntity.ok(order.get());
+        }
+        try {
+            return ResponseEntity.ok(orderService.expandOrders(List.of(order.get()), include).get(0));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Order>> getOrdersByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(orderService.getOrdersByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Order>> lookupOrders(@RequestBody List<String> ids) {
+        return getOrdersByIds(ids);
     }
 
     @GetMapping(value = "/customer/{customerId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -48,6 +95,14 @@ public class OrderController {
         return orderService.createOrder(order);
     }
 
+    /**
+     * Creates many orders at once, e.g. a day's EDI import; one result per order, in order.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public List<BatchResult<Order>> createOrders(@RequestBody List<Order> orders) {
+        return orderService.createOrders(orders);
+    }
+
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Order> updateOrder(@PathVariable String id, @RequestBody Order orderDetails) {
         try {
@@ -56,6 +111,10 @@ public class OrderController {
             Order updatedOrder = orderService.updateOrder(id, orderDetails);
             System.out.println("Updated order status: " + updatedOrder.getStatus());
             return ResponseEntity.ok(updatedOrder);
+        } catch (IllegalArgumentException e) {
+            // e.g. not enough stock to ship; nothing was changed
+            System.err.println("Rejected order update: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (RuntimeException e) {
             System.err.println("Error updating order: " + e.getMessage());
             e.printStackTrace();
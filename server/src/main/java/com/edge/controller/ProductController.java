@@ -4,6 +4,9 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Product;
+import com.edge.repository.BatchResult;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -21,9 +24,19 @@ public class ProductController {
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Product> getAllProducts() {
-        return productService.getAllProducts();
+    public ResponseEntity<?> getAllProducts(PageQuery pageQuery) {
+        if (!pageQuery.isPaged()) {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(productService::forEachProductAfter));
+        }
+        try {
+            return ResponseEntity.ok(productService.getProductPage(pageQuery));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/active", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -38,11 +51,33 @@ public class ProductController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Product>> getProductsByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(productService.getProductsByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Product>> lookupProducts(@RequestBody List<String> ids) {
+        return getProductsByIds(ids);
+    }
+
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public Product createProduct(@RequestBody Product product) {
         return productService.createProduct(product);
     }
 
+    /**
+     * Creates products without an id and updates those with one; one result per product.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public List<BatchResult<Product>> saveProducts(@RequestBody List<Product> products) {
+        return productService.saveProducts(products);
+    }
+
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Product> updateProduct(@PathVariable String id, @RequestBody Product productDetails) {
         try {
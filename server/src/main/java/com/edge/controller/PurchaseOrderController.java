@@ -4,6 +4,10 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.PurchaseOrder;
+import com.edge.repository.BatchResult;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.service.PurchaseOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -12,6 +16,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Optional;
 
 @Component
 @RestController
@@ -21,16 +26,58 @@ public class PurchaseOrderController {
     @Autowired
     private PurchaseOrderService purchaseOrderService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<PurchaseOrder> getAllPurchaseOrders() {
-        return purchaseOrderService.getAllPurchaseOrders();
+    public ResponseEntity<?> getAllPurchaseOrders(PageQuery pageQuery, @RequestParam(required = false) List<String> include) {
+        try {
+            if (!pageQuery.isPaged()) {
+                // References are expanded a page at a time, never for the whole collection
+                if (include != null) {
+                    return ResponseEntity.badRequest().build();
+                }
+                return ResponseEntity.ok(collectionStreamWriter.jsonArray(purchaseOrderService::forEachPurchaseOrderAfter));
+            }
+            ResultPage<PurchaseOrder> page = purchaseOrderService.getPurchaseOrderPage(pageQuery);
+            if (include == null) {
+                return ResponseEntity.ok(page);
+            }
+            return ResponseEntity.ok(new ResultPage<>(purchaseOrderService.expandPurchaseOrders(page.getItems(), include),
+                    page.getTotal(), page.getLimit(), page.getSort(), page.getNextCursor()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<PurchaseOrder> getPurchaseOrderById(@PathVariable String id) {
-        return purchaseOrderService.getPurchaseOrderById(id)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<?> getPurchaseOrderById(@PathVariable String id, @RequestParam(required = false) List<String> include) {
+        Optional<PurchaseOrder> purchaseOrder = purchaseOrderService.getPurchaseOrderById(id);
+        if (purchaseOrder.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (include == null) {
+            return ResponseEntity.ok(purchaseOrder.get());
+        }
+        try {
+            return ResponseEntity.ok(purchaseOrderService.expandPurchaseOrders(List.of(purchaseOrder.get()), include).get(0));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<PurchaseOrder>> getPurchaseOrdersByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(purchaseOrderService.getPurchaseOrdersByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<PurchaseOrder>> lookupPurchaseOrders(@RequestBody List<String> ids) {
+        return getPurchaseOrdersByIds(ids);
     }
 
     @GetMapping(value = "/supplier/{supplierId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -48,6 +95,14 @@ public class PurchaseOrderController {
         return purchaseOrderService.createPurchaseOrder(po);
     }
 
+    /**
+     * Creates many purchase orders at once; one result per purchase order, in order.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public List<BatchResult<PurchaseOrder>> createPurchaseOrders(@RequestBody List<PurchaseOrder> pos) {
+        return purchaseOrderService.createPurchaseOrders(pos);
+    }
+
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<PurchaseOrder> updatePurchaseOrder(@PathVariable String id, @RequestBody PurchaseOrder poDetails) {
         try {
@@ -56,6 +111,10 @@ public class PurchaseOrderController {
             PurchaseOrder updatedPO = purchaseOrderService.updatePurchaseOrder(id, poDetails);
             System.out.println("Updated purchase order status: " + updatedPO.getStatus());
             return ResponseEntity.ok(updatedPO);
+        } catch (IllegalArgumentException e) {
+            // Nothing was changed
+            System.err.println("Rejected purchase order update: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (RuntimeException e) {
             System.err.println("Error updating purchase order: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,47 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.EntityQuery;
+import com.edge.repository.RepositoryRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+
+@Component
+@RestController
+@RequestMapping("/api")
+public class QueryController {
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    /**
+     * Filters any entity collection with the conditions of an {@link EntityQuery}, e.g.
+     * POST /api/orders/query. POST because the conditions are a JSON document, and because
+     * GET /api/orders/query would be taken for /api/orders/{id}.
+     */
+    @PostMapping(value = "/{entity}/query", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<?> query(@PathVariable String entity, @RequestBody EntityQuery query) {
+        Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(entity);
+        if (repository.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(repository.get().query(query));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -4,6 +4,9 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.RMA;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.service.RMAService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -12,6 +15,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Optional;
 
 @Component
 @RestController
@@ -21,16 +25,58 @@ public class RMAController {
     @Autowired
     private RMAService rmaService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<RMA> getAllRMAs() {
-        return rmaService.getAllRMAs();
+    public ResponseEntity<?> getAllRMAs(PageQuery pageQuery, @RequestParam(required = false) List<String> include) {
+        try {
+            if (!pageQuery.isPaged()) {
+                // References are expanded a page at a time, never for the whole collection
+                if (include != null) {
+                    return ResponseEntity.badRequest().build();
+                }
+                return ResponseEntity.ok(collectionStreamWriter.jsonArray(rmaService::forEachRMAAfter));
+            }
+            ResultPage<RMA> page = rmaService.getRMAPage(pageQuery);
+            if (include == null) {
+                return ResponseEntity.ok(page);
+            }
+            return ResponseEntity.ok(new ResultPage<>(rmaService.expandRMAs(page.getItems(), include),
+                    page.getTotal(), page.getLimit(), page.getSort(), page.getNextCursor()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<RMA> getRMAById(@PathVariable String id) {
-        return rmaService.getRMAById(id)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<?> getRMAById(@PathVariable String id, @RequestParam(required = false) List<String> include) {
+        Optional<RMA> rma = rmaService.getRMAById(id);
+        if (rma.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (include == null) {
+            return ResponseEntity.ok(rma.get());
+        }
+        try {
+            return ResponseEntity.ok(rmaService.expandRMAs(List.of(rma.get()), include).get(0));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<RMA>> getRMAsByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(rmaService.getRMAsByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<RMA>> lookupRMAs(@RequestBody List<String> ids) {
+        return getRMAsByIds(ids);
     }
 
     @GetMapping(value = "/order/{orderId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -61,6 +107,10 @@ public class RMAController {
             RMA updatedRMA = rmaService.updateRMA(id, rmaDetails);
             System.out.println("Updated RMA status: " + updatedRMA.getStatus());
             return ResponseEntity.ok(updatedRMA);
+        } catch (IllegalArgumentException e) {
+            // e.g. restocked items no longer in stock on cancel; nothing was changed
+            System.err.println("Rejected RMA update: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (RuntimeException e) {
             System.err.println("Error updating RMA: " + e.getMessage());
             e.printStackTrace();
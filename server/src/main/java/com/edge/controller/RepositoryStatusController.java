@@ -0,0 +1,53 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.RepositoryRegistry;
+import com.edge.repository.RepositoryWarmUp;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@RestController
+@RequestMapping("/api/status")
+public class RepositoryStatusController {
+
+    @Autowired
+    private RepositoryWarmUp repositoryWarmUp;
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @GetMapping(value = "/repositories", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public Map<String, Object> getRepositoryStatus() {
+        List<Map<String, Object>> repositories = new ArrayList<>();
+        for (AbstractJsonRepository<?> repository : repositoryRegistry.getAll()) {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("name", repository.getResourceName());
+            status.put("ready", repository.isAvailable());
+            status.put("count", repository.isAvailable() ? repository.count() : null);
+            if (repository.getLoadFailure() != null) {
+                status.put("error", repository.getLoadFailure().getMessage());
+            }
+            status.put("loadTimeMs", repository.getLoadTimeMs());
+            repositories.add(status);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ready", repositoryWarmUp.isReady() && !repositoryWarmUp.hasFailures());
+        result.put("warmUpTimeMs", repositoryWarmUp.getWarmUpTimeMs());
+        result.put("repositories", repositories);
+        return result;
+    }
+}
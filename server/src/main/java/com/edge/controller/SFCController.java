@@ -4,6 +4,8 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.SFC;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.SFCService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -21,9 +23,19 @@ public class SFCController {
     @Autowired
     private SFCService sfcService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<SFC> getAllSFCs() {
-        return sfcService.getAllSFCs();
+    public ResponseEntity<?> getAllSFCs(PageQuery pageQuery) {
+        if (!pageQuery.isPaged()) {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(sfcService::forEachSFCAfter));
+        }
+        try {
+            return ResponseEntity.ok(sfcService.getSFCPage(pageQuery));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -33,6 +45,20 @@ public class SFCController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<SFC>> getSFCsByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(sfcService.getSFCsByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<SFC>> lookupSFCs(@RequestBody List<String> ids) {
+        return getSFCsByIds(ids);
+    }
+
     @GetMapping(value = "/rma/{rmaId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public List<SFC> getSFCsByRMAId(@PathVariable String rmaId) {
         return sfcService.getSFCsByRMAId(rmaId);
@@ -0,0 +1,69 @@
+package com.edge.controller;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.RepositoryRegistry;
+import com.edge.repository.SearchHit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Ranked full-text search over the searchable entities (customers, vendors and products),
+ * e.g. /api/search?q=acme or /api/search?q=prod-00&entities=products. Each hit carries its
+ * entity type, score and the entity itself.
+ */
+@Component
+@RestController
+@RequestMapping("/api/search")
+public class SearchController {
+
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 200;
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<List<SearchHit<?>>> search(@RequestParam String q,
+                                                     @RequestParam(required = false) List<String> entities,
+                                                     @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit) {
+        if (q.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<AbstractJsonRepository<?>> repositories = new ArrayList<>();
+        if (entities == null || entities.isEmpty()) {
+            repositoryRegistry.getAll().stream()
+                    .filter(AbstractJsonRepository::isSearchable)
+                    .forEach(repositories::add);
+        } else {
+            for (String entity : entities) {
+                Optional<AbstractJsonRepository<?>> repository = repositoryRegistry.find(entity.trim());
+                if (repository.isEmpty() || !repository.get().isSearchable()) {
+                    return ResponseEntity.badRequest().build();
+                }
+                repositories.add(repository.get());
+            }
+        }
+        int maxHits = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        List<SearchHit<?>> hits = new ArrayList<>();
+        for (AbstractJsonRepository<?> repository : repositories) {
+            hits.addAll(repository.search(q, maxHits));
+        }
+        hits.sort(Comparator.comparingDouble((SearchHit<?> hit) -> hit.getScore()).reversed());
+        return ResponseEntity.ok(hits.size() > maxHits ? new ArrayList<>(hits.subList(0, maxHits)) : hits);
+    }
+}
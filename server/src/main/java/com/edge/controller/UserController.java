@@ -4,6 +4,8 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.User;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -23,10 +25,24 @@ public class UserController
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<User> getAllUsers()
+    public ResponseEntity<?> getAllUsers(PageQuery pageQuery)
     {
-        return userService.getAllUsers();
+        if (!pageQuery.isPaged())
+        {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(userService::forEachUserAfter));
+        }
+        try
+        {
+            return ResponseEntity.ok(userService.getUserPage(pageQuery));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -37,6 +53,25 @@ public class UserController
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<User>> getUsersByIds(@RequestParam List<String> ids)
+    {
+        try
+        {
+            return ResponseEntity.ok(userService.getUsersByIds(ids));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<User>> lookupUsers(@RequestBody List<String> ids)
+    {
+        return getUsersByIds(ids);
+    }
+
     @GetMapping(value = "/email/{email}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<User> getUserByEmail(@PathVariable String email)
     {
@@ -75,10 +110,9 @@ public class UserController
         System.out.println("Password matches: " + passwordMatches);
         
         if (passwordMatches) {
-            // Don't return password in response
-            user.setPassword(null);
             System.out.println("Login successful for user: " + user.getUserid());
-            return ResponseEntity.ok(user);
+            // Don't return password in response
+            return ResponseEntity.ok(userService.withoutPassword(user));
         } else {
             System.out.println("Login failed: password mismatch");
             return ResponseEntity.status(401).build();
@@ -4,6 +4,8 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Warehouse;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.service.WarehouseService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -19,10 +21,20 @@ public class WarehouseController {
     
     @Autowired
     private WarehouseService warehouseService;
+
+    @Autowired
+    private CollectionStreamWriter collectionStreamWriter;
     
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Warehouse>> getAllWarehouses() {
-        return ResponseEntity.ok(warehouseService.getAllWarehouses());
+    public ResponseEntity<?> getAllWarehouses(PageQuery pageQuery) {
+        if (!pageQuery.isPaged()) {
+            return ResponseEntity.ok(collectionStreamWriter.jsonArray(warehouseService::forEachWarehouseAfter));
+        }
+        try {
+            return ResponseEntity.ok(warehouseService.getWarehousePage(pageQuery));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
     
     @GetMapping(value = "/active", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -37,6 +49,20 @@ public class WarehouseController {
             .orElse(ResponseEntity.notFound().build());
     }
     
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Warehouse>> getWarehousesByIds(@RequestParam List<String> ids) {
+        try {
+            return ResponseEntity.ok(warehouseService.getWarehousesByIds(ids));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @PostMapping(value = "/ids", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<MultiGetResult<Warehouse>> lookupWarehouses(@RequestBody List<String> ids) {
+        return getWarehousesByIds(ids);
+    }
+    
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Warehouse> createWarehouse(@RequestBody Warehouse warehouse) {
         try {
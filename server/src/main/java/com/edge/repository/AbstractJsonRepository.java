@@ -3,151 +3,2229 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
+/**
+ * Base class for the file-backed repositories.
+ * <p>
+ * Concurrency: all in-memory state (items, primary key and secondary indexes) is guarded by a
+ * read-write lock. Lookups run under the shared read lock and never see a half-applied change;
+ * mutations run under the exclusive write lock. Stored entities are never changed in place: a
+ * save stores a new copy in place of the old one. Finders therefore hand out the stored
+ * instances without copying, and an entity that is being serialized, to a response or the data
+ * file, cannot change underneath. Entities returned by finders must be treated as read-only;
+ * code that changes an entity and saves it back starts from {@link #findByIdForUpdate} or
+ * {@link #copyOf}. Subclass methods that read, modify and save an entity wrap the whole
+ * sequence in {@link #writeLocked} so concurrent updates are not lost.
+ * Writing the data file happens after the write lock is released, so readers are not blocked
+ * by disk I/O. When a caller returns depends on {@link JsonDbConfig.Durability}: with SYNC once
+ * its change is on disk, with GROUP_COMMIT once the next {@link #flush} has written it, and
+ * with ASYNC immediately.
+ * <p>
+ * Transactions: {@link RepositoryTransactionManager} can hold the write locks of several
+ * repositories at once. Changes made by the transaction on this repository are kept in memory,
+ * remembered with the entity state from before the transaction, and only counted as
+ * modifications once the transaction is committed to the {@link TransactionJournal}. Every save records in the
+ * journal which transactions the data file now contains; on load, newer ones are replayed.
+ * <p>
+ * History: unless disabled, every change is also appended to a {@link HistoryLog}, which keeps
+ * the past versions of each entity within the retention period for {@link #getHistory} and
+ * {@link #asOf}. It is written
+ * alongside, and forced no later than, the data file or write-ahead log, so it never lags the
+ * saved state; current-state reads do not touch it.
+ * <p>
+ * Loading: the data file is not read in the constructor. {@link RepositoryWarmUp} loads all
+ * repositories in parallel at startup; any access before that finishes waits for the load
+ * (or performs it, if warm-up has not reached this repository yet).
+ */
 public abstract class AbstractJsonRepository<T>
 {
     protected static final Logger logger = LoggerFactory.getLogger(AbstractJsonRepository.class);
     
+    private static final String WRITE_AHEAD_LOG_SUFFIX = ".wal";
+    private static final String BINARY_SNAPSHOT_SUFFIX = ".smile";
+    private static final String HISTORY_SUFFIX = ".history";
+    private static final String QUARANTINE_DIR_NAME = "quarantine";
+    private static final long PROGRESS_MIN_FILE_SIZE = 8L * 1024 * 1024;
+    private static final int PROGRESS_STEP_PERCENT = 10;
+    private static final String DEFAULT_SORT = "id";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_MULTI_GET_IDS = 1000;
+    // Below this size a sequential scan is cheaper than forking
+    private static final int PARALLEL_SCAN_THRESHOLD = 10_000;
+
     protected final ObjectMapper objectMapper;
     protected final Path dataFilePath;
     protected final String entityName;
-    protected List<T> items = new ArrayList<>();
+    protected final Class<T> entityClass;
+    // Primary key index; insertion order is the order items are returned and saved in
+    private final Map<String, T> itemsById = new LinkedHashMap<>();
+    // Only access while holding the lock
+    protected final Collection<T> items = itemsById.values();
+    private final List<SecondaryIndex<T>> secondaryIndexes = new ArrayList<>();
+    private final Map<String, SortedIndex<T>> sortedIndexes = new LinkedHashMap<>();
+    private final Map<String, PrefixIndex<T>> prefixIndexes = new LinkedHashMap<>();
+    // Only set for repositories with text fields
+    private TextIndex<T> textIndex;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Serializes snapshot writes; never acquired while holding the lock
+    private final Object persistMonitor = new Object();
+    // Number of applied changes, only incremented under the write lock
+    private volatile long modificationCount;
+    private volatile long persistedModificationCount;
+    // Notified whenever persistedModificationCount advances
+    private final Object flushSignal = new Object();
+    // Start of this process's version numbering, so versions of an earlier run never match
+    private final long versionEpoch = System.currentTimeMillis();
+    private volatile long lastModified = versionEpoch;
+    // Entities changed since the load; written under the write lock, read without it
+    private final Map<String, EntityVersion> entityVersions = new ConcurrentHashMap<>();
+
+    private final boolean autoSave;
+    private final JsonDbConfig.Durability durability;
+    private final long flushIntervalMs;
+
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+    private final CountDownLatch loadedLatch = new CountDownLatch(1);
+    private volatile boolean loaded;
+    private volatile long loadTimeMs = -1;
+    private volatile RuntimeException loadFailure;
+    // Set when the load fell back to an older snapshot generation
+    private boolean recoveredFromOlderSnapshot;
+
+    private final SnapshotFiles snapshotFiles;
+    // Only set when binary snapshots are enabled
+    private final SnapshotFiles binarySnapshotFiles;
+    private final ObjectMapper binaryMapper;
+    // Only set in LOG storage mode
+    private final WriteAheadLog writeAheadLog;
+    private final int checkpointThreshold;
+    // Only set when history is enabled
+    private final HistoryLog historyLog;
+    // Events older than this are dropped from the history on load; null keeps them all
+    private final Duration historyRetention;
+
+    // Not set when the repository is created outside Spring, e.g. by a benchmark
+    @Autowired(required = false)
+    private TransactionJournal transactionJournal;
+    // Last committed transaction applied to the in-memory state, and last one recorded as saved
+    private volatile long appliedTransaction;
+    private volatile long checkpointedTransaction;
+    private boolean replayedTransactions;
+
+    public AbstractJsonRepository(JsonDbConfig config, Path dataDir, String fileName, String entityName)
+    {
+        this.objectMapper = createObjectMapper();
+        this.dataFilePath = dataDir.resolve(fileName);
+        this.entityName = entityName;
+        this.entityClass = resolveEntityClass();
+        this.checkpointThreshold = Math.max(1, config.getCheckpointThreshold());
+        this.autoSave = config.isAutoSave();
+        this.durability = config.getDurability();
+        this.flushIntervalMs = Math.max(1, config.getFlushIntervalMs());
+        this.snapshotFiles = new SnapshotFiles(dataFilePath, config.getSnapshotRetention());
+        this.binarySnapshotFiles = config.isBinarySnapshot()
+            ? new SnapshotFiles(dataFilePath.resolveSibling(fileName + BINARY_SNAPSHOT_SUFFIX), 0)
+            : null;
+        this.binaryMapper = config.isBinarySnapshot() ? objectMapper.copyWith(new SmileFactory()) : null;
+        this.writeAheadLog = config.getStorageMode() == JsonDbConfig.StorageMode.LOG
+            ? new WriteAheadLog(dataFilePath.resolveSibling(fileName + WRITE_AHEAD_LOG_SUFFIX), objectMapper)
+            : null;
+        this.historyLog = config.isHistory()
+            ? new HistoryLog(dataFilePath.resolveSibling(fileName + HISTORY_SUFFIX), objectMapper)
+            : null;
+        this.historyRetention = config.getHistoryRetentionDays() > 0
+            ? Duration.ofDays(config.getHistoryRetentionDays())
+            : null;
+        registerSortedIndex(DEFAULT_SORT, String.class, this::getId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<T> resolveEntityClass()
+    {
+        Class<?> type = getClass();
+        while (type.getSuperclass() != AbstractJsonRepository.class)
+        {
+            type = type.getSuperclass();
+        }
+        return (Class<T>) ((ParameterizedType) type.getGenericSuperclass()).getActualTypeArguments()[0];
+    }
+
+    protected ObjectMapper createObjectMapper()
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return mapper;
+    }
+
+    /**
+     * The named data directory under the working directory, where the application keeps its files.
+     */
+    protected static Path resolveDataDir(String dataDirName)
+    {
+        return Paths.get("").toAbsolutePath().resolve(dataDirName);
+    }
+
+    /**
+     * Loads the data file unless already loaded. The first caller performs the load, concurrent
+     * callers wait for it. A failed load is rethrown to every caller so the repository is never
+     * used with partial state.
+     */
+    public void ensureLoaded()
+    {
+        if (!loaded)
+        {
+            if (loadStarted.compareAndSet(false, true))
+            {
+                long startNanos = System.nanoTime();
+                try
+                {
+                    loadItems();
+                }
+                catch (RuntimeException e)
+                {
+                    loadFailure = e;
+                }
+                finally
+                {
+                    loadTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    loaded = true;
+                    loadedLatch.countDown();
+                }
+                if (loadFailure == null && isDirty())
+                {
+                    rewriteRecoveredSnapshot();
+                }
+            }
+            else
+            {
+                try
+                {
+                    loadedLatch.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for " + entityName + " to load", e);
+                }
+            }
+        }
+        if (loadFailure != null)
+        {
+            throw loadFailure;
+        }
+    }
+
+    /**
+     * Waits up to the given time for the load to finish without triggering it.
+     *
+     * @return whether the repository is loaded
+     */
+    public boolean awaitLoaded(long timeoutMs) throws InterruptedException
+    {
+        return loadedLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Whether the load finished without error, so the repository can serve requests.
+     */
+    public boolean isAvailable()
+    {
+        return loaded && loadFailure == null;
+    }
+
+    /**
+     * Why the load failed, or null while loading or after a successful load.
+     */
+    public RuntimeException getLoadFailure()
+    {
+        return loadFailure;
+    }
+
+    /**
+     * Duration of the initial load, or -1 while it has not finished.
+     */
+    public long getLoadTimeMs()
+    {
+        return loaded ? loadTimeMs : -1;
+    }
+
+    /**
+     * Version of the repository contents: grows with every change. Together with
+     * {@link #getVersionEpoch()} it identifies the contents, e.g. for ETags.
+     */
+    public long getVersion()
+    {
+        return modificationCount;
+    }
+
+    public long getVersionEpoch()
+    {
+        return versionEpoch;
+    }
+
+    /**
+     * Time of the last change in epoch milliseconds, or of the start when nothing changed yet.
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * Version of the entity with the given ID, or null when there is no such entity.
+     */
+    public EntityVersion getEntityVersion(String id)
+    {
+        return readLocked(() -> {
+            if (!itemsById.containsKey(id))
+            {
+                return null;
+            }
+            EntityVersion entityVersion = entityVersions.get(id);
+            return entityVersion != null ? entityVersion : new EntityVersion(0, versionEpoch);
+        });
+    }
+
+    /**
+     * Counts a committed change of one entity. Call under the write lock.
+     */
+    private void markModified(String id)
+    {
+        modificationCount++;
+        lastModified = System.currentTimeMillis();
+        if (itemsById.containsKey(id))
+        {
+            entityVersions.put(id, new EntityVersion(modificationCount, lastModified));
+        }
+        else
+        {
+            entityVersions.remove(id);
+        }
+    }
+
+    public String getEntityName()
+    {
+        return entityName;
+    }
+
+    /**
+     * Name used in API paths, e.g. "purchase-orders" for /api/purchase-orders.
+     */
+    public String getResourceName()
+    {
+        return entityName.replace(' ', '-');
+    }
+
+    protected void loadItems()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            loadItemsLocked();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void loadItemsLocked()
+    {
+        logger.info("Loading {} from data file: {}", entityName, dataFilePath);
+        
+        try
+        {
+            loadItemsFromFile();
+        }
+        catch (IOException e)
+        {
+            // Starting empty would serve, and on the next save overwrite, a store that lost its data
+            logger.error("Error loading {} from file: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to load " + entityName + " from " + dataFilePath, e);
+        }
+
+        if (writeAheadLog != null)
+        {
+            replayWriteAheadLog();
+        }
+        if (historyLog != null)
+        {
+            openHistory();
+        }
+        if (transactionJournal != null)
+        {
+            replayTransactionJournal();
+        }
+        rebuildIndexes();
+        persistedModificationCount = modificationCount;
+        if (recoveredFromOlderSnapshot || replayedTransactions)
+        {
+            // Marks the store dirty so a fresh current snapshot is written right after loading
+            modificationCount++;
+        }
+    }
+
+    private void rewriteRecoveredSnapshot()
+    {
+        try
+        {
+            saveItems();
+        }
+        catch (DataPersistenceException e)
+        {
+            logger.error("Failed to rewrite recovered {} snapshot, will retry on the next save", entityName);
+        }
+    }
+
+    /**
+     * Loads from the binary snapshot when enabled and at least as new as the JSON file (an
+     * edited or re-imported JSON file wins), otherwise from the newest intact JSON snapshot.
+     * When a snapshot is damaged (e.g. its checksum does not match), the next older generation
+     * is tried, and the damaged ones are moved to the quarantine directory once one loads.
+     * When every existing generation is damaged the load fails rather than starting empty.
+     * Snapshots without a usable checksum (older files, or files replaced or edited outside the
+     * application) are loaded with record salvage.
+     */
+    protected void loadItemsFromFile() throws IOException
+    {
+        if (binarySnapshotFiles != null && isBinarySnapshotCurrent())
+        {
+            Path binarySnapshotPath = binarySnapshotFiles.getPath();
+            try
+            {
+                streamItems(binarySnapshotPath, binaryMapper, false, binarySnapshotFiles.expectedChecksum(binarySnapshotPath));
+                return;
+            }
+            catch (IOException e)
+            {
+                logger.warn("Binary snapshot {} is unreadable, loading {} from JSON instead: {}",
+                    binarySnapshotPath, entityName, e.getMessage());
+            }
+        }
+
+        List<Path> damaged = new ArrayList<>();
+        for (Path snapshot : snapshotFiles.generations())
+        {
+            if (!Files.exists(snapshot))
+            {
+                continue;
+            }
+            try
+            {
+                SnapshotFiles.Checksum expected = snapshotFiles.expectedChecksum(snapshot);
+                streamItems(snapshot, objectMapper, expected == null, expected);
+                for (Path damagedSnapshot : damaged)
+                {
+                    Path moved = snapshotFiles.quarantine(damagedSnapshot, dataFilePath.resolveSibling(QUARANTINE_DIR_NAME));
+                    logger.error("Moved damaged snapshot {} of {} to {}", damagedSnapshot.getFileName(), entityName, moved);
+                }
+                recoveredFromOlderSnapshot = !snapshot.equals(dataFilePath);
+                if (recoveredFromOlderSnapshot)
+                {
+                    logger.warn("Recovered {} from older snapshot {}; changes made after it are lost", entityName, snapshot);
+                }
+                return;
+            }
+            catch (IOException e)
+            {
+                damaged.add(snapshot);
+                logger.error("Snapshot {} of {} is damaged ({}); trying an older one", snapshot.getFileName(), entityName, e.getMessage());
+            }
+        }
+
+        if (!damaged.isEmpty())
+        {
+            // Left in place, so every restart fails the same way until the files are repaired
+            throw new IOException("No intact snapshot of " + entityName + ", damaged: " + damaged);
+        }
+        logger.info("No data file found, starting with empty {} list", entityName);
+        itemsById.clear();
+    }
+
+    private boolean isBinarySnapshotCurrent() throws IOException
+    {
+        Path binarySnapshotPath = binarySnapshotFiles.getPath();
+        return Files.exists(binarySnapshotPath)
+            && (!Files.exists(dataFilePath)
+                || Files.getLastModifiedTime(binarySnapshotPath).compareTo(Files.getLastModifiedTime(dataFilePath)) >= 0);
+    }
+
+    private boolean isBinarySnapshotStale()
+    {
+        try
+        {
+            return binarySnapshotFiles != null && Files.exists(dataFilePath) && !isBinarySnapshotCurrent();
+        }
+        catch (IOException e)
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Streams a snapshot file (an array of records) into the store one record at a time, so the
+     * file is read once and only the current record is held in a token buffer. With salvage on, records
+     * that cannot be mapped to the entity are skipped and written to the quarantine directory,
+     * and if the file itself is malformed the records before the damage are kept and a copy of
+     * the file is quarantined before it can be overwritten by the next save. With salvage off,
+     * any damage fails the load. When an expected checksum is given, it is computed over the
+     * bytes as they are parsed and a mismatch fails the load.
+     */
+    private void streamItems(Path file, ObjectMapper mapper, boolean salvage, SnapshotFiles.Checksum expected) throws IOException
+    {
+        itemsById.clear();
+        long startNanos = System.nanoTime();
+        long fileSize = Files.size(file);
+        int quarantined = 0;
+        int nextProgressPercent = PROGRESS_STEP_PERCENT;
+
+        CRC32 crc = new CRC32();
+        try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(file), crc);
+             JsonParser parser = mapper.getFactory().createParser(in))
+        {
+            JsonToken first = parser.nextToken();
+            if (first == null)
+            {
+                verifyChecksum(file, expected, crc, fileSize);
+                logger.info("Data file is empty, starting with empty {} list", entityName);
+                return;
+            }
+            if (first != JsonToken.START_ARRAY)
+            {
+                throw new JsonParseException(parser, "Expected a JSON array of " + entityName);
+            }
+
+            ObjectReader reader = mapper.readerFor(entityClass);
+            while (true)
+            {
+                JsonToken token;
+                TokenBuffer record = null;
+                try
+                {
+                    token = parser.nextToken();
+                    if (token == JsonToken.END_ARRAY)
+                    {
+                        break;
+                    }
+                    if (token != null && salvage)
+                    {
+                        // Buffer the record's tokens so a record that fails to map can be quarantined
+                        record = new TokenBuffer(parser);
+                        record.copyCurrentStructure(parser);
+                    }
+                }
+                catch (JsonProcessingException e)
+                {
+                    if (!salvage)
+                    {
+                        throw e;
+                    }
+                    Path copy = quarantineCopy(file);
+                    logger.error("Data file for {} is malformed after {} records, keeping those; original copied to {}: {}",
+                        entityName, itemsById.size(), copy, e.getOriginalMessage());
+                    break;
+                }
+                if (token == null)
+                {
+                    // Unterminated array: the file ends after the last complete record
+                    if (!salvage)
+                    {
+                        throw new JsonParseException(parser, "Unexpected end of " + file);
+                    }
+                    Path copy = quarantineCopy(file);
+                    logger.error("Data file for {} is truncated after {} records, keeping those; original copied to {}",
+                        entityName, itemsById.size(), copy);
+                    break;
+                }
+
+                if (record == null)
+                {
+                    // Strict mode binds straight from the stream
+                    T item = reader.readValue(parser);
+                    if (item != null)
+                    {
+                        putLoadedItem(item);
+                    }
+                }
+                else
+                {
+                    try
+                    {
+                        T item = reader.readValue(record.asParser());
+                        if (item != null)
+                        {
+                            putLoadedItem(item);
+                        }
+                    }
+                    catch (JsonProcessingException e)
+                    {
+                        quarantined++;
+                        quarantineRecord(mapper.readTree(record.asParser()), e);
+                    }
+                }
+
+                if (fileSize >= PROGRESS_MIN_FILE_SIZE)
+                {
+                    long percent = parser.currentLocation().getByteOffset() * 100 / fileSize;
+                    if (percent >= nextProgressPercent)
+                    {
+                        logger.info("Loading {}: {}% ({} records)", entityName, percent, itemsById.size());
+                        nextProgressPercent = (int) (percent / PROGRESS_STEP_PERCENT + 1) * PROGRESS_STEP_PERCENT;
+                    }
+                }
+            }
+
+            if (expected != null)
+            {
+                // The parser may stop before the end of the file; trailing bytes still count
+                byte[] rest = new byte[8192];
+                while (in.read(rest) != -1)
+                {
+                    // Drain into the checksum
+                }
+                verifyChecksum(file, expected, crc, fileSize);
+            }
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (quarantined > 0)
+        {
+            logger.warn("Loaded {} {} from {} in {} ms, quarantined {} unreadable records",
+                itemsById.size(), entityName, file.getFileName(), elapsedMs, quarantined);
+        }
+        else
+        {
+            logger.info("Loaded {} {} from {} in {} ms", itemsById.size(), entityName, file.getFileName(), elapsedMs);
+        }
+    }
+
+    private void putLoadedItem(T item)
+    {
+        if (getId(item) == null || getId(item).isEmpty())
+        {
+            setId(item, generateId());
+            logger.warn("Loaded {} without an ID, assigned ID: {}", entityName, getId(item));
+        }
+        if (itemsById.put(getId(item), item) != null)
+        {
+            logger.warn("Duplicate {} ID in data file, keeping the last occurrence: {}", entityName, getId(item));
+        }
+    }
+
+    /**
+     * Appends an unreadable record, with the reason, to quarantine/&lt;file&gt;.rejected.jsonl.
+     */
+    private void quarantineRecord(JsonNode record, JsonProcessingException cause) throws IOException
+    {
+        logger.warn("Skipping unreadable {} record: {}", entityName, cause.getOriginalMessage());
+        Path quarantineDir = Files.createDirectories(dataFilePath.resolveSibling(QUARANTINE_DIR_NAME));
+        ObjectNode entry = objectMapper.createObjectNode();
+        entry.put("rejectedAt", Instant.now().toString());
+        entry.put("reason", cause.getOriginalMessage());
+        entry.set("record", record);
+        Files.write(quarantineDir.resolve(dataFilePath.getFileName() + ".rejected.jsonl"),
+            (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private Path quarantineCopy(Path file) throws IOException
+    {
+        Path quarantineDir = Files.createDirectories(dataFilePath.resolveSibling(QUARANTINE_DIR_NAME));
+        Path copy = quarantineDir.resolve(file.getFileName() + "." + System.currentTimeMillis() + ".corrupt");
+        Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    private void verifyChecksum(Path file, SnapshotFiles.Checksum expected, CRC32 crc, long fileSize) throws IOException
+    {
+        if (expected != null && !expected.matches(crc.getValue(), fileSize))
+        {
+            throw new IOException("checksum mismatch for " + file.getFileName() + ": expected " + expected
+                + ", found " + new SnapshotFiles.Checksum(crc.getValue(), fileSize));
+        }
+    }
+
+    private void replayWriteAheadLog()
+    {
+        try
+        {
+            int replayed = writeAheadLog.replay((operation, id, data) -> {
+                if (operation == WriteAheadLog.Operation.PUT)
+                {
+                    itemsById.put(id, objectMapper.treeToValue(data, entityClass));
+                }
+                else
+                {
+                    itemsById.remove(id);
+                }
+            });
+            if (replayed > 0)
+            {
+                logger.info("Replayed {} {} changes from {}", replayed, entityName, writeAheadLog.getLogFilePath());
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to replay write-ahead log for {}: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to replay write-ahead log for " + entityName, e);
+        }
+    }
+
+    private void replayTransactionJournal()
+    {
+        int[] replayed = {0};
+        try
+        {
+            checkpointedTransaction = transactionJournal.getCheckpoint(getResourceName());
+            appliedTransaction = transactionJournal.replay(getResourceName(), (id, data) -> {
+                if (data != null)
+                {
+                    itemsById.put(id, objectMapper.treeToValue(data, entityClass));
+                }
+                else
+                {
+                    itemsById.remove(id);
+                }
+                if (historyLog != null)
+                {
+                    // May repeat an event recorded before the crash, which history queries tolerate
+                    if (data != null)
+                    {
+                        historyLog.appendPut(id, data);
+                    }
+                    else
+                    {
+                        historyLog.appendDelete(id);
+                    }
+                }
+                replayed[0]++;
+            });
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to replay transactions for {}: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to replay transactions for " + entityName, e);
+        }
+        if (replayed[0] > 0)
+        {
+            replayedTransactions = true;
+            logger.info("Replayed {} {} changes from committed transactions up to {}", replayed[0], entityName, appliedTransaction);
+        }
+    }
+
+    /**
+     * Opens the history stream. A repository that has data but no history yet (history just
+     * enabled, or data from before it existed) gets one event per entity as its starting point;
+     * an existing stream first drops the events from before the retention period.
+     */
+    private void openHistory()
+    {
+        try
+        {
+            if (!historyLog.open())
+            {
+                if (!itemsById.isEmpty())
+                {
+                    for (Map.Entry<String, T> entry : itemsById.entrySet())
+                    {
+                        historyLog.appendPut(entry.getKey(), entry.getValue());
+                    }
+                    historyLog.force();
+                    logger.info("Started history of {} {} in {}", itemsById.size(), entityName, historyLog.getHistoryFilePath());
+                }
+            }
+            else if (historyRetention != null)
+            {
+                int dropped = historyLog.compact(Instant.now().minus(historyRetention));
+                if (dropped > 0)
+                {
+                    logger.info("Dropped {} {} history events older than {} days", dropped, entityName,
+                        historyRetention.toDays());
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to open history for {}: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to open history for " + entityName, e);
+        }
+    }
+
+    /**
+     * Registers a secondary index over one key extractor, or a composite index when several
+     * are given. Subclasses call this from field initializers and use the returned handle with
+     * {@link #findAllByIndex} and {@link #findFirstByIndex}; the base class keeps it up to date
+     * on load, save, saveItem and delete. Entities with a null key part are not indexed.
+     */
+    @SafeVarargs
+    protected final SecondaryIndex<T> registerIndex(String name, Function<T, ?>... keyExtractors)
+    {
+        SecondaryIndex<T> index = new SecondaryIndex<>(name, Arrays.asList(keyExtractors));
+        lock.writeLock().lock();
+        try
+        {
+            itemsById.forEach(index::index);
+            secondaryIndexes.add(index);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    /**
+     * Registers an index that files each entity under every element of the extracted
+     * collection, so {@link #findAllByIndex} finds the entities whose collection contains a
+     * value. Null collections and null elements are not indexed.
+     */
+    protected final SecondaryIndex<T> registerMultiValueIndex(String name, Function<T, ? extends Collection<?>> keysExtractor)
+    {
+        SecondaryIndex<T> index = new SecondaryIndex<>(name, keysExtractor);
+        lock.writeLock().lock();
+        try
+        {
+            itemsById.forEach(index::index);
+            secondaryIndexes.add(index);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    /**
+     * Registers an ordered index that {@link #findPage} can sort by under the given name. The
+     * key type is used to read keys back from page cursors. Every repository can be sorted by
+     * "id", which is also the default.
+     */
+    protected final <K extends Comparable<? super K>> SortedIndex<T> registerSortedIndex(String name, Class<K> keyType,
+                                                                                         Function<T, K> keyExtractor)
+    {
+        SortedIndex<T> index = new SortedIndex<>(name, keyType, keyExtractor);
+        lock.writeLock().lock();
+        try
+        {
+            itemsById.forEach(index::index);
+            sortedIndexes.put(name, index);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    /**
+     * Adds a field to the repository's full-text index, see {@link #search}. Words of fields
+     * with a higher weight rank higher.
+     */
+    protected final void registerTextField(String name, int weight, Function<T, String> extractor)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (textIndex == null)
+            {
+                textIndex = new TextIndex<>();
+            }
+            textIndex.addField(name, weight, extractor);
+            itemsById.forEach(textIndex::index);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isSearchable()
+    {
+        return textIndex != null;
+    }
+
+    /**
+     * Entities whose text fields contain all words of the text, best match first; the last
+     * word also matches as a prefix. Empty for repositories without text fields.
+     */
+    public List<SearchHit<T>> search(String text, int limit)
+    {
+        if (textIndex == null)
+        {
+            return List.of();
+        }
+        return readLocked(() -> {
+            List<SearchHit<T>> hits = new ArrayList<>();
+            for (TextIndex.Hit hit : textIndex.search(text, limit))
+            {
+                hits.add(new SearchHit<>(getResourceName(), hit.getId(), hit.getScore(), itemsById.get(hit.getId())));
+            }
+            return hits;
+        });
+    }
+
+    /**
+     * Registers a case-insensitive prefix index over a text property for {@link #complete}.
+     */
+    protected final PrefixIndex<T> registerPrefixIndex(String name, Function<T, String> extractor)
+    {
+        PrefixIndex<T> index = new PrefixIndex<>(name, extractor);
+        lock.writeLock().lock();
+        try
+        {
+            itemsById.forEach(index::index);
+            prefixIndexes.put(name, index);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    public Set<String> getPrefixFields()
+    {
+        return Collections.unmodifiableSet(prefixIndexes.keySet());
+    }
+
+    /**
+     * Up to limit values starting with the prefix, per prefix index, or only from the named one.
+     *
+     * @throws IllegalArgumentException when field names no prefix index of this repository
+     */
+    public List<Suggestion> complete(String prefix, String field, int limit)
+    {
+        List<PrefixIndex<T>> indexes = new ArrayList<>();
+        if (field == null)
+        {
+            indexes.addAll(prefixIndexes.values());
+        }
+        else if (prefixIndexes.containsKey(field))
+        {
+            indexes.add(prefixIndexes.get(field));
+        }
+        else
+        {
+            throw new IllegalArgumentException("Cannot complete " + entityName + " by " + field + "; fields: " + prefixIndexes.keySet());
+        }
+        return readLocked(() -> {
+            List<Suggestion> suggestions = new ArrayList<>();
+            for (PrefixIndex<T> index : indexes)
+            {
+                suggestions.addAll(index.complete(getResourceName(), prefix, limit));
+            }
+            return suggestions;
+        });
+    }
+
+    /**
+     * One page of entities in the order of a sorted index. A cursor continues right after the
+     * last entity of the previous page, by its sort key and ID, so deep pages cost the same as
+     * the first and entities inserted or deleted meanwhile do not shift the pages; page
+     * numbers skip entries from the start.
+     *
+     * @throws IllegalArgumentException for an unknown sort field or a malformed cursor
+     */
+    public ResultPage<T> findPage(PageQuery query)
+    {
+        String sort = query.getSort() != null && !query.getSort().isBlank() ? query.getSort().trim() : DEFAULT_SORT;
+        String[] sortParts = sort.split(",");
+        String field = sortParts[0].trim();
+        boolean descending = sortParts.length > 1 && sortParts[1].trim().equalsIgnoreCase("desc");
+        SortedIndex<T> index = sortedIndexes.get(field);
+        if (index == null || sortParts.length > 2
+            || (sortParts.length == 2 && !descending && !sortParts[1].trim().equalsIgnoreCase("asc")))
+        {
+            throw new IllegalArgumentException("Cannot sort " + entityName + " by " + sort + "; sortable fields: " + sortedIndexes.keySet());
+        }
+        String normalizedSort = field + (descending ? ",desc" : ",asc");
+        int limit = Math.max(1, Math.min(query.getLimit() != null ? query.getLimit() : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+
+        Object afterKey = null;
+        String afterId = null;
+        if (query.getCursor() != null && !query.getCursor().isBlank())
+        {
+            JsonNode cursor = decodeCursor(query.getCursor());
+            if (!normalizedSort.equals(cursor.path("s").asText()) || !cursor.hasNonNull("id"))
+            {
+                throw new IllegalArgumentException("Cursor does not belong to sort " + normalizedSort);
+            }
+            afterId = cursor.get("id").asText();
+            try
+            {
+                JsonNode key = cursor.get("k");
+                afterKey = key == null || key.isNull() ? null : objectMapper.treeToValue(key, index.getKeyType());
+            }
+            catch (JsonProcessingException e)
+            {
+                throw new IllegalArgumentException("Malformed cursor", e);
+            }
+        }
+        long skip = afterId == null && query.getPage() != null ? Math.max(0, (long) query.getPage()) * limit : 0;
+
+        Object startKey = afterKey;
+        String startId = afterId;
+        return readLocked(() -> {
+            Iterator<String> ids = index.ids(descending, startKey, startId);
+            for (long i = 0; i < skip && ids.hasNext(); i++)
+            {
+                ids.next();
+            }
+            List<T> pageItems = new ArrayList<>(limit);
+            while (pageItems.size() < limit && ids.hasNext())
+            {
+                pageItems.add(itemsById.get(ids.next()));
+            }
+            String nextCursor = null;
+            if (ids.hasNext() && !pageItems.isEmpty())
+            {
+                String lastId = getId(pageItems.get(pageItems.size() - 1));
+                nextCursor = encodeCursor(normalizedSort, index.keyOf(lastId), lastId);
+            }
+            return new ResultPage<>(pageItems, itemsById.size(), limit, normalizedSort, nextCursor);
+        });
+    }
+
+    private String encodeCursor(String sort, Object key, String id)
+    {
+        ObjectNode cursor = objectMapper.createObjectNode();
+        cursor.put("s", sort);
+        cursor.set("k", objectMapper.valueToTree(key));
+        cursor.put("id", id);
+        try
+        {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursor));
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new IllegalStateException("Failed to encode page cursor", e);
+        }
+    }
+
+    private JsonNode decodeCursor(String cursor)
+    {
+        try
+        {
+            return objectMapper.readTree(Base64.getUrlDecoder().decode(cursor.trim()));
+        }
+        catch (IllegalArgumentException | IOException e)
+        {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    private static class QueryPlan
+    {
+        private final String description;
+        private final Collection<String> ids;
+
+        private QueryPlan(String description, Collection<String> ids)
+        {
+            this.description = description;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Entities matching all conditions of the query. The candidates come from the most
+     * selective lookup the conditions allow: the ID or an equality index for eq/in conditions,
+     * else a sorted index for a range, else a scan of all items (in parallel for large
+     * repositories). Every condition is then checked on each candidate.
+     *
+     * @throws IllegalArgumentException for an unknown field or operator, or a value that does
+     *         not fit its field
+     */
+    public QueryResult<T> query(EntityQuery query)
+    {
+        List<QueryPredicate<T>> predicates = new ArrayList<>();
+        for (EntityQuery.Condition condition : query.getWhere())
+        {
+            predicates.add(new QueryPredicate<>(condition, entityClass, objectMapper));
+        }
+        Predicate<T> filter = item -> {
+            for (QueryPredicate<T> predicate : predicates)
+            {
+                if (!predicate.test(item))
+                {
+                    return false;
+                }
+            }
+            return true;
+        };
+        Comparator<T> order = queryOrder(query.getSort());
+        int limit = Math.max(1, Math.min(query.getLimit() != null ? query.getLimit() : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+
+        return readLocked(() -> {
+            QueryPlan plan = planQuery(predicates);
+            List<T> matches;
+            String description;
+            if (plan != null)
+            {
+                description = plan.description;
+                matches = new ArrayList<>();
+                for (String id : plan.ids)
+                {
+                    T item = itemsById.get(id);
+                    if (item != null && filter.test(item))
+                    {
+                        matches.add(item);
+                    }
+                }
+            }
+            else if (items.size() >= PARALLEL_SCAN_THRESHOLD)
+            {
+                description = "parallel-scan";
+                matches = items.parallelStream().filter(filter).collect(Collectors.toList());
+            }
+            else
+            {
+                description = "scan";
+                matches = items.stream().filter(filter).collect(Collectors.toList());
+            }
+            if (order != null)
+            {
+                matches.sort(order);
+            }
+            List<T> result = new ArrayList<>(Math.min(limit, matches.size()));
+            for (int i = 0; i < limit && i < matches.size(); i++)
+            {
+                result.add(matches.get(i));
+            }
+            return new QueryResult<>(result, matches.size(), limit, description);
+        });
+    }
+
+    /**
+     * Picks the smallest candidate set among ID and equality index lookups, else the first
+     * range a sorted index can serve. Null means scan. Call under the read lock.
+     */
+    private QueryPlan planQuery(List<QueryPredicate<T>> predicates)
+    {
+        QueryPlan best = null;
+        for (QueryPredicate<T> predicate : predicates)
+        {
+            EntityQuery.Operator operator = predicate.getOperator();
+            if (!predicate.isTopLevel() || (operator != EntityQuery.Operator.EQ && operator != EntityQuery.Operator.IN))
+            {
+                continue;
+            }
+            QueryPlan plan = null;
+            if (DEFAULT_SORT.equals(predicate.getField()))
+            {
+                Set<String> ids = new LinkedHashSet<>();
+                predicate.getOperands().forEach(id -> ids.add(String.valueOf(id)));
+                plan = new QueryPlan("id", ids);
+            }
+            else
+            {
+                for (SecondaryIndex<T> index : secondaryIndexes)
+                {
+                    if (!index.isComposite() && !index.isMultiValued() && index.getName().equals(predicate.getField()))
+                    {
+                        Set<String> ids = new LinkedHashSet<>();
+                        predicate.getOperands().forEach(key -> ids.addAll(index.lookup(key)));
+                        plan = new QueryPlan("index(" + index.getName() + ")", ids);
+                        break;
+                    }
+                }
+            }
+            if (plan != null && (best == null || plan.ids.size() < best.ids.size()))
+            {
+                best = plan;
+            }
+        }
+        if (best != null)
+        {
+            return best;
+        }
+        for (QueryPredicate<T> predicate : predicates)
+        {
+            SortedIndex<T> index = sortedIndexes.get(predicate.getField());
+            if (!predicate.isTopLevel() || index == null || index.getKeyType() != predicate.getPropertyType())
+            {
+                continue;
+            }
+            List<Object> operands = predicate.getOperands();
+            Iterator<String> ids = switch (predicate.getOperator())
+            {
+                case EQ -> index.range(operands.get(0), operands.get(0));
+                case LT, LTE -> index.range(null, operands.get(0));
+                case GT, GTE -> index.range(operands.get(0), null);
+                case BETWEEN -> index.range(operands.get(0), operands.get(1));
+                default -> null;
+            };
+            if (ids != null)
+            {
+                List<String> candidates = new ArrayList<>();
+                ids.forEachRemaining(candidates::add);
+                return new QueryPlan("range(" + index.getName() + ")", candidates);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Comparator for a query's "field[,asc|desc]" sort; values that are not comparable are
+     * compared as text, and missing values sort last. Null when no sort is given.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Comparator<T> queryOrder(String sort)
+    {
+        if (sort == null || sort.isBlank())
+        {
+            return null;
+        }
+        String[] sortParts = sort.trim().split(",");
+        String field = sortParts[0].trim();
+        boolean descending = sortParts.length > 1 && sortParts[1].trim().equalsIgnoreCase("desc");
+        if (!QueryPredicate.hasProperty(entityClass, field.split("\\.")[0]) || sortParts.length > 2
+            || (sortParts.length == 2 && !descending && !sortParts[1].trim().equalsIgnoreCase("asc")))
+        {
+            throw new IllegalArgumentException("Cannot sort " + entityName + " by " + sort);
+        }
+        Comparator<Object> values = (a, b) -> a instanceof Comparable comparable && a.getClass() == b.getClass()
+            ? comparable.compareTo(b)
+            : a.toString().compareTo(b.toString());
+        return Comparator.comparing(item -> QueryPredicate.readPath(item, field),
+            Comparator.nullsLast(descending ? values.reversed() : values));
+    }
+
+    protected List<T> findAllByIndex(SecondaryIndex<T> index, Object... key)
+    {
+        Object lookupKey = index.toKey(key);
+        return readLocked(() -> {
+            Set<String> ids = index.lookup(lookupKey);
+            List<T> result = new ArrayList<>(ids.size());
+            for (String id : ids)
+            {
+                result.add(itemsById.get(id));
+            }
+            return result;
+        });
+    }
+
+    protected Optional<T> findFirstByIndex(SecondaryIndex<T> index, Object... key)
+    {
+        Object lookupKey = index.toKey(key);
+        return readLocked(() -> {
+            Set<String> ids = index.lookup(lookupKey);
+            return ids.isEmpty() ? Optional.empty() : Optional.ofNullable(itemsById.get(ids.iterator().next()));
+        });
+    }
+
+    /**
+     * Scans all items under the read lock and returns those matching the filter.
+     */
+    protected List<T> findAll(Predicate<? super T> filter)
+    {
+        return readLocked(() -> {
+            List<T> result = new ArrayList<>();
+            for (T item : items)
+            {
+                if (filter.test(item))
+                {
+                    result.add(item);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Passes up to limit entities after the given ID (from the start when null) to the action,
+     * in ID order and under the read lock, and returns the last ID passed, or null when there
+     * were none. Like every finder it passes the stored entities, which the action must only
+     * read. Walks a large repository in chunks, e.g. to stream it, without copying the
+     * collection or holding the lock between chunks.
+     */
+    public String forEachAfter(String afterId, int limit, Consumer<? super T> action)
+    {
+        SortedIndex<T> index = sortedIndexes.get(DEFAULT_SORT);
+        return readLocked(() -> {
+            Iterator<String> ids = index.ids(false, afterId, afterId);
+            String lastId = null;
+            for (int i = 0; i < limit && ids.hasNext(); i++)
+            {
+                lastId = ids.next();
+                action.accept(itemsById.get(lastId));
+            }
+            return lastId;
+        });
+    }
+
+    /**
+     * Runs the action under the shared read lock.
+     */
+    protected <R> R readLocked(Supplier<R> action)
+    {
+        ensureLoaded();
+        lock.readLock().lock();
+        try
+        {
+            return action.get();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the action under the exclusive write lock. Reentrant, so it may wrap calls to
+     * {@link #save}, {@link #saveItem} and {@link #deleteById}. When the outermost write
+     * section ends, changes made inside it are persisted before this method returns.
+     * Must not be called while holding the read lock.
+     */
+    protected <R> R writeLocked(Supplier<R> action)
+    {
+        ensureLoaded();
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null && !unitOfWork.includes(this))
+        {
+            throw new IllegalStateException(entityName + " is not part of the running transaction");
+        }
+        long pendingModificationCount;
+        lock.writeLock().lock();
+        try
+        {
+            return action.get();
+        }
+        finally
+        {
+            pendingModificationCount = modificationCount;
+            lock.writeLock().unlock();
+            if (!lock.isWriteLockedByCurrentThread())
+            {
+                persistPendingChanges(pendingModificationCount);
+            }
+        }
+    }
+
+    protected void writeLocked(Runnable action)
+    {
+        writeLocked(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Saves many entities with one persist. prepare runs for all inputs in parallel before the
+     * write lock is taken, for enrichment and validation that only read; it returns an error
+     * message to reject the input, or null. The action then runs for each accepted input in
+     * request order inside a single write section, so the data file is written (or the log
+     * forced) once for the whole batch. An input that is rejected or whose action throws is
+     * reported as failed and does not stop the others.
+     */
+    public <I> List<BatchResult<T>> applyBatch(List<I> inputs, Function<? super I, String> prepare,
+                                               Function<? super I, T> action)
+    {
+        String[] errors = new String[inputs.size()];
+        IntStream.range(0, inputs.size()).parallel().forEach(i -> {
+            I input = inputs.get(i);
+            try
+            {
+                errors[i] = input == null ? entityName + " cannot be null" : prepare.apply(input);
+            }
+            catch (RuntimeException e)
+            {
+                errors[i] = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            }
+        });
+        return writeLocked(() -> {
+            List<BatchResult<T>> results = new ArrayList<>(inputs.size());
+            for (int i = 0; i < inputs.size(); i++)
+            {
+                if (errors[i] != null)
+                {
+                    results.add(BatchResult.failed(i, errors[i]));
+                    continue;
+                }
+                try
+                {
+                    results.add(BatchResult.succeeded(i, action.apply(inputs.get(i))));
+                }
+                catch (RuntimeException e)
+                {
+                    results.add(BatchResult.failed(i, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                }
+            }
+            int saved = (int) results.stream().filter(BatchResult::isSuccess).count();
+            logger.info("Saved {} of {} {} in one batch", saved, inputs.size(), entityName);
+            return results;
+        });
+    }
+
+    private void rebuildIndexes()
+    {
+        for (SecondaryIndex<T> index : secondaryIndexes)
+        {
+            index.clear();
+            itemsById.forEach(index::index);
+        }
+        for (SortedIndex<T> index : sortedIndexes.values())
+        {
+            index.clear();
+            itemsById.forEach(index::index);
+        }
+        for (PrefixIndex<T> index : prefixIndexes.values())
+        {
+            index.clear();
+            itemsById.forEach(index::index);
+        }
+        if (textIndex != null)
+        {
+            textIndex.clear();
+            itemsById.forEach(textIndex::index);
+        }
+    }
+
+    private void updateIndexes(T entity)
+    {
+        for (SecondaryIndex<T> index : secondaryIndexes)
+        {
+            index.index(getId(entity), entity);
+        }
+        for (SortedIndex<T> index : sortedIndexes.values())
+        {
+            index.index(getId(entity), entity);
+        }
+        for (PrefixIndex<T> index : prefixIndexes.values())
+        {
+            index.index(getId(entity), entity);
+        }
+        if (textIndex != null)
+        {
+            textIndex.index(getId(entity), entity);
+        }
+    }
+
+    private void removeFromIndexes(String id)
+    {
+        for (SecondaryIndex<T> index : secondaryIndexes)
+        {
+            index.unindex(id);
+        }
+        for (SortedIndex<T> index : sortedIndexes.values())
+        {
+            index.unindex(id);
+        }
+        for (PrefixIndex<T> index : prefixIndexes.values())
+        {
+            index.unindex(id);
+        }
+        if (textIndex != null)
+        {
+            textIndex.unindex(id);
+        }
+    }
+
+    // Abstract methods for entity ID management
+    protected abstract String getId(T entity);
+    protected abstract void setId(T entity, String id);
+
+    // Generic CRUD operations
+    public Optional<T> findById(String id)
+    {
+        if (id == null || id.trim().isEmpty())
+        {
+            return Optional.empty();
+        }
+        
+        return readLocked(() -> Optional.ofNullable(itemsById.get(id)));
+    }
+
+    /**
+     * Like {@link #findById} but returns a private copy, for a caller that changes the entity
+     * and saves it back. Run the whole read-modify-save in {@link #writeLocked}.
+     */
+    protected Optional<T> findByIdForUpdate(String id)
+    {
+        return findById(id).map(this::copyOf);
+    }
+
+    /**
+     * Looks up many entities in one pass over the ID map, under a single read lock, so that a
+     * client resolving references needs one request instead of one per ID. Blank and repeated
+     * IDs are skipped.
+     */
+    public MultiGetResult<T> findAllById(Collection<String> ids)
+    {
+        if (ids.size() > MAX_MULTI_GET_IDS)
+        {
+            throw new IllegalArgumentException("At most " + MAX_MULTI_GET_IDS + " IDs can be looked up at once");
+        }
+        Set<String> requested = new LinkedHashSet<>();
+        for (String id : ids)
+        {
+            if (id != null && !id.trim().isEmpty())
+            {
+                requested.add(id.trim());
+            }
+        }
+        return readLocked(() -> {
+            List<T> found = new ArrayList<>(requested.size());
+            List<String> missing = new ArrayList<>();
+            for (String id : requested)
+            {
+                T item = itemsById.get(id);
+                if (item != null)
+                {
+                    found.add(item);
+                }
+                else
+                {
+                    missing.add(id);
+                }
+            }
+            return new MultiGetResult<>(found, missing);
+        });
+    }
+
+    /**
+     * The entities with the given IDs, keyed by ID, read under one lock; IDs that do not exist
+     * are left out. Unlike {@link #findAllById} the number of IDs is not limited, as callers
+     * collect them from other entities rather than take them from a request.
+     */
+    public Map<String, T> findMapById(Collection<String> ids)
+    {
+        return readLocked(() -> {
+            Map<String, T> found = new LinkedHashMap<>();
+            for (String id : ids)
+            {
+                T item = id != null ? itemsById.get(id) : null;
+                if (item != null)
+                {
+                    found.put(id, item);
+                }
+            }
+            return found;
+        });
+    }
+
+    public T save(T entity)
+    {
+        if (entity == null)
+        {
+            throw new IllegalArgumentException(entityName + " cannot be null");
+        }
+        
+        return writeLocked(() -> {
+            if (getId(entity) == null || getId(entity).isEmpty())
+            {
+                setId(entity, generateId());
+                saveItem(entity);
+                logger.info("Created new {} with ID: {}", entityName, getId(entity));
+            }
+            else
+            {
+                // Update existing
+                if (!itemsById.containsKey(getId(entity)))
+                {
+                    throw new EntityNotFoundException(entityName + " not found with id: " + getId(entity));
+                }
+                
+                // Replaced in place, keeping the item's position
+                saveItem(entity);
+                logger.info("Updated {} with ID: {}", entityName, getId(entity));
+            }
+            
+            return entity;
+        });
+    }
+
+    public void deleteById(String id)
+    {
+        if (id == null || id.trim().isEmpty())
+        {
+            throw new IllegalArgumentException(entityName + " ID cannot be null or empty");
+        }
+        
+        writeLocked(() -> {
+            UnitOfWork unitOfWork = enlist(id);
+            boolean removed = itemsById.remove(id) != null;
+            if (removed)
+            {
+                removeFromIndexes(id);
+                if (unitOfWork != null)
+                {
+                    unitOfWork.markChanged(this, id);
+                }
+                else
+                {
+                    if (writeAheadLog != null)
+                    {
+                        appendToLog(() -> writeAheadLog.appendDelete(id));
+                    }
+                    recordHistory(id, null);
+                    markModified(id);
+                }
+                logger.info("Deleted {} with ID: {}", entityName, id);
+            }
+            else
+            {
+                logger.warn("Attempted to delete {} with ID: {}, but {} was not found", entityName, id, entityName);
+            }
+        });
+    }
+
+    /**
+     * Records a single created or modified entity and refreshes its secondary index entries.
+     * In LOG storage mode this appends one record to the write-ahead log; otherwise the whole
+     * data file is rewritten once the enclosing write section ends or at the next flush.
+     * Inside a transaction the change is only recorded for the commit.
+     * <p>
+     * A copy of the entity is stored, so the caller may keep changing its object; those changes
+     * only take effect when it is saved again. The stored copy is never changed afterwards.
+     */
+    protected void saveItem(T entity)
+    {
+        writeLocked(() -> {
+            String id = getId(entity);
+            UnitOfWork unitOfWork = enlist(id);
+            T stored = copyOf(entity);
+            itemsById.put(id, stored);
+            updateIndexes(stored);
+            if (unitOfWork != null)
+            {
+                unitOfWork.markChanged(this, id);
+                return;
+            }
+            if (writeAheadLog != null)
+            {
+                appendToLog(() -> writeAheadLog.appendPut(id, stored));
+            }
+            recordHistory(id, stored);
+            markModified(id);
+        });
+    }
+
+    private void appendToLog(LogAppend append)
+    {
+        try
+        {
+            append.run();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to append {} change to write-ahead log: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to save " + entityName + " to write-ahead log", e);
+        }
+    }
+
+    /**
+     * Appends a change to the history stream; a null item records a delete.
+     */
+    private void recordHistory(String id, T item)
+    {
+        if (historyLog == null)
+        {
+            return;
+        }
+        try
+        {
+            if (item != null)
+            {
+                historyLog.appendPut(id, item);
+            }
+            else
+            {
+                historyLog.appendDelete(id);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to append {} change to history: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to record " + entityName + " history", e);
+        }
+    }
 
-    public AbstractJsonRepository(String dataDirName, String fileName, String entityName)
+    private void forceHistory()
     {
-        this.objectMapper = createObjectMapper();
-        this.dataFilePath = initializeDataFilePath(dataDirName, fileName);
-        this.entityName = entityName;
-        loadItems();
+        if (historyLog == null)
+        {
+            return;
+        }
+        try
+        {
+            historyLog.force();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to force {} history: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to save " + entityName + " history", e);
+        }
     }
 
-    protected ObjectMapper createObjectMapper()
+    /**
+     * All recorded versions of one entity, oldest first, including deletes. Empty when history
+     * is disabled or nothing was recorded for the ID.
+     */
+    public List<HistoryLog.Event> getHistory(String id)
     {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        return mapper;
+        ensureLoaded();
+        if (historyLog == null || id == null)
+        {
+            return List.of();
+        }
+        try
+        {
+            return historyLog.getEvents(id);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read {} history: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to read " + entityName + " history", e);
+        }
     }
 
-    protected Path initializeDataFilePath(String dataDirName, String fileName)
+    public boolean isHistoryEnabled()
     {
-        Path currentDir = Paths.get("").toAbsolutePath();
-        Path dataDir = currentDir.resolve(dataDirName);
-        return dataDir.resolve(fileName);
+        return historyLog != null;
     }
 
-    protected void loadItems()
+    /**
+     * Builds the history indexes used by {@link #getHistory} and {@link #getChangesSince},
+     * unless already built. Called by the warm-up once the repository is loaded; holds no
+     * repository lock, so it can run while the repository serves requests.
+     */
+    public void indexHistory()
     {
-        logger.info("Loading {} from data file: {}", entityName, dataFilePath);
-        
+        ensureLoaded();
+        if (historyLog == null)
+        {
+            return;
+        }
         try
         {
-            if (Files.exists(dataFilePath) && Files.isReadable(dataFilePath))
+            historyLog.buildIndex();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to index {} history: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to index " + entityName + " history", e);
+        }
+    }
+
+    /**
+     * The entity as it was at the given moment: the last version recorded at or before it.
+     * Empty if the entity did not exist yet or had been deleted by then.
+     */
+    public Optional<T> asOf(String id, Instant timestamp)
+    {
+        HistoryLog.Event last = null;
+        for (HistoryLog.Event event : getHistory(id))
+        {
+            if (event.getTimestamp().isAfter(timestamp))
             {
-                loadItemsFromFile();
+                break;
             }
-            else
+            last = event;
+        }
+        if (last == null || last.getOperation() == HistoryLog.Operation.DELETE)
+        {
+            return Optional.empty();
+        }
+        try
+        {
+            return Optional.of(objectMapper.treeToValue(last.getData(), entityClass));
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new DataPersistenceException("Failed to read " + entityName + " " + id + " as of " + timestamp, e);
+        }
+    }
+
+    /**
+     * All entities as they were at the given moment. Reads the whole history stream, so this
+     * is meant for reports and audits, not for regular requests.
+     */
+    public List<T> asOf(Instant timestamp)
+    {
+        ensureLoaded();
+        if (historyLog == null)
+        {
+            return List.of();
+        }
+        try
+        {
+            List<T> result = new ArrayList<>();
+            for (JsonNode data : historyLog.getStateAt(timestamp).values())
             {
-                logger.info("Data file does not exist or is not readable, starting with empty {} list", entityName);
-                items = new ArrayList<>();
+                result.add(objectMapper.treeToValue(data, entityClass));
             }
+            return result;
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            logger.error("Error loading {} from file: {}", entityName, e.getMessage(), e);
-            items = new ArrayList<>();
+            logger.error("Failed to read {} history: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to read " + entityName + " history", e);
         }
     }
 
-    protected abstract void loadItemsFromFile() throws IOException;
+    /**
+     * Changes made after the given cursor (the sequence of an earlier {@link ChangeSet}, or 0
+     * for everything), at most limit entities, each with its current state. A cursor that can
+     * no longer be served incrementally, or any cursor while history is disabled, gets the
+     * complete contents flagged as a reset.
+     */
+    public ChangeSet getChangesSince(long since, int limit)
+    {
+        // Outside the lock, so a first-time index build does not hold up writers
+        indexHistory();
+        return readLocked(() -> {
+            List<HistoryLog.Event> latest;
+            try
+            {
+                latest = historyLog != null ? historyLog.getChangesSince(since, limit + 1) : null;
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to read {} history: {}", entityName, e.getMessage(), e);
+                throw new DataPersistenceException("Failed to read " + entityName + " history", e);
+            }
 
-    // Abstract methods for entity ID management
-    protected abstract String getId(T entity);
-    protected abstract void setId(T entity, String id);
+            long lastSequence = historyLog != null ? historyLog.getLastSequence() : 0;
+            List<ChangeSet.Change> changes = new ArrayList<>();
+            if (latest == null)
+            {
+                itemsById.forEach((id, item) -> changes.add(new ChangeSet.Change(lastSequence, HistoryLog.Operation.PUT, id, item)));
+                return new ChangeSet(lastSequence, true, false, changes);
+            }
 
-    // Generic CRUD operations
-    public Optional<T> findById(String id)
+            boolean hasMore = latest.size() > limit;
+            for (HistoryLog.Event event : hasMore ? latest.subList(0, limit) : latest)
+            {
+                T item = event.getOperation() == HistoryLog.Operation.PUT ? itemsById.get(event.getId()) : null;
+                changes.add(new ChangeSet.Change(event.getSequence(),
+                    item != null ? HistoryLog.Operation.PUT : HistoryLog.Operation.DELETE, event.getId(), item));
+            }
+            long sequence = hasMore ? changes.get(changes.size() - 1).getSequence() : lastSequence;
+            return new ChangeSet(sequence, false, hasMore, changes);
+        });
+    }
+
+    @FunctionalInterface
+    private interface LogAppend
     {
-        if (id == null || id.trim().isEmpty())
+        void run() throws IOException;
+    }
+
+    private UnitOfWork activeUnitOfWork()
+    {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        return unitOfWork != null && unitOfWork.includes(this) ? unitOfWork : null;
+    }
+
+    private UnitOfWork enlist(String id)
+    {
+        UnitOfWork unitOfWork = activeUnitOfWork();
+        if (unitOfWork != null)
         {
-            return Optional.empty();
+            rememberPreImage(unitOfWork, id);
         }
-        
-        return items.stream()
-            .filter(entity -> id.equals(getId(entity)))
-            .findFirst();
+        return unitOfWork;
     }
 
-    public T save(T entity)
+    private void rememberPreImage(UnitOfWork unitOfWork, String id)
     {
-        if (entity == null)
+        if (!unitOfWork.hasPreImage(this, id))
         {
-            throw new IllegalArgumentException(entityName + " cannot be null");
+            T current = itemsById.get(id);
+            // Stored entities are never changed, so the instance itself is the pre-image
+            unitOfWork.recordPreImage(this, id, current);
         }
-        
-        if (getId(entity) == null || getId(entity).isEmpty())
+    }
+
+    /**
+     * A private copy of an entity, e.g. one returned by a finder, that the caller may change
+     * and save back.
+     */
+    public T copyOf(T item)
+    {
+        try
         {
-            setId(entity, generateId());
-            items.add(entity);
-            saveItems();
-            logger.info("Created new {} with ID: {}", entityName, getId(entity));
+            // Token stream rather than a JsonNode tree: no per-field node objects
+            TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+            objectMapper.writeValue(buffer, item);
+            return objectMapper.readValue(buffer.asParser(), entityClass);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Failed to copy " + entityName + " " + getId(item), e);
+        }
+    }
+
+    void lockForTransaction()
+    {
+        ensureLoaded();
+        lock.writeLock().lock();
+    }
+
+    void unlockAfterTransaction()
+    {
+        lock.writeLock().unlock();
+    }
+
+    @SuppressWarnings("unchecked")
+    void rollbackTransaction(UnitOfWork unitOfWork)
+    {
+        unitOfWork.getPreImages(this).forEach((id, preImage) -> {
+            if (preImage != null)
+            {
+                itemsById.put(id, (T) preImage);
+                updateIndexes((T) preImage);
+            }
+            else if (itemsById.remove(id) != null)
+            {
+                removeFromIndexes(id);
+            }
+        });
+        if (!unitOfWork.getPreImages(this).isEmpty())
+        {
+            logger.info("Rolled back {} {} in an aborted transaction", unitOfWork.getPreImages(this).size(), entityName);
+        }
+    }
+
+    List<TransactionJournal.Change> getTransactionChanges(UnitOfWork unitOfWork)
+    {
+        List<TransactionJournal.Change> changes = new ArrayList<>();
+        for (String id : unitOfWork.getChangedIds(this))
+        {
+            T item = itemsById.get(id);
+            changes.add(new TransactionJournal.Change(getResourceName(), id, item != null ? objectMapper.valueToTree(item) : null));
+        }
+        return changes;
+    }
+
+    /**
+     * Counts the committed changes as modifications so the normal save path writes them. In
+     * LOG mode they are also appended to the write-ahead log, ahead of any later change, so a
+     * later fsync of the log covers them.
+     */
+    void applyCommittedTransaction(UnitOfWork unitOfWork, long transaction)
+    {
+        Set<String> changedIds = unitOfWork.getChangedIds(this);
+        if (changedIds.isEmpty())
+        {
+            return;
+        }
+        for (String id : changedIds)
+        {
+            T item = itemsById.get(id);
+            if (writeAheadLog != null)
+            {
+                appendToLog(() -> {
+                    if (item != null)
+                    {
+                        writeAheadLog.appendPut(id, item);
+                    }
+                    else
+                    {
+                        writeAheadLog.appendDelete(id);
+                    }
+                });
+            }
+            recordHistory(id, item);
+            markModified(id);
+        }
+        appliedTransaction = transaction;
+    }
+
+    /**
+     * Records in the journal that the data file (or forced log) now holds every transaction up
+     * to the given one. Must happen before waiting callers are released by markPersisted.
+     */
+    private void checkpointTransactions(long transaction, boolean sync)
+    {
+        if (transactionJournal != null && transaction > checkpointedTransaction)
+        {
+            transactionJournal.checkpoint(getResourceName(), transaction, sync);
+            checkpointedTransaction = transaction;
+        }
+    }
+
+    /**
+     * Called after the outermost write section ends, without holding the lock. With SYNC
+     * durability the changes are written here: a snapshot in SNAPSHOT mode, an fsync of the
+     * appended records in LOG mode. GROUP_COMMIT waits for the next flush and
+     * ASYNC (or autoSave off) leaves the changes to the flusher or shutdown.
+     */
+    private void persistPendingChanges(long pendingModificationCount)
+    {
+        if (!autoSave || durability == JsonDbConfig.Durability.ASYNC)
+        {
+            return;
+        }
+        if (durability == JsonDbConfig.Durability.GROUP_COMMIT)
+        {
+            awaitFlush(pendingModificationCount);
+            return;
+        }
+
+        if (writeAheadLog != null)
+        {
+            if (pendingModificationCount > persistedModificationCount)
+            {
+                long transaction = appliedTransaction;
+                forceHistory();
+                forceLog();
+                checkpointTransactions(transaction, true);
+                markPersisted(pendingModificationCount);
+            }
+            if (writeAheadLog.getRecordCount() >= checkpointThreshold)
+            {
+                saveItems();
+            }
         }
         else
         {
-            // Update existing
-            findById(getId(entity))
-                .orElseThrow(() -> new EntityNotFoundException(entityName + " not found with id: " + getId(entity)));
-            
-            // Replace in list
-            items.removeIf(item -> getId(entity).equals(getId(item)));
-            items.add(entity);
-            saveItems();
-            logger.info("Updated {} with ID: {}", entityName, getId(entity));
+            saveItemsIfBehind(pendingModificationCount);
         }
-        
-        return entity;
     }
 
-    public void deleteById(String id)
+    /**
+     * Blocks until a flush has persisted the given change. If no flush happens within two
+     * intervals (flusher stopped or falling behind) the caller flushes itself.
+     */
+    private void awaitFlush(long pendingModificationCount)
     {
-        if (id == null || id.trim().isEmpty())
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * flushIntervalMs);
+        synchronized (flushSignal)
         {
-            throw new IllegalArgumentException(entityName + " ID cannot be null or empty");
+            while (persistedModificationCount < pendingModificationCount)
+            {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0)
+                {
+                    break;
+                }
+                try
+                {
+                    flushSignal.wait(remainingMs);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
         }
-        
-        boolean removed = items.removeIf(entity -> id.equals(getId(entity)));
-        if (removed)
+        if (persistedModificationCount < pendingModificationCount)
         {
-            saveItems();
-            logger.info("Deleted {} with ID: {}", entityName, id);
+            flush();
+        }
+    }
+
+    private void markPersisted(long count)
+    {
+        synchronized (flushSignal)
+        {
+            if (count > persistedModificationCount)
+            {
+                persistedModificationCount = count;
+            }
+            flushSignal.notifyAll();
+        }
+    }
+
+    private void forceLog()
+    {
+        try
+        {
+            writeAheadLog.force();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to force {} write-ahead log: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to save " + entityName + " to write-ahead log", e);
+        }
+    }
+
+    /**
+     * Writes out everything changed since the last flush in one go: a single snapshot in
+     * SNAPSHOT mode, a single fsync of the appended records in LOG mode (plus a checkpoint
+     * once the threshold is reached). Called periodically by {@link WriteBehindFlusher}.
+     */
+    public void flush()
+    {
+        long pendingModificationCount = modificationCount;
+        if (writeAheadLog != null)
+        {
+            if (pendingModificationCount > persistedModificationCount)
+            {
+                long transaction = appliedTransaction;
+                if (durability != JsonDbConfig.Durability.ASYNC)
+                {
+                    forceHistory();
+                }
+                forceLog();
+                checkpointTransactions(transaction, durability != JsonDbConfig.Durability.ASYNC);
+                markPersisted(pendingModificationCount);
+            }
+            if (writeAheadLog.getRecordCount() >= checkpointThreshold)
+            {
+                saveItems();
+            }
         }
         else
         {
-            logger.warn("Attempted to delete {} with ID: {}, but {} was not found", entityName, id, entityName);
+            saveItemsIfBehind(pendingModificationCount);
+        }
+    }
+
+    /**
+     * Writes a snapshot unless a concurrent writer already wrote one that includes the given change.
+     */
+    private void saveItemsIfBehind(long pendingModificationCount)
+    {
+        if (pendingModificationCount <= persistedModificationCount)
+        {
+            return;
+        }
+        synchronized (persistMonitor)
+        {
+            if (pendingModificationCount > persistedModificationCount)
+            {
+                writeSnapshot();
+            }
         }
     }
 
+    public boolean isDirty()
+    {
+        return modificationCount > persistedModificationCount;
+    }
+
+    /**
+     * Writes all items to the data file. In LOG storage mode this is the checkpoint: the
+     * write-ahead log is rotated aside while the item list is copied, and the rotated records
+     * are discarded once the snapshot is on disk. Only the copy is taken under the lock, so
+     * this must not be called while holding it.
+     */
     protected void saveItems()
     {
-        logger.info("Saving {} {} to data file", items.size(), entityName);
+        ensureLoaded();
+        synchronized (persistMonitor)
+        {
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot()
+    {
+        List<T> snapshot;
+        long snapshotModificationCount;
+        long snapshotTransaction;
+        lock.writeLock().lock();
+        try
+        {
+            // Stored entities are replaced, never changed, so these references stay a consistent
+            // point-in-time image while they are written out after the lock is released
+            snapshot = new ArrayList<>(items);
+            snapshotModificationCount = modificationCount;
+            snapshotTransaction = appliedTransaction;
+            if (writeAheadLog != null)
+            {
+                writeAheadLog.rotate();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to rotate write-ahead log for {}: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to checkpoint " + entityName, e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        logger.info("Saving {} {} to data file", snapshot.size(), entityName);
         
         try
         {
             ensureDataDirectoryExists();
-            objectMapper.writeValue(dataFilePath.toFile(), items);
-            logger.info("Successfully saved {} {} to data file", items.size(), entityName);
+            boolean sync = durability != JsonDbConfig.Durability.ASYNC;
+            if (sync)
+            {
+                forceHistory();
+            }
+            snapshotFiles.write(out -> writeSnapshotContent(objectMapper, snapshot, out), sync);
+            if (binarySnapshotFiles != null)
+            {
+                // Written after the JSON file so it is only preferred on startup if both completed
+                binarySnapshotFiles.write(out -> writeSnapshotContent(binaryMapper, snapshot, out), sync);
+            }
+            if (writeAheadLog != null)
+            {
+                writeAheadLog.discardRotated();
+            }
+            checkpointTransactions(snapshotTransaction, sync);
+            markPersisted(snapshotModificationCount);
+            logger.info("Successfully saved {} {} to data file", snapshot.size(), entityName);
         }
         catch (IOException e)
         {
@@ -161,6 +2239,11 @@ public abstract class AbstractJsonRepository<T>
         }
     }
 
+    private void writeSnapshotContent(ObjectMapper mapper, List<T> snapshot, OutputStream out) throws IOException
+    {
+        mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(out, snapshot);
+    }
+
     protected void ensureDataDirectoryExists()
     {
         Path dataDir = dataFilePath.getParent();
@@ -181,8 +2264,15 @@ public abstract class AbstractJsonRepository<T>
 
     public List<T> findAll()
     {
-        logger.debug("Getting all {}, returning {} items", entityName, items.size());
-        return new ArrayList<>(items);
+        return readLocked(() -> {
+            logger.debug("Getting all {}, returning {} items", entityName, items.size());
+            return new ArrayList<>(items);
+        });
+    }
+
+    public int count()
+    {
+        return readLocked(itemsById::size);
     }
 
     protected String generateId()
@@ -195,6 +2285,58 @@ public abstract class AbstractJsonRepository<T>
         saveItems();
     }
 
+    /**
+     * Writes out unflushed changes and folds any pending write-ahead log records into the
+     * data file on shutdown so the JSON file stays a complete export of the repository.
+     * Also writes a missing or outdated binary snapshot so the next startup can use it.
+     */
+    @PreDestroy
+    public void close()
+    {
+        if (!loaded || loadFailure != null)
+        {
+            // Nothing was loaded, so there is nothing to write back
+            if (writeAheadLog != null)
+            {
+                writeAheadLog.close();
+            }
+            if (historyLog != null)
+            {
+                historyLog.close();
+            }
+            return;
+        }
+        try
+        {
+            if (isDirty() || (writeAheadLog != null && writeAheadLog.getRecordCount() > 0) || isBinarySnapshotStale())
+            {
+                saveItems();
+            }
+        }
+        catch (DataPersistenceException e)
+        {
+            if (writeAheadLog != null)
+            {
+                logger.error("Checkpoint on shutdown failed for {}, changes remain in {}", entityName, writeAheadLog.getLogFilePath());
+            }
+            else
+            {
+                logger.error("Failed to write unsaved {} changes on shutdown", entityName);
+            }
+        }
+        finally
+        {
+            if (writeAheadLog != null)
+            {
+                writeAheadLog.close();
+            }
+            if (historyLog != null)
+            {
+                historyLog.close();
+            }
+        }
+    }
+
     // Custom exceptions
     public static class DataPersistenceException extends RuntimeException
     {
@@ -3,13 +3,14 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
 import com.edge.entity.Address;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -19,26 +20,17 @@ public class AddressRepository extends AbstractJsonRepository<Address> {
     private static final Logger logger = LoggerFactory.getLogger(AddressRepository.class);
     private static final String DATA_FILE_NAME = "addresses.json";
     private static final String DATA_DIR_NAME = "data";
+    private final SecondaryIndex<Address> customerIdIndex = registerIndex("customerId", Address::getCustomerId);
 
-    public AddressRepository() {
-        super(DATA_DIR_NAME, DATA_FILE_NAME, "addresses");
+    @Autowired
+    public AddressRepository(JsonDbConfig config) {
+        this(config, resolveDataDir(DATA_DIR_NAME));
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty()) {
-            logger.info("Data file is empty, starting with empty address list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Address>>() {});
-            logger.info("Successfully loaded {} addresses from data file", items.size());
-        } catch (Exception e) {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+    AddressRepository(JsonDbConfig config, Path dataDir) {
+        super(config, dataDir, DATA_FILE_NAME, "addresses");
+        registerSortedIndex("city", String.class, Address::getCity);
+        registerSortedIndex("postalCode", String.class, Address::getPostalCode);
     }
 
     @Override
@@ -66,9 +58,7 @@ public class AddressRepository extends AbstractJsonRepository<Address> {
             return new java.util.ArrayList<>();
         }
         // Fallback to old method for backward compatibility
-        return items.stream()
-            .filter(address -> customerId.equals(address.getCustomerId()))
-            .collect(Collectors.toList());
+        return findAllByIndex(customerIdIndex, customerId);
     }
 
     public List<Address> getAddressesByCustomerIdAndType(String customerId, String addressType) {
@@ -86,35 +76,39 @@ public class AddressRepository extends AbstractJsonRepository<Address> {
     }
 
     public Address createAddress(Address address) {
-        if (address == null) throw new IllegalArgumentException("Address cannot be null");
-        return save(address);
+        return writeLocked(() -> {
+            if (address == null) throw new IllegalArgumentException("Address cannot be null");
+            return save(address);
+        });
     }
 
     public Address updateAddress(String id, Address addressDetails) {
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("Address ID cannot be null or empty");
-        if (addressDetails == null)
-            throw new IllegalArgumentException("Address details cannot be null");
-
-        Address existingAddress = findById(id).orElseThrow(() -> 
-            new AddressNotFoundException("Address not found with id: " + id));
-
-        // Update fields (customerId and customerIds are no longer used - managed by Customer entity)
-        existingAddress.setAddressType(addressDetails.getAddressType());
-        existingAddress.setStreetAddress1(addressDetails.getStreetAddress1());
-        existingAddress.setStreetAddress2(addressDetails.getStreetAddress2());
-        existingAddress.setCity(addressDetails.getCity());
-        existingAddress.setState(addressDetails.getState());
-        existingAddress.setPostalCode(addressDetails.getPostalCode());
-        existingAddress.setCountry(addressDetails.getCountry());
-        existingAddress.setContactName(addressDetails.getContactName());
-        existingAddress.setContactPhone(addressDetails.getContactPhone());
-        existingAddress.setDefaultAddress(addressDetails.getDefaultAddress());
-        existingAddress.setJsonData(addressDetails.getJsonData());
+        return writeLocked(() -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Address ID cannot be null or empty");
+            if (addressDetails == null)
+                throw new IllegalArgumentException("Address details cannot be null");
+
+            Address existingAddress = findByIdForUpdate(id).orElseThrow(() -> 
+                new AddressNotFoundException("Address not found with id: " + id));
+
+            // Update fields (customerId and customerIds are no longer used - managed by Customer entity)
+            existingAddress.setAddressType(addressDetails.getAddressType());
+            existingAddress.setStreetAddress1(addressDetails.getStreetAddress1());
+            existingAddress.setStreetAddress2(addressDetails.getStreetAddress2());
+            existingAddress.setCity(addressDetails.getCity());
+            existingAddress.setState(addressDetails.getState());
+            existingAddress.setPostalCode(addressDetails.getPostalCode());
+            existingAddress.setCountry(addressDetails.getCountry());
+            existingAddress.setContactName(addressDetails.getContactName());
+            existingAddress.setContactPhone(addressDetails.getContactPhone());
+            existingAddress.setDefaultAddress(addressDetails.getDefaultAddress());
+            existingAddress.setJsonData(addressDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated address with ID: {}", id);
-        return existingAddress;
+            saveItem(existingAddress);
+            logger.info("Updated address with ID: {}", id);
+            return existingAddress;
+        });
     }
 
     public void deleteAddress(String id) {
@@ -0,0 +1,74 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one element of a batch, see {@link AbstractJsonRepository#applyBatch}: the saved
+ * entity, or the reason the element was rejected. index is the element's position in the
+ * request.
+ */
+public class BatchResult<T>
+{
+    private final int index;
+    private final boolean success;
+    private final T item;
+    private final String error;
+
+    private BatchResult(int index, boolean success, T item, String error)
+    {
+        this.index = index;
+        this.success = success;
+        this.item = item;
+        this.error = error;
+    }
+
+    public static <T> BatchResult<T> succeeded(int index, T item)
+    {
+        return new BatchResult<>(index, true, item, null);
+    }
+
+    public static <T> BatchResult<T> failed(int index, String error)
+    {
+        return new BatchResult<>(index, false, null, error);
+    }
+
+    /**
+     * The entities of the successful results, in request order.
+     */
+    public static <T> List<T> savedItems(List<BatchResult<T>> results)
+    {
+        List<T> items = new ArrayList<>();
+        for (BatchResult<T> result : results)
+        {
+            if (result.success)
+            {
+                items.add(result.item);
+            }
+        }
+        return items;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public boolean isSuccess()
+    {
+        return success;
+    }
+
+    public T getItem()
+    {
+        return item;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+}
@@ -0,0 +1,88 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.List;
+
+/**
+ * Changes of one repository after a client's cursor, as returned by
+ * {@link AbstractJsonRepository#getChangesSince}. Only the latest change of each entity is
+ * included, with the entity's current state. When reset is set the cursor was too old (or not
+ * from this change stream) and the changes are the complete current contents instead: the
+ * client replaces its copy rather than merging.
+ */
+public class ChangeSet
+{
+    public static class Change
+    {
+        private final long sequence;
+        private final HistoryLog.Operation operation;
+        private final String id;
+        private final Object data;
+
+        public Change(long sequence, HistoryLog.Operation operation, String id, Object data)
+        {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.id = id;
+            this.data = data;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public HistoryLog.Operation getOperation()
+        {
+            return operation;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public Object getData()
+        {
+            return data;
+        }
+    }
+
+    private final long sequence;
+    private final boolean reset;
+    private final boolean hasMore;
+    private final List<Change> changes;
+
+    public ChangeSet(long sequence, boolean reset, boolean hasMore, List<Change> changes)
+    {
+        this.sequence = sequence;
+        this.reset = reset;
+        this.hasMore = hasMore;
+        this.changes = changes;
+    }
+
+    /**
+     * Cursor to pass as since on the next call.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public boolean isReset()
+    {
+        return reset;
+    }
+
+    public boolean isHasMore()
+    {
+        return hasMore;
+    }
+
+    public List<Change> getChanges()
+    {
+        return changes;
+    }
+}
@@ -3,14 +3,19 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
 import com.edge.entity.Customer;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Component
@@ -18,26 +23,27 @@ public class CustomerRepository extends AbstractJsonRepository<Customer> {
     private static final Logger logger = LoggerFactory.getLogger(CustomerRepository.class);
     private static final String DATA_FILE_NAME = "customers.json";
     private static final String DATA_DIR_NAME = "data";
+    private final SecondaryIndex<Customer> emailIndex = registerIndex("email", Customer::getEmail);
+    private final SecondaryIndex<Customer> customerNumberIndex = registerIndex("customerNumber", Customer::getCustomerNumber);
+    private final SecondaryIndex<Customer> addressIdIndex = registerMultiValueIndex("jsonData.addressIds", CustomerRepository::getAddressIds);
 
-    public CustomerRepository() {
-        super(DATA_DIR_NAME, DATA_FILE_NAME, "customers");
+    @Autowired
+    public CustomerRepository(JsonDbConfig config) {
+        this(config, resolveDataDir(DATA_DIR_NAME));
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty()) {
-            logger.info("Data file is empty, starting with empty customer list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Customer>>() {});
-            logger.info("Successfully loaded {} customers from data file", items.size());
-        } catch (Exception e) {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+    CustomerRepository(JsonDbConfig config, Path dataDir) {
+        super(config, dataDir, DATA_FILE_NAME, "customers");
+        registerSortedIndex("customerNumber", String.class, Customer::getCustomerNumber);
+        registerSortedIndex("companyName", String.class, Customer::getCompanyName);
+        registerSortedIndex("lastName", String.class, Customer::getLastName);
+        registerTextField("customerNumber", 4, Customer::getCustomerNumber);
+        registerTextField("companyName", 3, Customer::getCompanyName);
+        registerTextField("firstName", 2, Customer::getFirstName);
+        registerTextField("lastName", 2, Customer::getLastName);
+        registerTextField("email", 2, Customer::getEmail);
+        registerPrefixIndex("customerNumber", Customer::getCustomerNumber);
+        registerPrefixIndex("fullName", Customer::getFullName);
     }
 
     @Override
@@ -52,12 +58,12 @@ public class CustomerRepository extends AbstractJsonRepository<Customer> {
 
     public Optional<Customer> getCustomerByEmail(String email) {
         if (email == null || email.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(customer -> email.equals(customer.getEmail())).findFirst();
+        return findFirstByIndex(emailIndex, email);
     }
 
     public Optional<Customer> getCustomerByCustomerNumber(String customerNumber) {
         if (customerNumber == null || customerNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(customer -> customerNumber.equals(customer.getCustomerNumber())).findFirst();
+        return findFirstByIndex(customerNumberIndex, customerNumber);
     }
 
     public Optional<Customer> getCustomerById(String id) {
@@ -68,64 +74,113 @@ public class CustomerRepository extends AbstractJsonRepository<Customer> {
         return findAll();
     }
 
-    public Customer createCustomer(Customer customer) {
-        if (customer == null) throw new IllegalArgumentException("Customer cannot be null");
-        if (customer.getEmail() != null && !customer.getEmail().trim().isEmpty() && 
-            getCustomerByEmail(customer.getEmail()).isPresent()) {
-            throw new CustomerAlreadyExistsException("Customer with email " + customer.getEmail() + " already exists");
-        }
-        if (customer.getCustomerNumber() != null && !customer.getCustomerNumber().trim().isEmpty() && 
-            getCustomerByCustomerNumber(customer.getCustomerNumber()).isPresent()) {
-            throw new CustomerAlreadyExistsException("Customer with customer number " + customer.getCustomerNumber() + " already exists");
+    /**
+     * The addresses a customer uses are the IDs listed under addressIds in its jsonData.
+     */
+    public static List<String> getAddressIds(Customer customer) {
+        if (customer.getJsonData() != null && customer.getJsonData().get("addressIds") instanceof List<?> ids) {
+            List<String> addressIds = new ArrayList<>(ids.size());
+            for (Object id : ids) {
+                if (id != null) {
+                    addressIds.add(id.toString());
+                }
+            }
+            return addressIds;
         }
-        return save(customer);
+        return Collections.emptyList();
     }
 
-    public Customer updateCustomer(String id, Customer customerDetails) {
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("Customer ID cannot be null or empty");
-        if (customerDetails == null)
-            throw new IllegalArgumentException("Customer details cannot be null");
+    public List<Customer> getCustomersByAddressId(String addressId) {
+        if (addressId == null || addressId.trim().isEmpty()) return new ArrayList<>();
+        return findAllByIndex(addressIdIndex, addressId);
+    }
+
+    /**
+     * Drops an address from every customer that refers to it, found through the address ID
+     * index, in one write. Returns the customers that changed.
+     */
+    public List<Customer> removeAddressId(String addressId) {
+        return writeLocked(() -> {
+            List<Customer> customers = new ArrayList<>();
+            for (Customer found : getCustomersByAddressId(addressId)) {
+                Customer customer = copyOf(found);
+                List<String> addressIds = getAddressIds(customer);
+                addressIds.removeIf(addressId::equals);
+                Map<String, Object> jsonData = new HashMap<>(customer.getJsonData());
+                jsonData.put("addressIds", addressIds);
+                customer.setJsonData(jsonData);
+                saveItem(customer);
+                customers.add(customer);
+            }
+            if (!customers.isEmpty()) {
+                logger.info("Removed address {} from {} customers", addressId, customers.size());
+            }
+            return customers;
+        });
+    }
+
+    public Customer createCustomer(Customer customer) {
+        return writeLocked(() -> {
+            if (customer == null) throw new IllegalArgumentException("Customer cannot be null");
+            if (customer.getEmail() != null && !customer.getEmail().trim().isEmpty() && 
+                getCustomerByEmail(customer.getEmail()).isPresent()) {
+                throw new CustomerAlreadyExistsException("Customer with email " + customer.getEmail() + " already exists");
+            }
+            if (customer.getCustomerNumber() != null && !customer.getCustomerNumber().trim().isEmpty() && 
+                getCustomerByCustomerNumber(customer.getCustomerNumber()).isPresent()) {
+                throw new CustomerAlreadyExistsException("Customer with customer number " + customer.getCustomerNumber() + " already exists");
+            }
+            return save(customer);
+        });
+    }
 
-        Customer existingCustomer = findById(id).orElseThrow(() -> 
-            new CustomerNotFoundException("Customer not found with id: " + id));
+    public Customer updateCustomer(String id, Customer customerDetails) {
+        return writeLocked(() -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Customer ID cannot be null or empty");
+            if (customerDetails == null)
+                throw new IllegalArgumentException("Customer details cannot be null");
+
+            Customer existingCustomer = findByIdForUpdate(id).orElseThrow(() -> 
+                new CustomerNotFoundException("Customer not found with id: " + id));
         
-        if (customerDetails.getEmail() != null && !customerDetails.getEmail().trim().isEmpty()) {
-            Optional<Customer> emailCheck = getCustomerByEmail(customerDetails.getEmail());
-            if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId())) {
-                throw new CustomerAlreadyExistsException("Customer with email " + customerDetails.getEmail() + " already exists");
+            if (customerDetails.getEmail() != null && !customerDetails.getEmail().trim().isEmpty()) {
+                Optional<Customer> emailCheck = getCustomerByEmail(customerDetails.getEmail());
+                if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId())) {
+                    throw new CustomerAlreadyExistsException("Customer with email " + customerDetails.getEmail() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        existingCustomer.setCustomerNumber(customerDetails.getCustomerNumber());
-        existingCustomer.setCompanyName(customerDetails.getCompanyName());
-        existingCustomer.setFirstName(customerDetails.getFirstName());
-        existingCustomer.setLastName(customerDetails.getLastName());
-        existingCustomer.setEmail(customerDetails.getEmail());
-        existingCustomer.setPhone(customerDetails.getPhone());
+            // Update fields
+            existingCustomer.setCustomerNumber(customerDetails.getCustomerNumber());
+            existingCustomer.setCompanyName(customerDetails.getCompanyName());
+            existingCustomer.setFirstName(customerDetails.getFirstName());
+            existingCustomer.setLastName(customerDetails.getLastName());
+            existingCustomer.setEmail(customerDetails.getEmail());
+            existingCustomer.setPhone(customerDetails.getPhone());
         
-        // Update jsonData, preserving addressIds if not provided
-        if (customerDetails.getJsonData() != null) {
-            java.util.Map<String, Object> newJsonData = new java.util.HashMap<>(customerDetails.getJsonData());
-            // If addressIds is in the new jsonData, use it; otherwise preserve existing
-            if (!newJsonData.containsKey("addressIds") && existingCustomer.getJsonData() != null && 
-                existingCustomer.getJsonData().containsKey("addressIds")) {
-                newJsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
+            // Update jsonData, preserving addressIds if not provided
+            if (customerDetails.getJsonData() != null) {
+                java.util.Map<String, Object> newJsonData = new java.util.HashMap<>(customerDetails.getJsonData());
+                // If addressIds is in the new jsonData, use it; otherwise preserve existing
+                if (!newJsonData.containsKey("addressIds") && existingCustomer.getJsonData() != null && 
+                    existingCustomer.getJsonData().containsKey("addressIds")) {
+                    newJsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
+                }
+                existingCustomer.setJsonData(new java.util.HashMap<>(newJsonData));
+            } else if (existingCustomer.getJsonData() != null && existingCustomer.getJsonData().containsKey("addressIds")) {
+                // Preserve existing addressIds if jsonData is null in update
+                java.util.Map<String, Object> jsonData = new java.util.HashMap<>();
+                jsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
+                existingCustomer.setJsonData(jsonData);
+            } else {
+                existingCustomer.setJsonData(customerDetails.getJsonData());
             }
-            existingCustomer.setJsonData(new java.util.HashMap<>(newJsonData));
-        } else if (existingCustomer.getJsonData() != null && existingCustomer.getJsonData().containsKey("addressIds")) {
-            // Preserve existing addressIds if jsonData is null in update
-            java.util.Map<String, Object> jsonData = new java.util.HashMap<>();
-            jsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
-            existingCustomer.setJsonData(jsonData);
-        } else {
-            existingCustomer.setJsonData(customerDetails.getJsonData());
-        }
         
-        saveItems();
-        logger.info("Updated customer with ID: {}", id);
-        return existingCustomer;
+            saveItem(existingCustomer);
+            logger.info("Updated customer with ID: {}", id);
+            return existingCustomer;
+        });
     }
 
     public void deleteCustomer(String id) {
@@ -0,0 +1,126 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter over one repository, as posted to /api/{entity}/query:
+ * <pre>
+ * {"where": [{"field": "status", "op": "in", "value": ["SHIPPED", "INVOICED"]},
+ *            {"field": "orderDate", "op": "between", "value": ["2025-01-01T00:00", "2025-02-01T00:00"]},
+ *            {"field": "jsonData.region", "op": "eq", "value": "EU"}],
+ *  "sort": "total,desc", "limit": 100}
+ * </pre>
+ * Conditions are combined with AND. A field is a property name or a dotted path into nested
+ * objects, lists and maps; a condition on a list matches if any element does. Values are
+ * converted to the type of the property they are compared with, so dates and amounts can be
+ * given as strings or numbers.
+ */
+public class EntityQuery
+{
+    public enum Operator
+    {
+        EQ, NE, IN, LT, LTE, GT, GTE, BETWEEN, CONTAINS, EXISTS;
+
+        static Operator parse(String name)
+        {
+            if (name == null)
+            {
+                return EQ;
+            }
+            try
+            {
+                return valueOf(name.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Unknown operator: " + name);
+            }
+        }
+    }
+
+    public static class Condition
+    {
+        private String field;
+        private String op;
+        private Object value;
+
+        public Condition()
+        {
+        }
+
+        public Condition(String field, String op, Object value)
+        {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        public String getField()
+        {
+            return field;
+        }
+
+        public void setField(String field)
+        {
+            this.field = field;
+        }
+
+        public String getOp()
+        {
+            return op;
+        }
+
+        public void setOp(String op)
+        {
+            this.op = op;
+        }
+
+        public Object getValue()
+        {
+            return value;
+        }
+
+        public void setValue(Object value)
+        {
+            this.value = value;
+        }
+    }
+
+    private List<Condition> where = new ArrayList<>();
+    private String sort;
+    private Integer limit;
+
+    public List<Condition> getWhere()
+    {
+        return where;
+    }
+
+    public void setWhere(List<Condition> where)
+    {
+        this.where = where != null ? where : new ArrayList<>();
+    }
+
+    public String getSort()
+    {
+        return sort;
+    }
+
+    public void setSort(String sort)
+    {
+        this.sort = sort;
+    }
+
+    public Integer getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(Integer limit)
+    {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,35 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+
+/**
+ * Version of one entity, see {@link AbstractJsonRepository#getEntityVersion}: the repository
+ * version of its last change and when that change happened. Entities unchanged since the
+ * repository was loaded have version 0 and the load time.
+ */
+public class EntityVersion
+{
+    private final long version;
+    private final long lastModified;
+
+    public EntityVersion(long version, long lastModified)
+    {
+        this.version = version;
+        this.lastModified = lastModified;
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Time of the last change in epoch milliseconds.
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+}
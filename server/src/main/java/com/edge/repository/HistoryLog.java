@@ -0,0 +1,682 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Append-only event stream of every change made to one repository, kept next to the data
+ * file. Each line holds a per-repository sequence number, the time of the change and the
+ * full new state of the entity (or a delete), so the state of an entity at any past moment is
+ * the last event for it at or before that moment. Unlike the {@link WriteAheadLog} it is not
+ * truncated at checkpoints. Current state is still read from memory; this stream only serves
+ * history queries.
+ * <p>
+ * The stream also serves as the change feed for client sync: a second index keeps only the
+ * latest change of each entity ordered by sequence, so the changes after a cursor are found
+ * without reading old events. Deletes are kept as tombstones up to a limit; dropping older
+ * ones raises the point below which a cursor can no longer be served incrementally.
+ * <p>
+ * Retention: {@link #compact} drops the events from before a cutoff that no longer describe
+ * any entity's state after it, so the file grows with the changes of the retention period
+ * rather than with all changes ever made. The rewritten file starts with a marker record
+ * holding the cutoff and the last sequence up to it, below which change cursors are reset.
+ * <p>
+ * Appends are serialized on this object's monitor. Queries do not hold it while they read:
+ * they capture the length of the complete records and read up to there through a channel of
+ * their own, so a long scan does not hold up the writers that append under a repository's
+ * write lock. Both indexes are built by {@link #buildIndex} during warm-up (or by the first
+ * query, if that comes earlier) from such a scan, and kept current by appends afterwards.
+ */
+public class HistoryLog
+{
+    private static final Logger logger = LoggerFactory.getLogger(HistoryLog.class);
+
+    private static final int MAX_TOMBSTONES = 10000;
+    // First field of the marker record written by compact(), so it is told apart without parsing
+    private static final String MARKER_PREFIX = "{\"compactedThrough\":";
+    // A file is compacted again once its cutoff is this far behind
+    private static final Duration COMPACTION_STEP = Duration.ofDays(1);
+
+    public enum Operation
+    {
+        PUT, DELETE
+    }
+
+    /**
+     * One recorded change; data is null for deletes and in change listings.
+     */
+    public static class Event
+    {
+        private final long sequence;
+        private final Instant timestamp;
+        private final Operation operation;
+        private final String id;
+        private final JsonNode data;
+
+        public Event(long sequence, Instant timestamp, Operation operation, String id, JsonNode data)
+        {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.operation = operation;
+            this.id = id;
+            this.data = data;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public Instant getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public Operation getOperation()
+        {
+            return operation;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public JsonNode getData()
+        {
+            return data;
+        }
+    }
+
+    private final Path historyFilePath;
+    private final ObjectMapper objectMapper;
+    private FileChannel channel;
+    private long lastSequence;
+    private boolean opened;
+    // End of the last complete record; readers never go past it
+    private volatile long length;
+    // Null until buildIndex has installed it, then kept up to date by appends; guarded by this
+    private Index index;
+    // Serializes index builds without blocking appends
+    private final Object indexBuildLock = new Object();
+
+    /**
+     * Byte offsets of each entity's events, plus the compacted change index.
+     */
+    private static class Index
+    {
+        private final Map<String, List<Long>> offsetsById = new HashMap<>();
+        private final Map<String, Long> latestSequenceById = new HashMap<>();
+        private final TreeMap<Long, String> latestIdBySequence = new TreeMap<>();
+        private final TreeSet<Long> tombstones = new TreeSet<>();
+        private long compactedThrough;
+
+        private void add(long sequence, Operation operation, String id, long offset)
+        {
+            offsetsById.computeIfAbsent(id, key -> new ArrayList<>()).add(offset);
+
+            Long previous = latestSequenceById.put(id, sequence);
+            if (previous != null)
+            {
+                latestIdBySequence.remove(previous);
+                tombstones.remove(previous);
+            }
+            latestIdBySequence.put(sequence, id);
+            if (operation == Operation.DELETE)
+            {
+                tombstones.add(sequence);
+                if (tombstones.size() > MAX_TOMBSTONES)
+                {
+                    long oldest = tombstones.pollFirst();
+                    latestSequenceById.remove(latestIdBySequence.remove(oldest));
+                    compactedThrough = oldest;
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LineHandler
+    {
+        void handle(String line, long offset) throws IOException;
+    }
+
+    public HistoryLog(Path historyFilePath, ObjectMapper objectMapper)
+    {
+        this.historyFilePath = historyFilePath;
+        this.objectMapper = objectMapper;
+    }
+
+    public Path getHistoryFilePath()
+    {
+        return historyFilePath;
+    }
+
+    /**
+     * Reads the last sequence number from the end of the file and cuts off a partially
+     * written last line.
+     *
+     * @return whether the stream already holds events
+     */
+    public synchronized boolean open() throws IOException
+    {
+        opened = true;
+        length = 0;
+        if (!Files.exists(historyFilePath) || Files.size(historyFilePath) == 0)
+        {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(historyFilePath, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long end = afterLastNewline(in, in.size());
+            if (end < in.size())
+            {
+                logger.warn("Ignoring incomplete record at the end of {}", historyFilePath);
+                in.truncate(end);
+            }
+            length = end;
+            if (end == 0)
+            {
+                return false;
+            }
+            long start = afterLastNewline(in, end - 1);
+            ByteBuffer line = ByteBuffer.allocate((int) (end - 1 - start));
+            in.read(line, start);
+            lastSequence = objectMapper.readTree(line.array()).path("seq").asLong();
+        }
+        return true;
+    }
+
+    /**
+     * Position just after the last newline before the limit, or 0 if there is none.
+     */
+    private long afterLastNewline(FileChannel in, long limit) throws IOException
+    {
+        long position = limit;
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        while (position > 0)
+        {
+            int length = (int) Math.min(chunk.capacity(), position);
+            chunk.clear().limit(length);
+            in.read(chunk, position - length);
+            for (int i = length - 1; i >= 0; i--)
+            {
+                if (chunk.get(i) == '\n')
+                {
+                    return position - length + i + 1;
+                }
+            }
+            position -= length;
+        }
+        return 0;
+    }
+
+    public synchronized long getLastSequence()
+    {
+        return lastSequence;
+    }
+
+    public synchronized long appendPut(String id, Object entity) throws IOException
+    {
+        return append(Operation.PUT, id, entity, Instant.now());
+    }
+
+    public synchronized long appendDelete(String id) throws IOException
+    {
+        return append(Operation.DELETE, id, null, Instant.now());
+    }
+
+    private long append(Operation operation, String id, Object entity, Instant timestamp) throws IOException
+    {
+        if (!opened)
+        {
+            open();
+        }
+        long sequence = lastSequence + 1;
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("seq", sequence);
+        record.put("at", timestamp.toString());
+        record.put("op", operation.name());
+        record.put("id", id);
+        if (entity != null)
+        {
+            record.set("data", objectMapper.valueToTree(entity));
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        objectMapper.writeValue(buffer, record);
+        buffer.write('\n');
+
+        FileChannel out = openChannel();
+        long offset = out.size();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining())
+        {
+            out.write(bytes);
+        }
+        lastSequence = sequence;
+        length = offset + buffer.size();
+        if (index != null)
+        {
+            index.add(sequence, operation, id, offset);
+        }
+        return sequence;
+    }
+
+    private FileChannel openChannel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        {
+            Files.createDirectories(historyFilePath.getParent());
+            channel = FileChannel.open(historyFilePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    public synchronized void force() throws IOException
+    {
+        if (channel != null && channel.isOpen())
+        {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * All events for one entity, oldest first.
+     */
+    public List<Event> getEvents(String id) throws IOException
+    {
+        buildIndex();
+        List<Long> offsets;
+        synchronized (this)
+        {
+            List<Long> indexed = index.offsetsById.get(id);
+            offsets = indexed != null ? new ArrayList<>(indexed) : null;
+        }
+        if (offsets == null || !Files.exists(historyFilePath))
+        {
+            return Collections.emptyList();
+        }
+        List<Event> events = new ArrayList<>(offsets.size());
+        try (FileChannel in = FileChannel.open(historyFilePath, StandardOpenOption.READ))
+        {
+            for (long offset : offsets)
+            {
+                events.add(toEvent(objectMapper.readTree(readLine(in, offset))));
+            }
+        }
+        return events;
+    }
+
+    private byte[] readLine(FileChannel in, long offset) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        long position = offset;
+        while (true)
+        {
+            chunk.clear();
+            int read = in.read(chunk, position);
+            if (read <= 0)
+            {
+                return line.toByteArray();
+            }
+            for (int i = 0; i < read; i++)
+            {
+                if (chunk.get(i) == '\n')
+                {
+                    line.write(chunk.array(), 0, i);
+                    return line.toByteArray();
+                }
+            }
+            line.write(chunk.array(), 0, read);
+            position += read;
+        }
+    }
+
+    private Event toEvent(JsonNode record)
+    {
+        JsonNode data = record.get("data");
+        return new Event(record.path("seq").asLong(), Instant.parse(record.path("at").asText()),
+            Operation.valueOf(record.path("op").asText()), record.path("id").asText(),
+            data == null || data.isNull() ? null : data);
+    }
+
+    /**
+     * The latest change of each entity with a sequence after the given one, oldest first and
+     * at most limit of them; data is left out. Returns null when the cursor cannot be served:
+     * it is older than a dropped tombstone, or newer than anything in the stream (which means
+     * the history was reset since the client last synced).
+     */
+    public List<Event> getChangesSince(long since, int limit) throws IOException
+    {
+        buildIndex();
+        synchronized (this)
+        {
+            if (since < index.compactedThrough || since > lastSequence)
+            {
+                return null;
+            }
+            List<Event> changes = new ArrayList<>();
+            for (Map.Entry<Long, String> entry : index.latestIdBySequence.tailMap(since, false).entrySet())
+            {
+                if (changes.size() >= limit)
+                {
+                    break;
+                }
+                long sequence = entry.getKey();
+                Operation operation = index.tombstones.contains(sequence) ? Operation.DELETE : Operation.PUT;
+                changes.add(new Event(sequence, null, operation, entry.getValue(), null));
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Builds the offset and change indexes unless they exist. The file is scanned up to its
+     * current length without holding the append monitor; records appended meanwhile are
+     * scanned in a further, short pass, and the index is installed once nothing is left, after
+     * which appends maintain it.
+     */
+    public void buildIndex() throws IOException
+    {
+        synchronized (indexBuildLock)
+        {
+            if (hasIndex())
+            {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            Index built = new Index();
+            long from = 0;
+            long to = committedLength();
+            while (true)
+            {
+                scan(from, to, (line, offset) -> {
+                    if (line.startsWith(MARKER_PREFIX))
+                    {
+                        built.compactedThrough = Math.max(built.compactedThrough,
+                            objectMapper.readTree(line).path("compactedThrough").asLong());
+                        return;
+                    }
+                    Event header = readHeader(line);
+                    if (header != null)
+                    {
+                        built.add(header.getSequence(), header.getOperation(), header.getId(), offset);
+                    }
+                });
+                synchronized (this)
+                {
+                    if (length == to)
+                    {
+                        index = built;
+                        break;
+                    }
+                    from = to;
+                    to = length;
+                }
+            }
+            logger.info("Indexed history of {} entities from {} in {} ms", built.offsetsById.size(), historyFilePath,
+                (System.nanoTime() - startNanos) / 1_000_000);
+        }
+    }
+
+    private synchronized boolean hasIndex()
+    {
+        return index != null;
+    }
+
+    private synchronized long committedLength() throws IOException
+    {
+        if (!opened)
+        {
+            open();
+        }
+        return length;
+    }
+
+    /**
+     * Passes each non-blank line starting in [from, to) with its byte offset to the handler,
+     * reading through a channel of its own. Both bounds must be record boundaries.
+     */
+    private void scan(long from, long to, LineHandler handler) throws IOException
+    {
+        if (from >= to || !Files.exists(historyFilePath))
+        {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(historyFilePath, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(in.position(from)), StandardCharsets.UTF_8)))
+        {
+            long offset = from;
+            String line;
+            while (offset < to && (line = reader.readLine()) != null)
+            {
+                if (!line.isBlank())
+                {
+                    handler.handle(line, offset);
+                }
+                offset += line.getBytes(StandardCharsets.UTF_8).length + 1L;
+            }
+        }
+    }
+
+    /**
+     * Reads the fields written before the (possibly large) data, which is not parsed.
+     */
+    private Event readHeader(String line) throws IOException
+    {
+        long sequence = 0;
+        Instant timestamp = null;
+        Operation operation = null;
+        String id = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(line))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                return null;
+            }
+            while (id == null && parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field)
+                {
+                    case "seq" -> sequence = parser.getLongValue();
+                    case "at" -> timestamp = Instant.parse(parser.getText());
+                    case "op" -> operation = Operation.valueOf(parser.getText());
+                    case "id" -> id = parser.getText();
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return id != null && operation != null ? new Event(sequence, timestamp, operation, id, null) : null;
+    }
+
+    /**
+     * The data of every entity that existed at the given moment, by ID, from a full scan.
+     */
+    public Map<String, JsonNode> getStateAt(Instant timestamp) throws IOException
+    {
+        Map<String, JsonNode> state = new LinkedHashMap<>();
+        scan(0, committedLength(), (line, offset) -> {
+            if (line.startsWith(MARKER_PREFIX))
+            {
+                return;
+            }
+            Event event = toEvent(objectMapper.readTree(line));
+            if (event.getTimestamp().isAfter(timestamp))
+            {
+                return;
+            }
+            if (event.getOperation() == Operation.PUT)
+            {
+                state.put(event.getId(), event.getData());
+            }
+            else
+            {
+                state.remove(event.getId());
+            }
+        });
+        return state;
+    }
+
+    /**
+     * Drops the events at or before the cutoff that no longer describe any entity's state after
+     * it: of each entity's events up to the cutoff only the last one is kept, and only if it is
+     * not a delete. Point-in-time reads from the cutoff on give the same results as before;
+     * earlier moments are no longer covered, and change cursors from before the cutoff get a
+     * reset. Does nothing until the cutoff is a day past the one the file was last compacted
+     * to. The file is rewritten to a temp file and renamed into place, so a crash leaves either
+     * the old or the new file.
+     * <p>
+     * Reads the whole file twice under the append monitor, so it is meant to run while the
+     * repository loads, before anything appends or queries.
+     *
+     * @return the number of events dropped
+     */
+    public synchronized int compact(Instant cutoff) throws IOException
+    {
+        if (!opened)
+        {
+            open();
+        }
+        if (length == 0 || !compactionDue(cutoff))
+        {
+            return 0;
+        }
+
+        // The last event of each entity up to the cutoff; the highest sequence up to the cutoff
+        // (or dropped earlier) and the number of events up to it
+        Map<String, Event> lastBeforeCutoff = new HashMap<>();
+        long[] before = {0, 0};
+        scan(0, length, (line, offset) -> {
+            if (line.startsWith(MARKER_PREFIX))
+            {
+                before[0] = Math.max(before[0], objectMapper.readTree(line).path("compactedThrough").asLong());
+                return;
+            }
+            Event header = readHeader(line);
+            if (header != null && !header.getTimestamp().isAfter(cutoff))
+            {
+                lastBeforeCutoff.put(header.getId(), header);
+                before[0] = Math.max(before[0], header.getSequence());
+                before[1]++;
+            }
+        });
+        Set<Long> kept = new HashSet<>();
+        for (Event event : lastBeforeCutoff.values())
+        {
+            if (event.getOperation() == Operation.PUT)
+            {
+                kept.add(event.getSequence());
+            }
+        }
+
+        ObjectNode marker = objectMapper.createObjectNode();
+        marker.put("compactedThrough", before[0]);
+        marker.put("retainedFrom", cutoff.toString());
+        marker.put("seq", lastSequence);
+        Path tempFile = historyFilePath.resolveSibling(historyFilePath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(out), 64 * 1024))
+        {
+            stream.write(objectMapper.writeValueAsBytes(marker));
+            stream.write('\n');
+            scan(0, length, (line, offset) -> {
+                Event header = line.startsWith(MARKER_PREFIX) ? null : readHeader(line);
+                if (header != null && (header.getTimestamp().isAfter(cutoff) || kept.contains(header.getSequence())))
+                {
+                    stream.write(line.getBytes(StandardCharsets.UTF_8));
+                    stream.write('\n');
+                }
+            });
+            stream.flush();
+            out.force(false);
+        }
+
+        if (channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+        Files.move(tempFile, historyFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        length = Files.size(historyFilePath);
+        index = null;
+        return (int) (before[1] - kept.size());
+    }
+
+    /**
+     * Whether the file has events before the cutoff that were not looked at by an earlier
+     * compaction, going by its first record: the marker of the last compaction, or the oldest
+     * event.
+     */
+    private boolean compactionDue(Instant cutoff) throws IOException
+    {
+        String first;
+        try (FileChannel in = FileChannel.open(historyFilePath, StandardOpenOption.READ))
+        {
+            first = new String(readLine(in, 0), StandardCharsets.UTF_8);
+        }
+        if (first.startsWith(MARKER_PREFIX))
+        {
+            Instant retainedFrom = Instant.parse(objectMapper.readTree(first).path("retainedFrom").asText());
+            return !retainedFrom.plus(COMPACTION_STEP).isAfter(cutoff);
+        }
+        Event oldest = readHeader(first);
+        return oldest != null && !oldest.getTimestamp().isAfter(cutoff);
+    }
+
+    public synchronized void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.force(false);
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to close history {}: {}", historyFilePath, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+
+/**
+ * One line of a batched stock adjustment, see {@link InventoryRepository#adjustInventory(java.util.List)}:
+ * the quantity of a product in a warehouse changes by quantityChange, which may be negative.
+ */
+public class InventoryAdjustment
+{
+    private String productId;
+    private String warehouseId;
+    private Integer quantityChange;
+
+    public String getProductId()
+    {
+        return productId;
+    }
+
+    public void setProductId(String productId)
+    {
+        this.productId = productId;
+    }
+
+    public String getWarehouseId()
+    {
+        return warehouseId;
+    }
+
+    public void setWarehouseId(String warehouseId)
+    {
+        this.warehouseId = warehouseId;
+    }
+
+    public Integer getQuantityChange()
+    {
+        return quantityChange;
+    }
+
+    public void setQuantityChange(Integer quantityChange)
+    {
+        this.quantityChange = quantityChange;
+    }
+}
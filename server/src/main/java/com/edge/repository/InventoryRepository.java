@@ -3,42 +3,38 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
 import com.edge.entity.Inventory;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Component
 public class InventoryRepository extends AbstractJsonRepository<Inventory> {
     private static final Logger logger = LoggerFactory.getLogger(InventoryRepository.class);
     private static final String DATA_FILE_NAME = "inventory.json";
     private static final String DATA_DIR_NAME = "data";
-
-    public InventoryRepository() {
-        super(DATA_DIR_NAME, DATA_FILE_NAME, "inventory");
+    private final SecondaryIndex<Inventory> productWarehouseIndex =
+        registerIndex("productId+warehouseId", Inventory::getProductId, Inventory::getWarehouseId);
+    private final SecondaryIndex<Inventory> productIdIndex = registerIndex("productId", Inventory::getProductId);
+    private final SecondaryIndex<Inventory> warehouseIdIndex = registerIndex("warehouseId", Inventory::getWarehouseId);
+
+    @Autowired
+    public InventoryRepository(JsonDbConfig config) {
+        this(config, resolveDataDir(DATA_DIR_NAME));
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty()) {
-            logger.info("Data file is empty, starting with empty inventory list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Inventory>>() {});
-            logger.info("Successfully loaded {} inventory records from data file", items.size());
-        } catch (Exception e) {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+    InventoryRepository(JsonDbConfig config, Path dataDir) {
+        super(config, dataDir, DATA_FILE_NAME, "inventory");
+        registerSortedIndex("quantity", Integer.class, Inventory::getQuantity);
     }
 
     @Override
@@ -57,9 +53,7 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory> {
 
     public Optional<Inventory> getInventoryByProductAndWarehouse(String productId, String warehouseId) {
         if (productId == null || warehouseId == null) return Optional.empty();
-        return items.stream()
-            .filter(inv -> productId.equals(inv.getProductId()) && warehouseId.equals(inv.getWarehouseId()))
-            .findFirst();
+        return findFirstByIndex(productWarehouseIndex, productId, warehouseId);
     }
 
     public List<Inventory> getAllInventory() {
@@ -68,90 +62,164 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory> {
 
     public List<Inventory> getInventoryByProductId(String productId) {
         if (productId == null) return new java.util.ArrayList<>();
-        return items.stream()
-            .filter(inv -> productId.equals(inv.getProductId()))
-            .collect(Collectors.toList());
+        return findAllByIndex(productIdIndex, productId);
     }
 
     public List<Inventory> getInventoryByWarehouseId(String warehouseId) {
         if (warehouseId == null) return new java.util.ArrayList<>();
-        return items.stream()
-            .filter(inv -> warehouseId.equals(inv.getWarehouseId()))
-            .collect(Collectors.toList());
+        return findAllByIndex(warehouseIdIndex, warehouseId);
     }
 
     public Inventory createOrUpdateInventory(String productId, String warehouseId, Integer quantity) {
-        if (productId == null || warehouseId == null) {
-            throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
-        }
+        return writeLocked(() -> {
+            if (productId == null || warehouseId == null) {
+                throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
+            }
         
-        Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
-        if (existing.isPresent()) {
-            Inventory inv = existing.get();
-            inv.setQuantity(quantity != null ? quantity : 0);
-            saveItems();
-            logger.info("Updated inventory for product {} in warehouse {} to quantity {}", productId, warehouseId, quantity);
-            return inv;
-        } else {
-            Inventory newInventory = new Inventory();
-            newInventory.setProductId(productId);
-            newInventory.setWarehouseId(warehouseId);
-            newInventory.setQuantity(quantity != null ? quantity : 0);
-            Inventory saved = save(newInventory);
-            logger.info("Created inventory for product {} in warehouse {} with quantity {}", productId, warehouseId, quantity);
-            return saved;
-        }
+            Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
+            if (existing.isPresent()) {
+                Inventory inv = copyOf(existing.get());
+                inv.setQuantity(quantity != null ? quantity : 0);
+                saveItem(inv);
+                logger.info("Updated inventory for product {} in warehouse {} to quantity {}", productId, warehouseId, quantity);
+                return inv;
+            } else {
+                Inventory newInventory = new Inventory();
+                newInventory.setProductId(productId);
+                newInventory.setWarehouseId(warehouseId);
+                newInventory.setQuantity(quantity != null ? quantity : 0);
+                Inventory saved = save(newInventory);
+                logger.info("Created inventory for product {} in warehouse {} with quantity {}", productId, warehouseId, quantity);
+                return saved;
+            }
+        });
     }
 
     public Inventory adjustInventory(String productId, String warehouseId, Integer quantityChange) {
-        if (productId == null || warehouseId == null) {
-            throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
-        }
+        return writeLocked(() -> {
+            if (productId == null || warehouseId == null) {
+                throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
+            }
         
-        Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
-        int currentQuantity = existing.map(Inventory::getQuantity).orElse(0);
-        int newQuantity = currentQuantity + (quantityChange != null ? quantityChange : 0);
+            Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
+            int currentQuantity = existing.map(Inventory::getQuantity).orElse(0);
+            int newQuantity = addQuantities(currentQuantity, quantityChange != null ? quantityChange : 0, productId, warehouseId);
         
-        if (newQuantity < 0) {
-            throw new IllegalArgumentException("Inventory quantity cannot be negative");
-        }
+            if (newQuantity < 0) {
+                throw new IllegalArgumentException("Inventory quantity cannot be negative");
+            }
         
-        return createOrUpdateInventory(productId, warehouseId, newQuantity);
+            return createOrUpdateInventory(productId, warehouseId, newQuantity);
+        });
     }
 
-    public Inventory createInventory(Inventory inventory) {
-        if (inventory == null) throw new IllegalArgumentException("Inventory cannot be null");
-        return save(inventory);
+    /**
+     * Applies many stock changes as one unit: either every quantity is changed or, if any would
+     * drop below zero, none is. Changes to the same product and warehouse are netted first, so
+     * their order within the batch does not matter. Returns the changed records, one per
+     * product and warehouse, in the order they first appear. Callers run it in a transaction
+     * so that the saves, too, take effect together or not at all.
+     */
+    public List<Inventory> adjustInventory(List<InventoryAdjustment> adjustments) {
+        return writeLocked(() -> {
+            if (adjustments == null) throw new IllegalArgumentException("Adjustments cannot be null");
+
+            Map<List<String>, Integer> netChanges = new LinkedHashMap<>();
+            for (InventoryAdjustment adjustment : adjustments) {
+                if (adjustment == null || adjustment.getProductId() == null || adjustment.getWarehouseId() == null) {
+                    throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
+                }
+                int change = adjustment.getQuantityChange() != null ? adjustment.getQuantityChange() : 0;
+                netChanges.merge(List.of(adjustment.getProductId(), adjustment.getWarehouseId()), change,
+                    (total, next) -> addQuantities(total, next, adjustment.getProductId(), adjustment.getWarehouseId()));
+            }
+
+            // Check everything before changing anything
+            Map<List<String>, Integer> newQuantities = new LinkedHashMap<>();
+            for (Map.Entry<List<String>, Integer> entry : netChanges.entrySet()) {
+                String productId = entry.getKey().get(0);
+                String warehouseId = entry.getKey().get(1);
+                int currentQuantity = getInventoryByProductAndWarehouse(productId, warehouseId)
+                    .map(Inventory::getQuantity).orElse(0);
+                int newQuantity = addQuantities(currentQuantity, entry.getValue(), productId, warehouseId);
+                if (newQuantity < 0) {
+                    throw new IllegalArgumentException("Inventory quantity cannot be negative for product "
+                        + productId + " in warehouse " + warehouseId);
+                }
+                newQuantities.put(entry.getKey(), newQuantity);
+            }
+
+            List<Inventory> adjusted = new ArrayList<>(newQuantities.size());
+            newQuantities.forEach((key, quantity) -> {
+                Optional<Inventory> existing = getInventoryByProductAndWarehouse(key.get(0), key.get(1));
+                if (existing.isPresent()) {
+                    Inventory inv = copyOf(existing.get());
+                    inv.setQuantity(quantity);
+                    saveItem(inv);
+                    adjusted.add(inv);
+                } else {
+                    Inventory newInventory = new Inventory();
+                    newInventory.setProductId(key.get(0));
+                    newInventory.setWarehouseId(key.get(1));
+                    newInventory.setQuantity(quantity);
+                    adjusted.add(save(newInventory));
+                }
+            });
+            logger.info("Adjusted inventory of {} product/warehouse pairs from {} changes", adjusted.size(), adjustments.size());
+            return adjusted;
+        });
     }
 
-    public Inventory updateInventory(String id, Inventory inventoryDetails) {
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("Inventory ID cannot be null or empty");
-        if (inventoryDetails == null)
-            throw new IllegalArgumentException("Inventory details cannot be null");
-
-        Inventory existingInventory = findById(id).orElseThrow(() -> 
-            new InventoryNotFoundException("Inventory not found with id: " + id));
-
-        if (inventoryDetails.getQuantity() != null && inventoryDetails.getQuantity() < 0) {
-            throw new IllegalArgumentException("Inventory quantity cannot be negative");
+    /**
+     * Adds two quantities, rejecting a result that does not fit in an int like any other
+     * invalid entry of the batch.
+     */
+    private static int addQuantities(int quantity, int change, String productId, String warehouseId) {
+        try {
+            return Math.addExact(quantity, change);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Inventory quantity out of range for product "
+                + productId + " in warehouse " + warehouseId);
         }
+    }
 
-        // Update fields
-        if (inventoryDetails.getProductId() != null) {
-            existingInventory.setProductId(inventoryDetails.getProductId());
-        }
-        if (inventoryDetails.getWarehouseId() != null) {
-            existingInventory.setWarehouseId(inventoryDetails.getWarehouseId());
-        }
-        if (inventoryDetails.getQuantity() != null) {
-            existingInventory.setQuantity(inventoryDetails.getQuantity());
-        }
-        existingInventory.setJsonData(inventoryDetails.getJsonData());
+    public Inventory createInventory(Inventory inventory) {
+        return writeLocked(() -> {
+            if (inventory == null) throw new IllegalArgumentException("Inventory cannot be null");
+            return save(inventory);
+        });
+    }
+
+    public Inventory updateInventory(String id, Inventory inventoryDetails) {
+        return writeLocked(() -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Inventory ID cannot be null or empty");
+            if (inventoryDetails == null)
+                throw new IllegalArgumentException("Inventory details cannot be null");
+
+            Inventory existingInventory = findByIdForUpdate(id).orElseThrow(() -> 
+                new InventoryNotFoundException("Inventory not found with id: " + id));
+
+            if (inventoryDetails.getQuantity() != null && inventoryDetails.getQuantity() < 0) {
+                throw new IllegalArgumentException("Inventory quantity cannot be negative");
+            }
+
+            // Update fields
+            if (inventoryDetails.getProductId() != null) {
+                existingInventory.setProductId(inventoryDetails.getProductId());
+            }
+            if (inventoryDetails.getWarehouseId() != null) {
+                existingInventory.setWarehouseId(inventoryDetails.getWarehouseId());
+            }
+            if (inventoryDetails.getQuantity() != null) {
+                existingInventory.setQuantity(inventoryDetails.getQuantity());
+            }
+            existingInventory.setJsonData(inventoryDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated inventory with ID: {}", id);
-        return existingInventory;
+            saveItem(existingInventory);
+            logger.info("Updated inventory with ID: {}", id);
+            return existingInventory;
+        });
     }
 
     public void deleteInventory(String id) {
@@ -0,0 +1,32 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.List;
+
+/**
+ * Entities looked up by a list of IDs, see {@link AbstractJsonRepository#findAllById}: the ones
+ * found, in the order they were asked for, and the IDs that do not exist.
+ */
+public class MultiGetResult<T>
+{
+    private final List<T> items;
+    private final List<String> missing;
+
+    public MultiGetResult(List<T> items, List<String> missing)
+    {
+        this.items = items;
+        this.missing = missing;
+    }
+
+    public List<T> getItems()
+    {
+        return items;
+    }
+
+    public List<String> getMissing()
+    {
+        return missing;
+    }
+}
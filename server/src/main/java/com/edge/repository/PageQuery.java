@@ -0,0 +1,68 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+
+/**
+ * Paging parameters of a list request, bound from the query string:
+ * ?limit=50&amp;sort=orderDate,desc&amp;page=2 or ?limit=50&amp;sort=orderDate,desc&amp;cursor=...
+ * sort is a field with a sorted index, optionally followed by ",asc" or ",desc"; page counts
+ * from 0. cursor is the nextCursor of the previous page and is preferred over page, since it
+ * starts where the previous page ended however deep it is and is not shifted by inserts.
+ */
+public class PageQuery
+{
+    private Integer limit;
+    private Integer page;
+    private String sort;
+    private String cursor;
+
+    public Integer getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(Integer limit)
+    {
+        this.limit = limit;
+    }
+
+    public Integer getPage()
+    {
+        return page;
+    }
+
+    public void setPage(Integer page)
+    {
+        this.page = page;
+    }
+
+    public String getSort()
+    {
+        return sort;
+    }
+
+    public void setSort(String sort)
+    {
+        this.sort = sort;
+    }
+
+    public String getCursor()
+    {
+        return cursor;
+    }
+
+    public void setCursor(String cursor)
+    {
+        this.cursor = cursor;
+    }
+
+    /**
+     * Whether any paging parameter was given; list endpoints return the plain full list otherwise.
+     */
+    public boolean isPaged()
+    {
+        return limit != null || page != null || sort != null || cursor != null;
+    }
+}
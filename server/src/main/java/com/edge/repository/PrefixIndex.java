@@ -0,0 +1,113 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Values of one text property in case-insensitive order, for completing what a user has typed
+ * so far: the entries starting with a prefix are a contiguous run of the tree, so a lookup
+ * costs a descent plus the entries returned. Created through
+ * {@link AbstractJsonRepository#registerPrefixIndex} and kept in step with the repository
+ * contents like {@link SecondaryIndex}. Blank values are not indexed.
+ */
+public class PrefixIndex<T>
+{
+    private static class Entry
+    {
+        private final String key;
+        private final String id;
+        private final String value;
+
+        private Entry(String key, String id, String value)
+        {
+            this.key = key;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    private final String name;
+    private final Function<T, String> extractor;
+    private final TreeSet<Entry> entries = new TreeSet<>(PrefixIndex::compare);
+    private final Map<String, Entry> entryById = new HashMap<>();
+
+    private static int compare(Entry a, Entry b)
+    {
+        int result = a.key.compareTo(b.key);
+        return result != 0 ? result : a.id.compareTo(b.id);
+    }
+
+    PrefixIndex(String name, Function<T, String> extractor)
+    {
+        this.name = name;
+        this.extractor = extractor;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    static String normalize(String value)
+    {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    void index(String id, T entity)
+    {
+        String value = extractor.apply(entity);
+        Entry old = entryById.get(id);
+        if (old != null && old.value.equals(value))
+        {
+            return;
+        }
+        unindex(id);
+        if (value != null && !value.isBlank())
+        {
+            Entry entry = new Entry(normalize(value), id, value);
+            entries.add(entry);
+            entryById.put(id, entry);
+        }
+    }
+
+    void unindex(String id)
+    {
+        Entry old = entryById.remove(id);
+        if (old != null)
+        {
+            entries.remove(old);
+        }
+    }
+
+    void clear()
+    {
+        entries.clear();
+        entryById.clear();
+    }
+
+    /**
+     * Up to limit entities whose value starts with the prefix, ignoring case, in value order.
+     */
+    List<Suggestion> complete(String entityName, String prefix, int limit)
+    {
+        String key = normalize(prefix);
+        List<Suggestion> suggestions = new ArrayList<>(Math.min(limit, 16));
+        for (Entry entry : entries.tailSet(new Entry(key, "", null), true))
+        {
+            if (suggestions.size() >= limit || !entry.key.startsWith(key))
+            {
+                break;
+            }
+            suggestions.add(new Suggestion(entityName, name, entry.id, entry.value));
+        }
+        return suggestions;
+    }
+}
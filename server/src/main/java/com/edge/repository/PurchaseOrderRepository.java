@@ -3,45 +3,55 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
 import com.edge.entity.PurchaseOrder;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.edge.entity.PurchaseOrderItem;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Component
 public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrder> {
     private static final Logger logger = LoggerFactory.getLogger(PurchaseOrderRepository.class);
     private static final String DATA_FILE_NAME = "purchase_orders.json";
     private static final String DATA_DIR_NAME = "data";
-    private static final String COUNTER_FILE_NAME = "po_counter.json";
-    private static final String INVOICE_COUNTER_FILE_NAME = "po_invoice_counter.json";
+    private static final String LEGACY_COUNTER_FILE_NAME = "po_counter.json";
+    private static final String LEGACY_INVOICE_COUNTER_FILE_NAME = "po_invoice_counter.json";
     private static final long INITIAL_PO_NUMBER = 300000L;
     private static final long INITIAL_PO_INVOICE_NUMBER = 400000L;
-    private java.nio.file.Path counterFilePath;
-    private java.nio.file.Path invoiceCounterFilePath;
+    private static final String ORDER_SEQUENCE = "purchase-order";
+    private static final String INVOICE_SEQUENCE = "purchase-order-invoice";
+    private final SequenceStore sequenceStore;
+    private final SecondaryIndex<PurchaseOrder> orderNumberIndex = registerIndex("orderNumber", PurchaseOrder::getOrderNumber);
+    private final SecondaryIndex<PurchaseOrder> supplierIdIndex = registerIndex("supplierId", PurchaseOrder::getSupplierId);
+    private final SecondaryIndex<PurchaseOrder> statusIndex = registerIndex("status", PurchaseOrder::getStatus);
 
-    public PurchaseOrderRepository() {
-        super(DATA_DIR_NAME, DATA_FILE_NAME, "purchase orders");
-        try {
-            java.nio.file.Path dataDir = java.nio.file.Paths.get(DATA_DIR_NAME);
-            if (!java.nio.file.Files.exists(dataDir)) {
-                java.nio.file.Files.createDirectories(dataDir);
-            }
-            counterFilePath = dataDir.resolve(COUNTER_FILE_NAME);
-            invoiceCounterFilePath = dataDir.resolve(INVOICE_COUNTER_FILE_NAME);
-        } catch (IOException e) {
-            logger.error("Error initializing counter file path", e);
-            throw new RuntimeException("Failed to initialize purchase order counter", e);
-        }
+    @Autowired
+    public PurchaseOrderRepository(JsonDbConfig config, SequenceStore sequenceStore) {
+        this(config, sequenceStore, resolveDataDir(DATA_DIR_NAME));
+    }
+
+    PurchaseOrderRepository(JsonDbConfig config, SequenceStore sequenceStore, Path dataDir) {
+        super(config, dataDir, DATA_FILE_NAME, "purchase orders");
+        registerSortedIndex("orderDate", LocalDateTime.class, PurchaseOrder::getOrderDate);
+        registerSortedIndex("orderNumber", String.class, PurchaseOrder::getOrderNumber);
+        registerSortedIndex("total", BigDecimal.class, PurchaseOrder::getTotal);
+        registerSortedIndex("status", String.class, PurchaseOrder::getStatus);
+        this.sequenceStore = sequenceStore;
+        sequenceStore.define(ORDER_SEQUENCE, INITIAL_PO_NUMBER, LEGACY_COUNTER_FILE_NAME);
+        sequenceStore.define(INVOICE_SEQUENCE, INITIAL_PO_INVOICE_NUMBER, LEGACY_INVOICE_COUNTER_FILE_NAME);
     }
 
     @Override
@@ -52,23 +62,6 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
         return mapper;
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty()) {
-            logger.info("Data file is empty, starting with empty purchase order list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<PurchaseOrder>>() {});
-            logger.info("Successfully loaded {} purchase orders from data file", items.size());
-        } catch (Exception e) {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(PurchaseOrder entity) {
         return entity.getId();
@@ -85,7 +78,7 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
 
     public Optional<PurchaseOrder> getPurchaseOrderByOrderNumber(String orderNumber) {
         if (orderNumber == null || orderNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(po -> orderNumber.equals(po.getOrderNumber())).findFirst();
+        return findFirstByIndex(orderNumberIndex, orderNumber);
     }
 
     public List<PurchaseOrder> getAllPurchaseOrders() {
@@ -96,209 +89,146 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
         if (supplierId == null || supplierId.trim().isEmpty()) {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(po -> supplierId.equals(po.getSupplierId()))
-            .collect(Collectors.toList());
+        return findAllByIndex(supplierIdIndex, supplierId);
     }
 
     public List<PurchaseOrder> getPurchaseOrdersByStatus(String status) {
         if (status == null || status.trim().isEmpty()) {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(po -> status.equals(po.getStatus()))
-            .collect(Collectors.toList());
+        return findAllByIndex(statusIndex, status);
     }
 
     public PurchaseOrder createPurchaseOrder(PurchaseOrder po) {
-        if (po == null) throw new IllegalArgumentException("Purchase Order cannot be null");
-        
-        // Generate order number if not provided
-        if (po.getOrderNumber() == null || po.getOrderNumber().trim().isEmpty()) {
-            String newOrderNumber = generateNextOrderNumber();
-            po.setOrderNumber(newOrderNumber);
-            logger.info("Generated order number: {}", newOrderNumber);
-        } else if (getPurchaseOrderByOrderNumber(po.getOrderNumber()).isPresent()) {
-            throw new PurchaseOrderAlreadyExistsException("Purchase Order with number " + po.getOrderNumber() + " already exists");
-        }
+        return writeLocked(() -> {
+            if (po == null) throw new IllegalArgumentException("Purchase Order cannot be null");
         
-        // Calculate totals before saving
-        po.calculateTotals();
-        return save(po);
-    }
-    
-    private synchronized String generateNextOrderNumber() {
-        try {
-            long currentCounter = readCounter();
-            long nextOrderNumber = currentCounter + 1;
-            writeCounter(nextOrderNumber);
-            logger.info("Generated order number: {} (counter updated from {} to {})", 
-                nextOrderNumber, currentCounter, nextOrderNumber);
-            return String.valueOf(nextOrderNumber);
-        } catch (IOException e) {
-            logger.error("Error generating order number", e);
-            throw new RuntimeException("Failed to generate order number", e);
-        }
-    }
-    
-    private long readCounter() throws IOException {
-        if (!java.nio.file.Files.exists(counterFilePath)) {
-            long initialValue = INITIAL_PO_NUMBER;
-            writeCounter(initialValue);
-            logger.info("Initialized purchase order counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        try {
-            String content = new String(java.nio.file.Files.readAllBytes(counterFilePath)).trim();
-            if (content.isEmpty()) {
-                long initialValue = INITIAL_PO_NUMBER;
-                writeCounter(initialValue);
-                logger.info("Counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
+            // Generate order number if not provided
+            if (po.getOrderNumber() == null || po.getOrderNumber().trim().isEmpty()) {
+                String newOrderNumber = generateNextOrderNumber();
+                po.setOrderNumber(newOrderNumber);
+                logger.info("Generated order number: {}", newOrderNumber);
+            } else if (getPurchaseOrderByOrderNumber(po.getOrderNumber()).isPresent()) {
+                throw new PurchaseOrderAlreadyExistsException("Purchase Order with number " + po.getOrderNumber() + " already exists");
             }
-            
-            long counterValue = Long.parseLong(content);
-            if (counterValue < INITIAL_PO_NUMBER) {
-                counterValue = INITIAL_PO_NUMBER;
-                writeCounter(counterValue);
-                logger.info("Counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        } catch (NumberFormatException e) {
-            logger.warn("Counter file contains invalid data, resetting to initial value: {}", INITIAL_PO_NUMBER);
-            long initialValue = INITIAL_PO_NUMBER;
-            writeCounter(initialValue);
-            return initialValue;
-        }
-    }
-    
-    private void writeCounter(long value) throws IOException {
-        java.nio.file.Files.write(counterFilePath, String.valueOf(value).getBytes());
+        
+            // Calculate totals before saving
+            po.calculateTotals();
+            return save(po);
+        });
     }
     
-    public synchronized String generateNextInvoiceNumber() {
-        try {
-            long currentCounter = readInvoiceCounter();
-            long nextInvoiceNumber = currentCounter + 1;
-            writeInvoiceCounter(nextInvoiceNumber);
-            logger.info("Generated invoice number: {} (counter updated from {} to {})", 
-                nextInvoiceNumber, currentCounter, nextInvoiceNumber);
-            return String.valueOf(nextInvoiceNumber);
-        } catch (IOException e) {
-            logger.error("Error generating invoice number", e);
-            throw new RuntimeException("Failed to generate invoice number", e);
+    /**
+     * Creates many purchase orders with one persist, see {@link #applyBatch}. Numbers for those without
+     * one are reserved up front with a single sequence log write.
+     */
+    public List<BatchResult<PurchaseOrder>> createPurchaseOrders(List<PurchaseOrder> pos, Function<PurchaseOrder, String> prepare) {
+        long unnumbered = pos.stream()
+            .filter(po -> po != null && (po.getOrderNumber() == null || po.getOrderNumber().trim().isEmpty()))
+            .count();
+        if (unnumbered > 0) {
+            sequenceStore.reserveAhead(ORDER_SEQUENCE, unnumbered);
         }
+        return applyBatch(pos, prepare, this::createPurchaseOrder);
     }
-    
-    private long readInvoiceCounter() throws IOException {
-        if (!java.nio.file.Files.exists(invoiceCounterFilePath)) {
-            long initialValue = INITIAL_PO_INVOICE_NUMBER;
-            writeInvoiceCounter(initialValue);
-            logger.info("Initialized purchase order invoice counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        try {
-            String content = new String(java.nio.file.Files.readAllBytes(invoiceCounterFilePath)).trim();
-            if (content.isEmpty()) {
-                long initialValue = INITIAL_PO_INVOICE_NUMBER;
-                writeInvoiceCounter(initialValue);
-                logger.info("Invoice counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            if (counterValue < INITIAL_PO_INVOICE_NUMBER) {
-                counterValue = INITIAL_PO_INVOICE_NUMBER;
-                writeInvoiceCounter(counterValue);
-                logger.info("Invoice counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        } catch (NumberFormatException e) {
-            logger.warn("Invoice counter file contains invalid data, resetting to initial value: {}", INITIAL_PO_INVOICE_NUMBER);
-            long initialValue = INITIAL_PO_INVOICE_NUMBER;
-            writeInvoiceCounter(initialValue);
-            return initialValue;
-        }
+
+    private String generateNextOrderNumber() {
+        return String.valueOf(sequenceStore.next(ORDER_SEQUENCE));
     }
     
-    private void writeInvoiceCounter(long value) throws IOException {
-        java.nio.file.Files.write(invoiceCounterFilePath, String.valueOf(value).getBytes());
+    public String generateNextInvoiceNumber() {
+        return String.valueOf(sequenceStore.next(INVOICE_SEQUENCE));
     }
 
     public PurchaseOrder updatePurchaseOrder(String id, PurchaseOrder poDetails) {
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("Purchase Order ID cannot be null or empty");
-        if (poDetails == null)
-            throw new IllegalArgumentException("Purchase Order details cannot be null");
-
-        PurchaseOrder existingPO = findById(id).orElseThrow(() -> 
-            new PurchaseOrderNotFoundException("Purchase Order not found with id: " + id));
+        return writeLocked(() -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Purchase Order ID cannot be null or empty");
+            if (poDetails == null)
+                throw new IllegalArgumentException("Purchase Order details cannot be null");
+
+            PurchaseOrder existingPO = findByIdForUpdate(id).orElseThrow(() -> 
+                new PurchaseOrderNotFoundException("Purchase Order not found with id: " + id));
         
-        logger.info("updatePurchaseOrder called - ID: {}, incoming status: {}, existing status: {}", 
-            id, poDetails.getStatus(), existingPO.getStatus());
-
-        if (poDetails.getOrderNumber() != null && !poDetails.getOrderNumber().trim().isEmpty()) {
-            Optional<PurchaseOrder> numberCheck = getPurchaseOrderByOrderNumber(poDetails.getOrderNumber());
-            if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId())) {
-                throw new PurchaseOrderAlreadyExistsException("Purchase Order with number " + poDetails.getOrderNumber() + " already exists");
+            logger.info("updatePurchaseOrder called - ID: {}, incoming status: {}, existing status: {}", 
+                id, poDetails.getStatus(), existingPO.getStatus());
+
+            if (poDetails.getOrderNumber() != null && !poDetails.getOrderNumber().trim().isEmpty()) {
+                Optional<PurchaseOrder> numberCheck = getPurchaseOrderByOrderNumber(poDetails.getOrderNumber());
+                if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId())) {
+                    throw new PurchaseOrderAlreadyExistsException("Purchase Order with number " + poDetails.getOrderNumber() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        if (poDetails.getOrderNumber() != null) {
-            existingPO.setOrderNumber(poDetails.getOrderNumber());
-        }
-        if (poDetails.getSupplierId() != null) {
-            existingPO.setSupplierId(poDetails.getSupplierId());
-        }
-        if (poDetails.getShippingAddressId() != null) {
-            existingPO.setShippingAddressId(poDetails.getShippingAddressId());
-        }
-        if (poDetails.getBillingAddressId() != null) {
-            existingPO.setBillingAddressId(poDetails.getBillingAddressId());
-        }
-        if (poDetails.getOrderDate() != null) {
-            existingPO.setOrderDate(poDetails.getOrderDate());
-        }
-        if (poDetails.getExpectedDeliveryDate() != null) {
-            existingPO.setExpectedDeliveryDate(poDetails.getExpectedDeliveryDate());
-        }
-        if (poDetails.getStatus() != null) {
-            logger.info("Updating purchase order status from '{}' to '{}' for PO ID: {}", 
-                existingPO.getStatus(), poDetails.getStatus(), id);
-            existingPO.setStatus(poDetails.getStatus());
-        }
-        if (poDetails.getItems() != null) {
-            existingPO.setItems(poDetails.getItems());
-        }
-        if (poDetails.getTax() != null) {
-            existingPO.setTax(poDetails.getTax());
-        }
-        if (poDetails.getShippingCost() != null) {
-            existingPO.setShippingCost(poDetails.getShippingCost());
-        }
-        if (poDetails.getNotes() != null) {
-            existingPO.setNotes(poDetails.getNotes());
-        }
-        if (poDetails.getInvoiceNumber() != null) {
-            existingPO.setInvoiceNumber(poDetails.getInvoiceNumber());
-        }
-        if (poDetails.getInvoiceDate() != null) {
-            existingPO.setInvoiceDate(poDetails.getInvoiceDate());
-        }
-        if (poDetails.getJsonData() != null) {
-            existingPO.setJsonData(poDetails.getJsonData());
-        }
+            // Update fields
+            if (poDetails.getOrderNumber() != null) {
+                existingPO.setOrderNumber(poDetails.getOrderNumber());
+            }
+            if (poDetails.getSupplierId() != null) {
+                existingPO.setSupplierId(poDetails.getSupplierId());
+            }
+            if (poDetails.getShippingAddressId() != null) {
+                existingPO.setShippingAddressId(poDetails.getShippingAddressId());
+            }
+            if (poDetails.getBillingAddressId() != null) {
+                existingPO.setBillingAddressId(poDetails.getBillingAddressId());
+            }
+            if (poDetails.getOrderDate() != null) {
+                existingPO.setOrderDate(poDetails.getOrderDate());
+            }
+            if (poDetails.getExpectedDeliveryDate() != null) {
+                existingPO.setExpectedDeliveryDate(poDetails.getExpectedDeliveryDate());
+            }
+            if (poDetails.getStatus() != null) {
+                logger.info("Updating purchase order status from '{}' to '{}' for PO ID: {}", 
+                    existingPO.getStatus(), poDetails.getStatus(), id);
+                existingPO.setStatus(poDetails.getStatus());
+            }
+            if (poDetails.getItems() != null) {
+                existingPO.setItems(poDetails.getItems());
+            }
+            if (poDetails.getTax() != null) {
+                existingPO.setTax(poDetails.getTax());
+            }
+            if (poDetails.getShippingCost() != null) {
+                existingPO.setShippingCost(poDetails.getShippingCost());
+            }
+            if (poDetails.getNotes() != null) {
+                existingPO.setNotes(poDetails.getNotes());
+            }
+            if (poDetails.getInvoiceNumber() != null) {
+                existingPO.setInvoiceNumber(poDetails.getInvoiceNumber());
+            }
+            if (poDetails.getInvoiceDate() != null) {
+                existingPO.setInvoiceDate(poDetails.getInvoiceDate());
+            }
+            if (poDetails.getJsonData() != null) {
+                existingPO.setJsonData(poDetails.getJsonData());
+            }
         
-        // Recalculate totals
-        existingPO.calculateTotals();
+            // Recalculate totals
+            existingPO.calculateTotals();
         
-        saveItems();
-        logger.info("Updated purchase order with ID: {}, status: {}", id, existingPO.getStatus());
+            saveItem(existingPO);
+            logger.info("Updated purchase order with ID: {}, status: {}", id, existingPO.getStatus());
         
-        return existingPO;
+            return existingPO;
+        });
+    }
+
+    /**
+     * Reads a purchase order, applies the change to its items, recalculates the totals and saves it,
+     * all under the write lock, so concurrent item edits are not lost.
+     */
+    public PurchaseOrder updatePurchaseOrderItems(String id, Consumer<List<PurchaseOrderItem>> change) {
+        return writeLocked(() -> {
+            PurchaseOrder po = findByIdForUpdate(id).orElseThrow(() ->
+                new PurchaseOrderNotFoundException("Purchase Order not found with id: " + id));
+            change.accept(po.getItems());
+            po.calculateTotals();
+            saveItem(po);
+            return po;
+        });
     }
 
     public void deletePurchaseOrder(String id) {
@@ -0,0 +1,365 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * One compiled {@link EntityQuery.Condition}. Properties are read through their getters
+ * (cached per class), and the condition's values are converted once per property type they
+ * meet, so testing an entity does not serialize it. Safe to use from several threads.
+ */
+class QueryPredicate<T> implements Predicate<T>
+{
+    private static final Map<Class<?>, Map<String, Method>> GETTERS = new ConcurrentHashMap<>();
+
+    private final String field;
+    private final String[] path;
+    private final EntityQuery.Operator operator;
+    private final List<Object> operands;
+    private final boolean expectExists;
+    private final Class<?> propertyType;
+    private final ObjectMapper objectMapper;
+    private final Map<Class<?>, List<Object>> operandsByType = new ConcurrentHashMap<>();
+
+    QueryPredicate(EntityQuery.Condition condition, Class<T> entityClass, ObjectMapper objectMapper)
+    {
+        if (condition.getField() == null || condition.getField().isBlank())
+        {
+            throw new IllegalArgumentException("Condition without a field");
+        }
+        this.field = condition.getField().trim();
+        this.path = field.split("\\.");
+        this.operator = EntityQuery.Operator.parse(condition.getOp());
+        this.objectMapper = objectMapper;
+
+        Method getter = getters(entityClass).get(path[0]);
+        if (getter == null)
+        {
+            throw new IllegalArgumentException("Unknown field: " + path[0]);
+        }
+        this.propertyType = path.length == 1 ? wrap(getter.getReturnType()) : null;
+
+        Object value = condition.getValue();
+        switch (operator)
+        {
+            case IN ->
+            {
+                if (!(value instanceof Collection<?> values))
+                {
+                    throw new IllegalArgumentException("Operator in needs a list of values for " + field);
+                }
+                this.operands = new ArrayList<>(values);
+            }
+            case BETWEEN ->
+            {
+                if (!(value instanceof List<?> bounds) || bounds.size() != 2)
+                {
+                    throw new IllegalArgumentException("Operator between needs [from, to] for " + field);
+                }
+                this.operands = new ArrayList<>(bounds);
+            }
+            case EXISTS -> this.operands = List.of();
+            default ->
+            {
+                if (value == null || value instanceof Collection<?>)
+                {
+                    throw new IllegalArgumentException("Operator " + operator.name().toLowerCase() + " needs a single value for " + field);
+                }
+                this.operands = List.of(value);
+            }
+        }
+        this.expectExists = operator != EntityQuery.Operator.EXISTS || value == null || Boolean.parseBoolean(String.valueOf(value));
+        if (propertyType != null)
+        {
+            // Fails the query up front when a value does not fit the property
+            operandsFor(propertyType);
+        }
+    }
+
+    String getField()
+    {
+        return field;
+    }
+
+    EntityQuery.Operator getOperator()
+    {
+        return operator;
+    }
+
+    /**
+     * Whether the field is a direct property of the entity, so an index on it can be used.
+     */
+    boolean isTopLevel()
+    {
+        return propertyType != null;
+    }
+
+    /**
+     * Type of the property for a top-level field, with primitives boxed; null for paths.
+     */
+    Class<?> getPropertyType()
+    {
+        return propertyType;
+    }
+
+    /**
+     * The condition's values converted to the property's type, e.g. for index lookups.
+     */
+    List<Object> getOperands()
+    {
+        return operandsFor(propertyType);
+    }
+
+    @Override
+    public boolean test(T entity)
+    {
+        List<Object> values = new ArrayList<>(1);
+        collect(entity, 0, values);
+        if (operator == EntityQuery.Operator.EXISTS)
+        {
+            return values.stream().anyMatch(v -> v != null) == expectExists;
+        }
+        if (operator == EntityQuery.Operator.NE)
+        {
+            for (Object value : values)
+            {
+                if (value != null && compare(value, 0) == 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (Object value : values)
+        {
+            if (value != null && matches(value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(Object value)
+    {
+        return switch (operator)
+        {
+            case EQ -> compare(value, 0) == 0;
+            case IN ->
+            {
+                for (int i = 0; i < operands.size(); i++)
+                {
+                    if (compare(value, i) == 0)
+                    {
+                        yield true;
+                    }
+                }
+                yield false;
+            }
+            case LT -> compare(value, 0) < 0;
+            case LTE -> compare(value, 0) <= 0;
+            case GT -> compare(value, 0) > 0;
+            case GTE -> compare(value, 0) >= 0;
+            case BETWEEN -> compare(value, 0) >= 0 && compare(value, 1) <= 0;
+            case CONTAINS -> value.toString().toLowerCase().contains(String.valueOf(operands.get(0)).toLowerCase());
+            default -> false;
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private int compare(Object value, int operandIndex)
+    {
+        Object operand = operandsFor(value.getClass()).get(operandIndex);
+        if (operand == null)
+        {
+            return -1;
+        }
+        if (value instanceof Comparable comparable)
+        {
+            return comparable.compareTo(operand);
+        }
+        if (operator == EntityQuery.Operator.EQ || operator == EntityQuery.Operator.NE || operator == EntityQuery.Operator.IN)
+        {
+            return value.equals(operand) ? 0 : 1;
+        }
+        throw new IllegalArgumentException("Field " + field + " cannot be compared with " + operator.name().toLowerCase());
+    }
+
+    private List<Object> operandsFor(Class<?> type)
+    {
+        return operandsByType.computeIfAbsent(type, key -> {
+            List<Object> converted = new ArrayList<>(operands.size());
+            for (Object operand : operands)
+            {
+                converted.add(convert(operand, key));
+            }
+            return converted;
+        });
+    }
+
+    private Object convert(Object operand, Class<?> type)
+    {
+        if (operand == null || type.isInstance(operand))
+        {
+            return operand;
+        }
+        if (type == String.class)
+        {
+            return operand.toString();
+        }
+        if (type == LocalDateTime.class && operand instanceof String text && text.length() == 10)
+        {
+            // A plain date means the start of that day
+            return LocalDate.parse(text).atStartOfDay();
+        }
+        if (type == BigDecimal.class && operand instanceof Number number)
+        {
+            return new BigDecimal(number.toString());
+        }
+        try
+        {
+            return objectMapper.convertValue(operand, type);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Value " + operand + " does not fit field " + field + " of type " + type.getSimpleName());
+        }
+    }
+
+    /**
+     * Reads the path from the object, stepping into every element of lists on the way.
+     */
+    private void collect(Object current, int depth, List<Object> values)
+    {
+        if (current instanceof Collection<?> elements)
+        {
+            for (Object element : elements)
+            {
+                collect(element, depth, values);
+            }
+            return;
+        }
+        if (depth == path.length)
+        {
+            values.add(current);
+            return;
+        }
+        if (current == null)
+        {
+            return;
+        }
+        collect(read(current, path[depth]), depth + 1, values);
+    }
+
+    /**
+     * First value at the given path of the entity, for sorting query results.
+     */
+    static Object readPath(Object entity, String field)
+    {
+        Object current = entity;
+        for (String name : field.split("\\."))
+        {
+            if (current instanceof Collection<?> elements)
+            {
+                current = elements.isEmpty() ? null : elements.iterator().next();
+            }
+            if (current == null)
+            {
+                return null;
+            }
+            current = read(current, name);
+        }
+        return current;
+    }
+
+    private static Object read(Object target, String name)
+    {
+        if (target instanceof Map<?, ?> map)
+        {
+            return map.get(name);
+        }
+        Method getter = getters(target.getClass()).get(name);
+        if (getter == null)
+        {
+            throw new IllegalArgumentException("Unknown field " + name + " on " + target.getClass().getSimpleName());
+        }
+        try
+        {
+            return getter.invoke(target);
+        }
+        catch (IllegalAccessException | InvocationTargetException e)
+        {
+            throw new IllegalStateException("Failed to read " + name + " of " + target.getClass().getSimpleName(), e);
+        }
+    }
+
+    static boolean hasProperty(Class<?> type, String name)
+    {
+        return getters(type).containsKey(name);
+    }
+
+    private static Map<String, Method> getters(Class<?> type)
+    {
+        return GETTERS.computeIfAbsent(type, key -> {
+            Map<String, Method> getters = new HashMap<>();
+            try
+            {
+                for (PropertyDescriptor property : Introspector.getBeanInfo(key, Object.class).getPropertyDescriptors())
+                {
+                    if (property.getReadMethod() != null)
+                    {
+                        getters.put(property.getName(), property.getReadMethod());
+                    }
+                }
+            }
+            catch (IntrospectionException e)
+            {
+                throw new IllegalStateException("Failed to inspect " + key.getSimpleName(), e);
+            }
+            return getters;
+        });
+    }
+
+    private static Class<?> wrap(Class<?> type)
+    {
+        if (!type.isPrimitive())
+        {
+            return type;
+        }
+        if (type == boolean.class)
+        {
+            return Boolean.class;
+        }
+        if (type == int.class)
+        {
+            return Integer.class;
+        }
+        if (type == long.class)
+        {
+            return Long.class;
+        }
+        if (type == double.class)
+        {
+            return Double.class;
+        }
+        return type;
+    }
+}
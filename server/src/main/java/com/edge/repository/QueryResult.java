@@ -0,0 +1,47 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.List;
+
+/**
+ * Result of {@link AbstractJsonRepository#query}. total counts every match before the limit;
+ * plan tells how the candidates were found, e.g. "index(status)", "range(orderDate)", "id",
+ * "scan" or "parallel-scan".
+ */
+public class QueryResult<T>
+{
+    private final List<T> items;
+    private final int total;
+    private final int limit;
+    private final String plan;
+
+    public QueryResult(List<T> items, int total, int limit, String plan)
+    {
+        this.items = items;
+        this.total = total;
+        this.limit = limit;
+        this.plan = plan;
+    }
+
+    public List<T> getItems()
+    {
+        return items;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public String getPlan()
+    {
+        return plan;
+    }
+}
@@ -0,0 +1,47 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Looks up repositories by the resource name used in API paths (see
+ * {@link AbstractJsonRepository#getResourceName()}), for endpoints and filters that work
+ * across all entity types.
+ */
+@Component
+public class RepositoryRegistry
+{
+    private final Map<String, AbstractJsonRepository<?>> repositoriesByResource = new LinkedHashMap<>();
+
+    @Autowired
+    public RepositoryRegistry(List<AbstractJsonRepository<?>> repositories)
+    {
+        List<AbstractJsonRepository<?>> sorted = new ArrayList<>(repositories);
+        sorted.sort((a, b) -> a.getResourceName().compareTo(b.getResourceName()));
+        for (AbstractJsonRepository<?> repository : sorted)
+        {
+            repositoriesByResource.put(repository.getResourceName(), repository);
+        }
+    }
+
+    public Optional<AbstractJsonRepository<?>> find(String resourceName)
+    {
+        return Optional.ofNullable(repositoriesByResource.get(resourceName));
+    }
+
+    public Collection<AbstractJsonRepository<?>> getAll()
+    {
+        return Collections.unmodifiableCollection(repositoriesByResource.values());
+    }
+}
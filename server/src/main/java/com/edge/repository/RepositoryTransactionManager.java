@@ -0,0 +1,158 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Runs work that changes several repositories as one transaction.
+ * <p>
+ * The write locks of all participants are taken up front, in resource name order so two
+ * transactions cannot deadlock, and held until the end. Inside the work the usual repository
+ * methods are called; their changes stay in memory. If the work throws, every entity it read
+ * or wrote is put back as it was and the exception is rethrown. Otherwise all changes are
+ * written to the {@link TransactionJournal} in one forced append, which is the commit; the
+ * data files of the participants are brought up to date afterwards by the normal save path.
+ * <p>
+ * Writing to a repository that is not a participant inside the work is an error, as that
+ * change could not be rolled back. A nested call joins the running transaction.
+ */
+@Component
+public class RepositoryTransactionManager
+{
+    private static final Logger logger = LoggerFactory.getLogger(RepositoryTransactionManager.class);
+
+    private final TransactionJournal journal;
+    private final RepositoryRegistry repositoryRegistry;
+    private final int checkpointThreshold;
+
+    @Autowired
+    public RepositoryTransactionManager(TransactionJournal journal, RepositoryRegistry repositoryRegistry, JsonDbConfig config)
+    {
+        this.journal = journal;
+        this.repositoryRegistry = repositoryRegistry;
+        this.checkpointThreshold = Math.max(1, config.getCheckpointThreshold());
+    }
+
+    public <R> R execute(Supplier<R> work, AbstractJsonRepository<?>... repositories)
+    {
+        UnitOfWork running = UnitOfWork.current();
+        if (running != null)
+        {
+            for (AbstractJsonRepository<?> repository : repositories)
+            {
+                if (!running.includes(repository))
+                {
+                    throw new IllegalStateException(repository.getEntityName() + " is not part of the running transaction");
+                }
+            }
+            return work.get();
+        }
+
+        List<AbstractJsonRepository<?>> participants = new ArrayList<>();
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            if (!participants.contains(repository))
+            {
+                participants.add(repository);
+            }
+        }
+        participants.sort(Comparator.comparing(AbstractJsonRepository::getResourceName));
+
+        R result = runLocked(new UnitOfWork(participants), work);
+        if (journal.size() >= checkpointThreshold)
+        {
+            checkpoint();
+        }
+        return result;
+    }
+
+    private <R> R runLocked(UnitOfWork unitOfWork, Supplier<R> work)
+    {
+        List<AbstractJsonRepository<?>> participants = unitOfWork.getParticipants();
+        int locked = 0;
+        try
+        {
+            for (AbstractJsonRepository<?> participant : participants)
+            {
+                participant.lockForTransaction();
+                locked++;
+            }
+            unitOfWork.bind();
+
+            R result;
+            try
+            {
+                result = work.get();
+            }
+            catch (RuntimeException | Error e)
+            {
+                rollback(unitOfWork);
+                throw e;
+            }
+
+            List<TransactionJournal.Change> changes = new ArrayList<>();
+            for (AbstractJsonRepository<?> participant : participants)
+            {
+                changes.addAll(participant.getTransactionChanges(unitOfWork));
+            }
+            if (!changes.isEmpty())
+            {
+                long transaction;
+                try
+                {
+                    transaction = journal.commit(changes);
+                }
+                catch (RuntimeException e)
+                {
+                    rollback(unitOfWork);
+                    throw e;
+                }
+                for (AbstractJsonRepository<?> participant : participants)
+                {
+                    participant.applyCommittedTransaction(unitOfWork, transaction);
+                }
+                logger.debug("Committed transaction {} with {} changes", transaction, changes.size());
+            }
+            return result;
+        }
+        finally
+        {
+            unitOfWork.unbind();
+            for (int i = locked - 1; i >= 0; i--)
+            {
+                participants.get(i).unlockAfterTransaction();
+            }
+        }
+    }
+
+    private void rollback(UnitOfWork unitOfWork)
+    {
+        for (AbstractJsonRepository<?> participant : unitOfWork.getParticipants())
+        {
+            participant.rollbackTransaction(unitOfWork);
+        }
+    }
+
+    /**
+     * Saves every repository the journal is still waiting on, then compacts the journal.
+     */
+    public void checkpoint()
+    {
+        for (String entity : journal.getLaggingEntities())
+        {
+            repositoryRegistry.find(entity).ifPresent(AbstractJsonRepository::saveAll);
+        }
+        journal.compact();
+    }
+}
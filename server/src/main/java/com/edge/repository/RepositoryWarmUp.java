@@ -0,0 +1,126 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads all repositories in parallel on a bounded pool as soon as they are created, instead
+ * of one after another in their constructors. Requests that reach a repository before it is
+ * loaded wait for it (see {@link AbstractJsonRepository#ensureLoaded()}). Each repository's
+ * history is indexed right after its load. A repository whose load fails stays unavailable
+ * and is reported by {@link #getFailedRepositories()}; the rest of the application keeps
+ * running.
+ */
+@Component
+public class RepositoryWarmUp
+{
+    private static final Logger logger = LoggerFactory.getLogger(RepositoryWarmUp.class);
+
+    @Autowired
+    private JsonDbConfig config;
+
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+
+    private volatile boolean ready;
+    private final List<String> failedRepositories = new CopyOnWriteArrayList<>();
+    private volatile long warmUpTimeMs = -1;
+
+    @PostConstruct
+    public void start()
+    {
+        Collection<AbstractJsonRepository<?>> repositories = repositoryRegistry.getAll();
+        int threads = Math.max(1, Math.min(config.getWarmUpThreads(), repositories.size()));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jsondb-warmup-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long startNanos = System.nanoTime();
+        logger.info("Warming up {} repositories on {} threads", repositories.size(), threads);
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            CompletableFuture<Void> load = CompletableFuture.runAsync(repository::ensureLoaded, executor)
+                .exceptionally(e -> {
+                    failedRepositories.add(repository.getResourceName());
+                    logger.error("Failed to load {}: {}", repository.getEntityName(), e.getMessage(), e);
+                    return null;
+                });
+            // The history is indexed after the load, while the repository already serves
+            // requests; if that fails, the first history query builds the index instead
+            loads.add(load.thenRunAsync(() -> {
+                if (repository.isAvailable())
+                {
+                    repository.indexHistory();
+                }
+            }, executor).exceptionally(e -> {
+                logger.warn("Failed to index history of {}: {}", repository.getEntityName(), e.getMessage());
+                return null;
+            }));
+        }
+
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).whenComplete((result, e) -> {
+            executor.shutdown();
+            warmUpTimeMs = (System.nanoTime() - startNanos) / 1_000_000;
+            ready = true;
+            StringBuilder summary = new StringBuilder();
+            for (AbstractJsonRepository<?> repository : repositories)
+            {
+                summary.append(String.format("%n  %-16s %6d ms", repository.getEntityName(), repository.getLoadTimeMs()));
+            }
+            if (failedRepositories.isEmpty())
+            {
+                logger.info("Repository warm-up finished in {} ms:{}", warmUpTimeMs, summary);
+            }
+            else
+            {
+                logger.error("Repository warm-up finished in {} ms, failed to load {}:{}", warmUpTimeMs, failedRepositories, summary);
+            }
+        });
+    }
+
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    /**
+     * Resource names of the repositories that failed to load; they answer with 503.
+     */
+    public List<String> getFailedRepositories()
+    {
+        return List.copyOf(failedRepositories);
+    }
+
+    public boolean hasFailures()
+    {
+        return !failedRepositories.isEmpty();
+    }
+
+    /**
+     * Wall-clock duration of the whole warm-up, or -1 while it is running.
+     */
+    public long getWarmUpTimeMs()
+    {
+        return ready ? warmUpTimeMs : -1;
+    }
+}
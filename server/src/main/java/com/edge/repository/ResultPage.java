@@ -0,0 +1,53 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.List;
+
+/**
+ * One page of a list, as returned by {@link AbstractJsonRepository#findPage}. nextCursor is
+ * null on the last page.
+ */
+public class ResultPage<T>
+{
+    private final List<T> items;
+    private final int total;
+    private final int limit;
+    private final String sort;
+    private final String nextCursor;
+
+    public ResultPage(List<T> items, int total, int limit, String sort, String nextCursor)
+    {
+        this.items = items;
+        this.total = total;
+        this.limit = limit;
+        this.sort = sort;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems()
+    {
+        return items;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public String getSort()
+    {
+        return sort;
+    }
+
+    public String getNextCursor()
+    {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,45 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+
+/**
+ * One result of {@link AbstractJsonRepository#search}: the entity, the resource it belongs to
+ * and its relevance. Scores of different resources are comparable, so hits can be merged.
+ */
+public class SearchHit<T>
+{
+    private final String entity;
+    private final String id;
+    private final double score;
+    private final T item;
+
+    public SearchHit(String entity, String id, double score, T item)
+    {
+        this.entity = entity;
+        this.id = id;
+        this.score = score;
+        this.item = item;
+    }
+
+    public String getEntity()
+    {
+        return entity;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public double getScore()
+    {
+        return score;
+    }
+
+    public T getItem()
+    {
+        return item;
+    }
+}
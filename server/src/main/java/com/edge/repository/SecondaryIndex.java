@@ -0,0 +1,168 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Multimap from an extracted key (single property or composite of several) to entity IDs.
+ * Instances are created through {@link AbstractJsonRepository#registerIndex} and kept in step
+ * with the repository contents by the base class. The reverse id-to-key map lets the index
+ * move an entity to its new bucket even when the entity was modified in place. A multi-valued
+ * index, see {@link AbstractJsonRepository#registerMultiValueIndex}, files an entity under
+ * every element of an extracted collection, e.g. each address ID a customer refers to.
+ */
+public class SecondaryIndex<T>
+{
+    private final String name;
+    private final List<Function<T, ?>> keyExtractors;
+    private final Function<T, ? extends Collection<?>> keysExtractor;
+    private final Map<Object, Set<String>> idsByKey = new HashMap<>();
+    private final Map<String, Set<Object>> keysById = new HashMap<>();
+
+    SecondaryIndex(String name, List<Function<T, ?>> keyExtractors)
+    {
+        if (keyExtractors.isEmpty())
+        {
+            throw new IllegalArgumentException("Index " + name + " needs at least one key extractor");
+        }
+        this.name = name;
+        this.keyExtractors = keyExtractors;
+        this.keysExtractor = null;
+    }
+
+    SecondaryIndex(String name, Function<T, ? extends Collection<?>> keysExtractor)
+    {
+        this.name = name;
+        this.keyExtractors = List.of(keysExtractor);
+        this.keysExtractor = keysExtractor;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isComposite()
+    {
+        return keyExtractors.size() > 1;
+    }
+
+    public boolean isMultiValued()
+    {
+        return keysExtractor != null;
+    }
+
+    /**
+     * Builds a lookup key from its parts, matching what the extractors produce for an entity.
+     * Returns null when any part is null; null keys are never indexed.
+     */
+    Object toKey(Object... parts)
+    {
+        if (parts.length != keyExtractors.size())
+        {
+            throw new IllegalArgumentException("Index " + name + " expects " + keyExtractors.size() + " key parts");
+        }
+        for (Object part : parts)
+        {
+            if (part == null)
+            {
+                return null;
+            }
+        }
+        return parts.length == 1 ? parts[0] : Arrays.asList(parts);
+    }
+
+    private Set<Object> keysOf(T entity)
+    {
+        if (keysExtractor != null)
+        {
+            Collection<?> values = keysExtractor.apply(entity);
+            if (values == null || values.isEmpty())
+            {
+                return Collections.emptySet();
+            }
+            Set<Object> keys = new LinkedHashSet<>();
+            for (Object value : values)
+            {
+                if (value != null)
+                {
+                    keys.add(value);
+                }
+            }
+            return keys;
+        }
+        Object[] parts = new Object[keyExtractors.size()];
+        for (int i = 0; i < parts.length; i++)
+        {
+            parts[i] = keyExtractors.get(i).apply(entity);
+        }
+        Object key = toKey(parts);
+        return key != null ? Collections.singleton(key) : Collections.emptySet();
+    }
+
+    void index(String id, T entity)
+    {
+        Set<Object> newKeys = keysOf(entity);
+        Set<Object> oldKeys = keysById.get(id);
+        if (oldKeys != null ? oldKeys.equals(newKeys) : newKeys.isEmpty())
+        {
+            return;
+        }
+        unindex(id);
+        if (!newKeys.isEmpty())
+        {
+            for (Object key : newKeys)
+            {
+                idsByKey.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+            }
+            keysById.put(id, newKeys);
+        }
+    }
+
+    void unindex(String id)
+    {
+        Set<Object> oldKeys = keysById.remove(id);
+        if (oldKeys == null)
+        {
+            return;
+        }
+        for (Object oldKey : oldKeys)
+        {
+            Set<String> ids = idsByKey.get(oldKey);
+            if (ids != null)
+            {
+                ids.remove(id);
+                if (ids.isEmpty())
+                {
+                    idsByKey.remove(oldKey);
+                }
+            }
+        }
+    }
+
+    void clear()
+    {
+        idsByKey.clear();
+        keysById.clear();
+    }
+
+    Set<String> lookup(Object key)
+    {
+        if (key == null)
+        {
+            return Collections.emptySet();
+        }
+        Set<String> ids = idsByKey.get(key);
+        return ids != null ? Collections.unmodifiableSet(ids) : Collections.emptySet();
+    }
+}
@@ -0,0 +1,365 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Named, monotonically increasing document number sequences (order, invoice, PO, ...).
+ * Numbers are handed out from memory; only the upper bound of the reserved block (the
+ * high-water mark) is written, as one line appended to data/sequences.log and forced to disk
+ * before any number of the block is used. The last line for a sequence wins on startup, so
+ * after a crash numbering resumes above everything that could have been issued, leaving a gap
+ * of at most one block. A clean shutdown appends the numbers actually used, so no gap is left.
+ */
+@Component
+public class SequenceStore
+{
+    private static final Logger logger = LoggerFactory.getLogger(SequenceStore.class);
+
+    private static final String DATA_DIR_NAME = "data";
+    private static final String LOG_FILE_NAME = "sequences.log";
+    private static final int COMPACTION_THRESHOLD = 1000;
+
+    private static class Sequence
+    {
+        private long lastIssued;
+        private long highWaterMark;
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path dataDir;
+    private final Path logFilePath;
+    private final int blockSize;
+    private final Map<String, Sequence> sequences = new TreeMap<>();
+    private final Map<String, Long> recoveredMarks = new HashMap<>();
+    private FileChannel channel;
+    private int recordCount;
+    private boolean loaded;
+
+    @Autowired
+    public SequenceStore(JsonDbConfig config)
+    {
+        this(config, Paths.get("").toAbsolutePath().resolve(DATA_DIR_NAME));
+    }
+
+    SequenceStore(JsonDbConfig config, Path dataDir)
+    {
+        this.dataDir = dataDir;
+        this.logFilePath = dataDir.resolve(LOG_FILE_NAME);
+        this.blockSize = Math.max(1, config.getSequenceBlockSize());
+    }
+
+    /**
+     * Declares a sequence. The first number issued is initialValue + 1. A sequence without a
+     * record in the log yet continues from its legacy counter file (which held the last number
+     * issued) when that is higher.
+     */
+    public synchronized void define(String name, long initialValue, String legacyCounterFileName)
+    {
+        if (sequences.containsKey(name))
+        {
+            return;
+        }
+        ensureLoaded();
+
+        Sequence sequence = new Sequence();
+        Long recovered = recoveredMarks.get(name);
+        if (recovered != null)
+        {
+            sequence.lastIssued = Math.max(initialValue, recovered);
+        }
+        else
+        {
+            sequence.lastIssued = Math.max(initialValue, readLegacyCounter(legacyCounterFileName));
+        }
+        sequence.highWaterMark = sequence.lastIssued;
+        sequences.put(name, sequence);
+    }
+
+    public synchronized long next(String name)
+    {
+        Sequence sequence = sequences.get(name);
+        if (sequence == null)
+        {
+            throw new IllegalArgumentException("Unknown sequence: " + name);
+        }
+        if (sequence.lastIssued >= sequence.highWaterMark)
+        {
+            reserve(name, sequence, sequence.lastIssued + blockSize);
+        }
+        sequence.lastIssued++;
+        return sequence.lastIssued;
+    }
+
+    /**
+     * Makes sure the next count numbers of the sequence are reserved, with at most one log
+     * write, so a batch taking them with {@link #next} does not write the log per block.
+     */
+    public synchronized void reserveAhead(String name, long count)
+    {
+        Sequence sequence = sequences.get(name);
+        if (sequence == null)
+        {
+            throw new IllegalArgumentException("Unknown sequence: " + name);
+        }
+        long needed = sequence.lastIssued + count;
+        if (needed > sequence.highWaterMark)
+        {
+            reserve(name, sequence, Math.max(needed, sequence.lastIssued + blockSize));
+        }
+    }
+
+    private void reserve(String name, Sequence sequence, long highWaterMark)
+    {
+        try
+        {
+            append(name, highWaterMark);
+            channel.force(false);
+            sequence.highWaterMark = highWaterMark;
+            logger.debug("Reserved {} numbers up to {}", name, highWaterMark);
+            if (recordCount >= COMPACTION_THRESHOLD)
+            {
+                compact();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Error reserving numbers for sequence {}", name, e);
+            throw new UncheckedIOException("Failed to reserve " + name + " numbers", e);
+        }
+    }
+
+    private void ensureLoaded()
+    {
+        if (loaded)
+        {
+            return;
+        }
+        try
+        {
+            load();
+            if (recordCount > recoveredMarks.size())
+            {
+                compact();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to load " + logFilePath, e);
+        }
+        loaded = true;
+    }
+
+    private void load() throws IOException
+    {
+        if (!Files.exists(logFilePath))
+        {
+            return;
+        }
+
+        long fileSize = Files.size(logFilePath);
+        long validBytes = 0;
+        boolean torn = false;
+        try (BufferedReader reader = Files.newBufferedReader(logFilePath, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                long lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1L;
+                if (validBytes + lineBytes > fileSize)
+                {
+                    torn = true;
+                    break;
+                }
+                if (line.isBlank())
+                {
+                    validBytes += lineBytes;
+                    continue;
+                }
+
+                JsonNode record;
+                try
+                {
+                    record = objectMapper.readTree(line);
+                }
+                catch (IOException e)
+                {
+                    torn = true;
+                    break;
+                }
+                if (record == null || !record.hasNonNull("name") || !record.path("hi").canConvertToLong())
+                {
+                    torn = true;
+                    break;
+                }
+
+                recoveredMarks.put(record.get("name").asText(), record.get("hi").asLong());
+                validBytes += lineBytes;
+                recordCount++;
+            }
+        }
+
+        if (torn)
+        {
+            logger.warn("Ignoring incomplete record at the end of {} after {} valid records", logFilePath, recordCount);
+            try (FileChannel truncateChannel = FileChannel.open(logFilePath, StandardOpenOption.WRITE))
+            {
+                truncateChannel.truncate(validBytes);
+            }
+        }
+        logger.info("Loaded {} sequence high-water marks from {}", recoveredMarks.size(), logFilePath);
+    }
+
+    private long readLegacyCounter(String legacyCounterFileName)
+    {
+        if (legacyCounterFileName == null)
+        {
+            return 0;
+        }
+        Path counterFile = dataDir.resolve(legacyCounterFileName);
+        if (!Files.exists(counterFile))
+        {
+            return 0;
+        }
+        try
+        {
+            String content = Files.readString(counterFile).trim();
+            long value = content.isEmpty() ? 0 : Long.parseLong(content);
+            logger.info("Continuing sequence from legacy counter file {} at {}", counterFile, value);
+            return value;
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            logger.warn("Ignoring unreadable legacy counter file {}: {}", counterFile, e.getMessage());
+            return 0;
+        }
+    }
+
+    private void append(String name, long highWaterMark) throws IOException
+    {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("name", name);
+        record.put("hi", highWaterMark);
+        ByteBuffer bytes = ByteBuffer.wrap((objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        if (channel == null || !channel.isOpen())
+        {
+            Files.createDirectories(dataDir);
+            channel = FileChannel.open(logFilePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        while (bytes.hasRemaining())
+        {
+            channel.write(bytes);
+        }
+        recordCount++;
+    }
+
+    /**
+     * Rewrites the log with one record per sequence. The new file is forced and renamed over
+     * the old one, so a crash leaves either the old or the new log in place.
+     */
+    private void compact() throws IOException
+    {
+        Map<String, Long> marks = new TreeMap<>(recoveredMarks);
+        for (Map.Entry<String, Sequence> entry : sequences.entrySet())
+        {
+            marks.put(entry.getKey(), entry.getValue().highWaterMark);
+        }
+
+        closeChannel();
+        Files.createDirectories(dataDir);
+        Path tempFile = logFilePath.resolveSibling(LOG_FILE_NAME + ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Long> entry : marks.entrySet())
+        {
+            ObjectNode record = objectMapper.createObjectNode();
+            record.put("name", entry.getKey());
+            record.put("hi", entry.getValue());
+            content.append(objectMapper.writeValueAsString(record)).append('\n');
+        }
+        try (FileChannel out = FileChannel.open(tempFile,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer bytes = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining())
+            {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        Files.move(tempFile, logFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordCount = marks.size();
+        logger.info("Compacted {} to {} records", logFilePath, recordCount);
+    }
+
+    /**
+     * Gives back the unused part of each reserved block so the next start continues without a gap.
+     */
+    @PreDestroy
+    public synchronized void close()
+    {
+        try
+        {
+            for (Map.Entry<String, Sequence> entry : sequences.entrySet())
+            {
+                Sequence sequence = entry.getValue();
+                if (sequence.lastIssued < sequence.highWaterMark)
+                {
+                    append(entry.getKey(), sequence.lastIssued);
+                    sequence.highWaterMark = sequence.lastIssued;
+                }
+            }
+            if (channel != null && channel.isOpen())
+            {
+                channel.force(false);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to release unused sequence numbers: {}", e.getMessage());
+        }
+        closeChannel();
+    }
+
+    private void closeChannel()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to close {}: {}", logFilePath, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Crash-safe snapshot files. A snapshot is written to a temp file, fsynced and renamed over
+ * the previous one, which is first linked as generation .1 (then .2, ... up to the retention
+ * count), so the current snapshot name always refers to a complete file.
+ * A sidecar .crc file records the CRC32 and length of each snapshot so a damaged file can be
+ * detected on load and an older generation used instead.
+ */
+public class SnapshotFiles
+{
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotFiles.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CHECKSUM_SUFFIX = ".crc";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    public interface ContentWriter
+    {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * CRC32 and byte length a snapshot had when it was written.
+     */
+    public static class Checksum
+    {
+        private final long crc;
+        private final long length;
+
+        public Checksum(long crc, long length)
+        {
+            this.crc = crc;
+            this.length = length;
+        }
+
+        public long getCrc()
+        {
+            return crc;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        public boolean matches(long actualCrc, long actualLength)
+        {
+            return crc == actualCrc && length == actualLength;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("CRC32 %08x %d", crc, length);
+        }
+
+        static Checksum parse(String text) throws IOException
+        {
+            String[] parts = text.trim().split("\\s+");
+            if (parts.length != 3 || !"CRC32".equals(parts[0]))
+            {
+                throw new IOException("Unrecognized checksum: " + text.trim());
+            }
+            try
+            {
+                return new Checksum(Long.parseLong(parts[1], 16), Long.parseLong(parts[2]));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Unrecognized checksum: " + text.trim(), e);
+            }
+        }
+    }
+
+    private final Path path;
+    private final int retainedGenerations;
+
+    public SnapshotFiles(Path path, int retainedGenerations)
+    {
+        this.path = path;
+        this.retainedGenerations = Math.max(0, retainedGenerations);
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * Writes a new snapshot: content goes to a temp file first, the current snapshot is linked
+     * (or copied) as generation .1 (older generations shift up, the oldest is dropped), then
+     * the temp file is renamed over the current one and its checksum written. A crash at any
+     * point leaves the current name on either the new snapshot or the previous one; a new
+     * snapshot whose checksum was not written yet is newer than the old sidecar and therefore
+     * loaded without a checksum check.
+     */
+    public void write(ContentWriter writer, boolean sync) throws IOException
+    {
+        Files.createDirectories(path.getParent());
+        Path temp = sibling(path, TEMP_SUFFIX);
+        CRC32 crc = new CRC32();
+        long length;
+        try (FileOutputStream out = new FileOutputStream(temp.toFile()))
+        {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), crc);
+            writer.write(checked);
+            checked.flush();
+            length = out.getChannel().size();
+            if (sync)
+            {
+                out.getFD().sync();
+            }
+        }
+
+        rotateGenerations();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Path checksumTemp = sibling(checksumPath(path), TEMP_SUFFIX);
+        Files.write(checksumTemp, (new Checksum(crc.getValue(), length) + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(checksumTemp, checksumPath(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (sync)
+        {
+            syncDirectory();
+        }
+    }
+
+    private void rotateGenerations() throws IOException
+    {
+        if (retainedGenerations == 0 || !Files.exists(path))
+        {
+            return;
+        }
+        for (int generation = retainedGenerations; generation > 1; generation--)
+        {
+            moveIfExists(generation(generation - 1), generation(generation));
+            moveIfExists(checksumPath(generation(generation - 1)), checksumPath(generation(generation)));
+        }
+        // Linked rather than moved: the current name stays on a complete snapshot until the rename
+        linkOrCopy(path, generation(1));
+        if (Files.exists(checksumPath(path)))
+        {
+            linkOrCopy(checksumPath(path), checksumPath(generation(1)));
+        }
+        else
+        {
+            Files.deleteIfExists(checksumPath(generation(1)));
+        }
+    }
+
+    /**
+     * Makes target a hard link to source, or a copy with its timestamps where the file system has
+     * no hard links, so checksum sidecars keep matching by modification time.
+     */
+    private static void linkOrCopy(Path source, Path target) throws IOException
+    {
+        Files.deleteIfExists(target);
+        try
+        {
+            Files.createLink(target, source);
+        }
+        catch (UnsupportedOperationException | IOException e)
+        {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private void syncDirectory()
+    {
+        try (FileChannel directory = FileChannel.open(path.getParent(), StandardOpenOption.READ))
+        {
+            directory.force(true);
+        }
+        catch (IOException e)
+        {
+            // Not supported on every platform; the renames are still atomic
+            logger.debug("Could not sync directory {}: {}", path.getParent(), e.getMessage());
+        }
+    }
+
+    /**
+     * The current snapshot followed by the retained older generations, newest first.
+     */
+    public List<Path> generations()
+    {
+        List<Path> generations = new ArrayList<>();
+        generations.add(path);
+        for (int generation = 1; generation <= retainedGenerations; generation++)
+        {
+            generations.add(generation(generation));
+        }
+        return generations;
+    }
+
+    /**
+     * The checksum recorded for a snapshot, or null when there is none to check against:
+     * no sidecar (written before checksums existed) or a snapshot modified after its
+     * checksum was written (replaced or edited outside the application).
+     */
+    public Checksum expectedChecksum(Path snapshot) throws IOException
+    {
+        Path checksum = checksumPath(snapshot);
+        if (!Files.exists(checksum)
+            || Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(checksum)) > 0)
+        {
+            return null;
+        }
+        return Checksum.parse(Files.readString(checksum, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Moves a damaged snapshot and its checksum out of the way so it is not rotated into
+     * the retained generations.
+     */
+    public Path quarantine(Path snapshot, Path quarantineDir) throws IOException
+    {
+        Files.createDirectories(quarantineDir);
+        String name = snapshot.getFileName() + "." + System.currentTimeMillis() + ".corrupt";
+        Path target = quarantineDir.resolve(name);
+        Files.move(snapshot, target, StandardCopyOption.REPLACE_EXISTING);
+        moveIfExists(checksumPath(snapshot), quarantineDir.resolve(name + CHECKSUM_SUFFIX));
+        return target;
+    }
+
+    private Path generation(int generation)
+    {
+        return sibling(path, "." + generation);
+    }
+
+    private static Path checksumPath(Path snapshot)
+    {
+        return sibling(snapshot, CHECKSUM_SUFFIX);
+    }
+
+    private static Path sibling(Path file, String suffix)
+    {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    private static void moveIfExists(Path source, Path target) throws IOException
+    {
+        if (Files.exists(source))
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
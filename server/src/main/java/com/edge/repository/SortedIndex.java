@@ -0,0 +1,178 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Entity IDs ordered by one sortable property, with the ID as tie-breaker so the order is
+ * total and stable. Entities with a null key sort last. Instances are created through
+ * {@link AbstractJsonRepository#registerSortedIndex} and kept in step with the repository
+ * contents like {@link SecondaryIndex}; pages are read by walking the tree from a position
+ * instead of sorting the whole collection on each request.
+ */
+public class SortedIndex<T>
+{
+    private static class Entry
+    {
+        @SuppressWarnings("rawtypes")
+        private final Comparable key;
+        private final String id;
+
+        @SuppressWarnings("rawtypes")
+        private Entry(Comparable key, String id)
+        {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private final String name;
+    private final Class<?> keyType;
+    private final Function<T, ? extends Comparable<?>> keyExtractor;
+    private final TreeSet<Entry> entries = new TreeSet<>(SortedIndex::compare);
+    private final Map<String, Entry> entryById = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Entry a, Entry b)
+    {
+        if (a.key != b.key)
+        {
+            if (a.key == null)
+            {
+                return 1;
+            }
+            if (b.key == null)
+            {
+                return -1;
+            }
+            int result = a.key.compareTo(b.key);
+            if (result != 0)
+            {
+                return result;
+            }
+        }
+        return a.id.compareTo(b.id);
+    }
+
+    SortedIndex(String name, Class<?> keyType, Function<T, ? extends Comparable<?>> keyExtractor)
+    {
+        this.name = name;
+        this.keyType = keyType;
+        this.keyExtractor = keyExtractor;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    Class<?> getKeyType()
+    {
+        return keyType;
+    }
+
+    void index(String id, T entity)
+    {
+        Comparable<?> newKey = keyExtractor.apply(entity);
+        Entry old = entryById.get(id);
+        if (old != null && (old.key == null ? newKey == null : old.key.equals(newKey)))
+        {
+            return;
+        }
+        unindex(id);
+        Entry entry = new Entry(newKey, id);
+        entries.add(entry);
+        entryById.put(id, entry);
+    }
+
+    void unindex(String id)
+    {
+        Entry old = entryById.remove(id);
+        if (old != null)
+        {
+            entries.remove(old);
+        }
+    }
+
+    void clear()
+    {
+        entries.clear();
+        entryById.clear();
+    }
+
+    /**
+     * Key the entity with the given ID is currently indexed under.
+     */
+    Object keyOf(String id)
+    {
+        Entry entry = entryById.get(id);
+        return entry != null ? entry.key : null;
+    }
+
+    /**
+     * IDs whose key lies between the bounds, both inclusive, in index order. A null bound
+     * leaves that side open; entities with a null key are only included when to is null.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Iterator<String> range(Object from, Object to)
+    {
+        if (from != null && to != null && ((Comparable) from).compareTo(to) > 0)
+        {
+            return Collections.emptyIterator();
+        }
+        NavigableSet<Entry> view = entries;
+        if (from != null)
+        {
+            view = view.tailSet(new Entry((Comparable) from, ""), true);
+        }
+        if (to != null)
+        {
+            // Sorts after every real ID under the same key
+            view = view.headSet(new Entry((Comparable) to, "\uffff"), true);
+        }
+        return idsOf(view.iterator());
+    }
+
+    /**
+     * IDs in index order, or reverse order when descending, starting right after the given
+     * position (key and ID of the last entity of the previous page), or from the start when
+     * afterId is null. The position does not have to exist any more.
+     */
+    @SuppressWarnings("rawtypes")
+    Iterator<String> ids(boolean descending, Object afterKey, String afterId)
+    {
+        NavigableSet<Entry> view = entries;
+        if (afterId != null)
+        {
+            Entry after = new Entry((Comparable) afterKey, afterId);
+            view = descending ? entries.headSet(after, false) : entries.tailSet(after, false);
+        }
+        return idsOf(descending ? view.descendingIterator() : view.iterator());
+    }
+
+    private static Iterator<String> idsOf(Iterator<Entry> iterator)
+    {
+        return new Iterator<>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                return iterator.next().id;
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+
+/**
+ * One completion from {@link AbstractJsonRepository#complete}: the matched value, the field it
+ * comes from and the entity's resource and ID, enough to fill a typeahead without loading the
+ * entity.
+ */
+public class Suggestion
+{
+    private final String entity;
+    private final String field;
+    private final String id;
+    private final String value;
+
+    public Suggestion(String entity, String field, String id, String value)
+    {
+        this.entity = entity;
+        this.field = field;
+        this.id = id;
+        this.value = value;
+    }
+
+    public String getEntity()
+    {
+        return entity;
+    }
+
+    public String getField()
+    {
+        return field;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+}
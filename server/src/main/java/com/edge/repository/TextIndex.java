@@ -0,0 +1,283 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Inverted index from the words of an entity's text fields to entity IDs, for ranked search.
+ * Text is split into lower-case runs of letters and digits, so "ACME-Corp", "acme corp" and
+ * the address acme.corp@example.com share their words. Every field has a weight; a word
+ * found in several fields of an entity counts with the highest of them. Created through
+ * {@link AbstractJsonRepository#registerTextField} and kept in step with the repository
+ * contents like {@link SecondaryIndex}.
+ */
+public class TextIndex<T>
+{
+    // Shorter final words are only matched exactly, their prefixes would match most words
+    private static final int MIN_PREFIX_LENGTH = 2;
+    // Most words a prefix expands to; the first ones in alphabetical order are used
+    private static final int MAX_PREFIX_TERMS = 64;
+
+    private static class Field<T>
+    {
+        private final int weight;
+        private final Function<T, String> extractor;
+
+        private Field(int weight, Function<T, String> extractor)
+        {
+            this.weight = weight;
+            this.extractor = extractor;
+        }
+    }
+
+    /**
+     * One matching entity and its relevance; higher is better.
+     */
+    static class Hit
+    {
+        private final String id;
+        private final double score;
+
+        private Hit(String id, double score)
+        {
+            this.id = id;
+            this.score = score;
+        }
+
+        String getId()
+        {
+            return id;
+        }
+
+        double getScore()
+        {
+            return score;
+        }
+    }
+
+    // Postings of one query word: the posting lists it matches, each with a score multiplier
+    private static class Term
+    {
+        private final List<Map<String, Integer>> postings = new ArrayList<>();
+        private final List<Double> multipliers = new ArrayList<>();
+        private int size;
+
+        private void add(Map<String, Integer> ids, double multiplier)
+        {
+            postings.add(ids);
+            multipliers.add(multiplier);
+            size += ids.size();
+        }
+
+        private double score(String id)
+        {
+            double best = 0;
+            for (int i = 0; i < postings.size(); i++)
+            {
+                Integer weight = postings.get(i).get(id);
+                if (weight != null)
+                {
+                    best = Math.max(best, weight * multipliers.get(i));
+                }
+            }
+            return best;
+        }
+    }
+
+    private final List<Field<T>> fields = new ArrayList<>();
+    // Word -> entity ID -> weight of the best field containing it
+    private final TreeMap<String, Map<String, Integer>> postingsByWord = new TreeMap<>();
+    private final Map<String, Map<String, Integer>> wordsById = new HashMap<>();
+
+    void addField(String name, int weight, Function<T, String> extractor)
+    {
+        if (weight < 1)
+        {
+            throw new IllegalArgumentException("Text field " + name + " needs a positive weight");
+        }
+        fields.add(new Field<>(weight, extractor));
+    }
+
+    void index(String id, T entity)
+    {
+        Map<String, Integer> words = new HashMap<>();
+        for (Field<T> field : fields)
+        {
+            for (String word : tokenize(field.extractor.apply(entity)))
+            {
+                words.merge(word, field.weight, Math::max);
+            }
+        }
+        if (words.equals(wordsById.get(id)))
+        {
+            return;
+        }
+        unindex(id);
+        if (words.isEmpty())
+        {
+            return;
+        }
+        words.forEach((word, weight) -> postingsByWord.computeIfAbsent(word, key -> new HashMap<>()).put(id, weight));
+        wordsById.put(id, words);
+    }
+
+    void unindex(String id)
+    {
+        Map<String, Integer> words = wordsById.remove(id);
+        if (words == null)
+        {
+            return;
+        }
+        for (String word : words.keySet())
+        {
+            Map<String, Integer> ids = postingsByWord.get(word);
+            if (ids != null)
+            {
+                ids.remove(id);
+                if (ids.isEmpty())
+                {
+                    postingsByWord.remove(word);
+                }
+            }
+        }
+    }
+
+    void clear()
+    {
+        postingsByWord.clear();
+        wordsById.clear();
+    }
+
+    /**
+     * The best matches for the text, best first. Every word of the text must occur in a match;
+     * the last one may also be the start of a word, so results follow the user's typing. A
+     * word scores its field weight times its inverse document frequency, doubled for a whole
+     * word. Only the postings of the rarest query word are walked.
+     */
+    List<Hit> search(String text, int limit)
+    {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(tokenize(text)));
+        if (words.isEmpty() || limit < 1)
+        {
+            return List.of();
+        }
+        List<Term> terms = new ArrayList<>(words.size());
+        for (int i = 0; i < words.size(); i++)
+        {
+            String word = words.get(i);
+            Term term = new Term();
+            if (i == words.size() - 1 && word.length() >= MIN_PREFIX_LENGTH)
+            {
+                for (Map.Entry<String, Map<String, Integer>> entry
+                    : postingsByWord.subMap(word, true, word + Character.MAX_VALUE, false).entrySet())
+                {
+                    if (term.postings.size() == MAX_PREFIX_TERMS)
+                    {
+                        break;
+                    }
+                    double multiplier = idf(entry.getValue()) * (entry.getKey().equals(word) ? 2 : 1);
+                    term.add(entry.getValue(), multiplier);
+                }
+            }
+            else
+            {
+                Map<String, Integer> ids = postingsByWord.get(word);
+                if (ids != null)
+                {
+                    term.add(ids, idf(ids) * 2);
+                }
+            }
+            if (term.size == 0)
+            {
+                return List.of();
+            }
+            terms.add(term);
+        }
+        terms.sort(Comparator.comparingInt(term -> term.size));
+
+        Comparator<Hit> ranking = Comparator.comparingDouble(Hit::getScore).reversed().thenComparing(Hit::getId);
+        // Worst of the current best on top, so it can be replaced
+        PriorityQueue<Hit> best = new PriorityQueue<>(ranking.reversed());
+        Set<String> seen = new HashSet<>();
+        Term rarest = terms.get(0);
+        for (Map<String, Integer> ids : rarest.postings)
+        {
+            for (String id : ids.keySet())
+            {
+                if (rarest.postings.size() > 1 && !seen.add(id))
+                {
+                    continue;
+                }
+                double score = 0;
+                for (Term term : terms)
+                {
+                    double termScore = term.score(id);
+                    if (termScore == 0)
+                    {
+                        score = 0;
+                        break;
+                    }
+                    score += termScore;
+                }
+                if (score == 0)
+                {
+                    continue;
+                }
+                Hit hit = new Hit(id, score);
+                if (best.size() < limit)
+                {
+                    best.add(hit);
+                }
+                else if (ranking.compare(hit, best.peek()) < 0)
+                {
+                    best.poll();
+                    best.add(hit);
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(ranking);
+        return hits;
+    }
+
+    private double idf(Map<String, Integer> ids)
+    {
+        return Math.log(1 + (double) wordsById.size() / ids.size());
+    }
+
+    static List<String> tokenize(String text)
+    {
+        List<String> words = new ArrayList<>();
+        if (text == null)
+        {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++)
+        {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0)
+            {
+                start = i;
+            }
+            else if (!wordChar && start >= 0)
+            {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
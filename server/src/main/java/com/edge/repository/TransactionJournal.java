@@ -0,0 +1,470 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Redo log shared by all repositories for changes committed through
+ * {@link RepositoryTransactionManager}. A commit appends the full new state of every entity it touched, in all repositories, as one
+ * line and forces it to disk; that single write is what makes the transaction durable. The
+ * repositories write their own files later as usual and then record a checkpoint here, so on
+ * startup each repository only replays the transactions its files do not contain yet.
+ * Transactions every participant has checkpointed are dropped when the journal is compacted.
+ */
+@Component
+public class TransactionJournal
+{
+    private static final Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+    private static final String DATA_DIR_NAME = "data";
+    private static final String JOURNAL_FILE_NAME = "transactions.log";
+
+    /**
+     * New state of one entity; data is null when the entity was deleted.
+     */
+    public static class Change
+    {
+        private final String entity;
+        private final String id;
+        private final JsonNode data;
+
+        public Change(String entity, String id, JsonNode data)
+        {
+            this.entity = entity;
+            this.id = id;
+            this.data = data;
+        }
+
+        public String getEntity()
+        {
+            return entity;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public JsonNode getData()
+        {
+            return data;
+        }
+    }
+
+    @FunctionalInterface
+    public interface ReplayHandler
+    {
+        void apply(String id, JsonNode data) throws IOException;
+    }
+
+    private static class Entry
+    {
+        private final long transaction;
+        private final List<Change> changes;
+
+        private Entry(long transaction, List<Change> changes)
+        {
+            this.transaction = transaction;
+            this.changes = changes;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path journalFilePath;
+    private final boolean enabled;
+    private final boolean sync;
+    // Committed transactions not yet checkpointed by every repository they touched
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Long> checkpoints = new HashMap<>();
+    private long lastTransaction;
+    private FileChannel channel;
+    private boolean loaded;
+
+    @Autowired
+    public TransactionJournal(JsonDbConfig config)
+    {
+        this(config, Paths.get("").toAbsolutePath().resolve(DATA_DIR_NAME));
+    }
+
+    TransactionJournal(JsonDbConfig config, Path dataDir)
+    {
+        this.journalFilePath = dataDir.resolve(JOURNAL_FILE_NAME);
+        // With autoSave off nothing is written before shutdown, so there is nothing to make durable
+        this.enabled = config.isAutoSave();
+        this.sync = config.getDurability() != JsonDbConfig.Durability.ASYNC;
+    }
+
+    /**
+     * Writes one committed transaction.
+     *
+     * @return the transaction number
+     */
+    public synchronized long commit(List<Change> changes)
+    {
+        ensureLoaded();
+        long transaction = ++lastTransaction;
+        if (!enabled)
+        {
+            return transaction;
+        }
+
+        Entry entry = new Entry(transaction, changes);
+        try
+        {
+            append(toRecord(entry), sync);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write transaction {} to {}: {}", transaction, journalFilePath, e.getMessage(), e);
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to commit transaction", e);
+        }
+        entries.add(entry);
+        return transaction;
+    }
+
+    /**
+     * Records that the files of the given repository contain every transaction up to and
+     * including the given one.
+     */
+    public synchronized void checkpoint(String entity, long transaction, boolean sync)
+    {
+        if (!enabled || transaction <= checkpoints.getOrDefault(entity, 0L))
+        {
+            return;
+        }
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("checkpoint", entity);
+        record.put("tx", transaction);
+        try
+        {
+            append(record, sync && this.sync);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to checkpoint {} in {}: {}", entity, journalFilePath, e.getMessage(), e);
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to checkpoint " + entity, e);
+        }
+        checkpoints.put(entity, transaction);
+    }
+
+    public synchronized long getCheckpoint(String entity)
+    {
+        ensureLoaded();
+        return checkpoints.getOrDefault(entity, 0L);
+    }
+
+    /**
+     * Applies the changes to the given repository from transactions after its checkpoint, in
+     * commit order.
+     *
+     * @return the last transaction applied, or the checkpoint when there was nothing to apply
+     */
+    public synchronized long replay(String entity, ReplayHandler handler) throws IOException
+    {
+        ensureLoaded();
+        long applied = checkpoints.getOrDefault(entity, 0L);
+        for (Entry entry : entries)
+        {
+            if (entry.transaction <= applied)
+            {
+                continue;
+            }
+            boolean touched = false;
+            for (Change change : entry.changes)
+            {
+                if (entity.equals(change.getEntity()))
+                {
+                    handler.apply(change.getId(), change.getData());
+                    touched = true;
+                }
+            }
+            if (touched)
+            {
+                applied = entry.transaction;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Number of transactions kept until their repositories checkpoint them.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Repositories that have not yet checkpointed a transaction they took part in.
+     */
+    public synchronized Set<String> getLaggingEntities()
+    {
+        Set<String> lagging = new LinkedHashSet<>();
+        for (Entry entry : entries)
+        {
+            for (Change change : entry.changes)
+            {
+                if (entry.transaction > checkpoints.getOrDefault(change.getEntity(), 0L))
+                {
+                    lagging.add(change.getEntity());
+                }
+            }
+        }
+        return lagging;
+    }
+
+    private void ensureLoaded()
+    {
+        if (loaded)
+        {
+            return;
+        }
+        try
+        {
+            if (Files.exists(journalFilePath))
+            {
+                load();
+            }
+            loaded = true;
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read transaction journal {}: {}", journalFilePath, e.getMessage(), e);
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to read transaction journal", e);
+        }
+    }
+
+    private void load() throws IOException
+    {
+        long fileSize = Files.size(journalFilePath);
+        long validBytes = 0;
+        boolean torn = false;
+        try (BufferedReader reader = Files.newBufferedReader(journalFilePath, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                long lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1L;
+                if (validBytes + lineBytes > fileSize)
+                {
+                    torn = true;
+                    break;
+                }
+                if (line.isBlank())
+                {
+                    validBytes += lineBytes;
+                    continue;
+                }
+
+                JsonNode record;
+                try
+                {
+                    record = objectMapper.readTree(line);
+                }
+                catch (IOException e)
+                {
+                    torn = true;
+                    break;
+                }
+                if (record == null || !record.path("tx").canConvertToLong())
+                {
+                    torn = true;
+                    break;
+                }
+
+                long transaction = record.get("tx").asLong();
+                if (record.has("checkpoint"))
+                {
+                    checkpoints.merge(record.get("checkpoint").asText(), transaction, Math::max);
+                }
+                else
+                {
+                    List<Change> changes = new ArrayList<>();
+                    for (JsonNode change : record.path("changes"))
+                    {
+                        JsonNode data = change.get("data");
+                        changes.add(new Change(change.path("entity").asText(), change.path("id").asText(),
+                            data == null || data.isNull() ? null : data));
+                    }
+                    entries.add(new Entry(transaction, changes));
+                }
+                lastTransaction = Math.max(lastTransaction, transaction);
+                validBytes += lineBytes;
+            }
+        }
+
+        if (torn)
+        {
+            // A commit whose line never completed was not acknowledged, so it is simply dropped
+            logger.warn("Ignoring incomplete record at the end of {}", journalFilePath);
+            try (FileChannel truncateChannel = FileChannel.open(journalFilePath, StandardOpenOption.WRITE))
+            {
+                truncateChannel.truncate(validBytes);
+            }
+        }
+        logger.info("Loaded {} transactions from {}", entries.size(), journalFilePath);
+    }
+
+    private ObjectNode toRecord(Entry entry)
+    {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("tx", entry.transaction);
+        ArrayNode changeArray = record.putArray("changes");
+        for (Change change : entry.changes)
+        {
+            ObjectNode changeNode = changeArray.addObject();
+            changeNode.put("entity", change.getEntity());
+            changeNode.put("id", change.getId());
+            if (change.getData() != null)
+            {
+                changeNode.set("data", change.getData());
+            }
+        }
+        return record;
+    }
+
+    private void append(ObjectNode record, boolean force) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.wrap((objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+        if (channel == null || !channel.isOpen())
+        {
+            Files.createDirectories(journalFilePath.getParent());
+            channel = FileChannel.open(journalFilePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        while (bytes.hasRemaining())
+        {
+            channel.write(bytes);
+        }
+        if (force)
+        {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Rewrites the journal without the transactions every participant has checkpointed.
+     * The new file is forced and renamed over the old one.
+     */
+    public synchronized void compact()
+    {
+        if (!enabled || !loaded || (entries.isEmpty() && !Files.exists(journalFilePath)))
+        {
+            return;
+        }
+        int before = entries.size();
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext())
+        {
+            Entry entry = iterator.next();
+            boolean pending = false;
+            for (Change change : entry.changes)
+            {
+                if (entry.transaction > checkpoints.getOrDefault(change.getEntity(), 0L))
+                {
+                    pending = true;
+                    break;
+                }
+            }
+            if (!pending)
+            {
+                iterator.remove();
+            }
+        }
+
+        try
+        {
+            closeChannel();
+            Path tempFile = journalFilePath.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+            StringBuilder content = new StringBuilder();
+            if (!entries.isEmpty())
+            {
+                for (Map.Entry<String, Long> checkpoint : new TreeMap<>(checkpoints).entrySet())
+                {
+                    ObjectNode record = objectMapper.createObjectNode();
+                    record.put("checkpoint", checkpoint.getKey());
+                    record.put("tx", checkpoint.getValue());
+                    content.append(objectMapper.writeValueAsString(record)).append('\n');
+                }
+                for (Entry entry : entries)
+                {
+                    content.append(objectMapper.writeValueAsString(toRecord(entry))).append('\n');
+                }
+            }
+            Files.createDirectories(journalFilePath.getParent());
+            try (FileChannel out = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                ByteBuffer bytes = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining())
+                {
+                    out.write(bytes);
+                }
+                out.force(true);
+            }
+            Files.move(tempFile, journalFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Compacted {} from {} to {} transactions", journalFilePath, before, entries.size());
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to compact {}: {}", journalFilePath, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs after the repositories have written their files on shutdown, which normally lets
+     * compaction empty the journal.
+     */
+    @PreDestroy
+    public synchronized void close()
+    {
+        compact();
+        closeChannel();
+    }
+
+    private void closeChannel()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to close {}: {}", journalFilePath, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * State of the transaction running on the current thread: the participating repositories,
+ * the state of every entity before the transaction first touched it (null for entities that
+ * did not exist), and the IDs written so far. Bound to the thread by
+ * {@link RepositoryTransactionManager}.
+ */
+final class UnitOfWork
+{
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final List<AbstractJsonRepository<?>> participants;
+    private final Map<AbstractJsonRepository<?>, Map<String, Object>> preImages = new IdentityHashMap<>();
+    private final Map<AbstractJsonRepository<?>, Set<String>> changedIds = new IdentityHashMap<>();
+
+    UnitOfWork(List<AbstractJsonRepository<?>> participants)
+    {
+        this.participants = participants;
+    }
+
+    static UnitOfWork current()
+    {
+        return CURRENT.get();
+    }
+
+    void bind()
+    {
+        CURRENT.set(this);
+    }
+
+    void unbind()
+    {
+        CURRENT.remove();
+    }
+
+    List<AbstractJsonRepository<?>> getParticipants()
+    {
+        return participants;
+    }
+
+    boolean includes(AbstractJsonRepository<?> repository)
+    {
+        for (AbstractJsonRepository<?> participant : participants)
+        {
+            if (participant == repository)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasPreImage(AbstractJsonRepository<?> repository, String id)
+    {
+        Map<String, Object> images = preImages.get(repository);
+        return images != null && images.containsKey(id);
+    }
+
+    void recordPreImage(AbstractJsonRepository<?> repository, String id, Object copy)
+    {
+        preImages.computeIfAbsent(repository, key -> new LinkedHashMap<>()).put(id, copy);
+    }
+
+    Map<String, Object> getPreImages(AbstractJsonRepository<?> repository)
+    {
+        return preImages.getOrDefault(repository, Map.of());
+    }
+
+    void markChanged(AbstractJsonRepository<?> repository, String id)
+    {
+        changedIds.computeIfAbsent(repository, key -> new LinkedHashSet<>()).add(id);
+    }
+
+    Set<String> getChangedIds(AbstractJsonRepository<?> repository)
+    {
+        return changedIds.getOrDefault(repository, Set.of());
+    }
+}
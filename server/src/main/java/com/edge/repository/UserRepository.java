@@ -3,13 +3,14 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
 import com.edge.entity.User;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,32 +20,20 @@ public class UserRepository extends AbstractJsonRepository<User>
     private static final Logger logger = LoggerFactory.getLogger(UserRepository.class);
     private static final String DATA_FILE_NAME = "users.json";
     private static final String DATA_DIR_NAME = "data";
+    private final SecondaryIndex<User> emailIndex = registerIndex("email", User::getEmail);
+    private final SecondaryIndex<User> useridIndex = registerIndex("userid", User::getUserid);
 
-    public UserRepository()
+    @Autowired
+    public UserRepository(JsonDbConfig config)
     {
-        super(DATA_DIR_NAME, DATA_FILE_NAME, "users");
+        this(config, resolveDataDir(DATA_DIR_NAME));
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
+    UserRepository(JsonDbConfig config, Path dataDir)
     {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty user list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<User>>() {});
-            logger.info("Successfully loaded {} users from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+        super(config, dataDir, DATA_FILE_NAME, "users");
+        registerSortedIndex("userid", String.class, User::getUserid);
+        registerSortedIndex("lastName", String.class, User::getLastName);
     }
 
     @Override
@@ -62,13 +51,13 @@ public class UserRepository extends AbstractJsonRepository<User>
     public Optional<User> getUserByEmail(String email)
     {
         if (email == null || email.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(user -> email.equals(user.getEmail())).findFirst();
+        return findFirstByIndex(emailIndex, email);
     }
 
     public Optional<User> getUserByUserid(String userid)
     {
         if (userid == null || userid.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(user -> userid.equals(user.getUserid())).findFirst();
+        return findFirstByIndex(useridIndex, userid);
     }
 
     public Optional<User> getUserById(String id)
@@ -83,42 +72,46 @@ public class UserRepository extends AbstractJsonRepository<User>
 
     public User createUser(User user)
     {
-        if (user == null) throw new IllegalArgumentException("User cannot be null");
-        if (getUserByEmail(user.getEmail()).isPresent())
-            throw new UserAlreadyExistsException("User with email " + user.getEmail() + " already exists");
-        if (user.getUserid() != null && !user.getUserid().trim().isEmpty() && getUserByUserid(user.getUserid()).isPresent())
-            throw new UserAlreadyExistsException("User with userid " + user.getUserid() + " already exists");
-        return save(user);
+        return writeLocked(() -> {
+            if (user == null) throw new IllegalArgumentException("User cannot be null");
+            if (getUserByEmail(user.getEmail()).isPresent())
+                throw new UserAlreadyExistsException("User with email " + user.getEmail() + " already exists");
+            if (user.getUserid() != null && !user.getUserid().trim().isEmpty() && getUserByUserid(user.getUserid()).isPresent())
+                throw new UserAlreadyExistsException("User with userid " + user.getUserid() + " already exists");
+            return save(user);
+        });
     }
 
     public User updateUser(String id, User userDetails)
     {
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        if (userDetails == null)
-            throw new IllegalArgumentException("User details cannot be null");
+        return writeLocked(() -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("User ID cannot be null or empty");
+            if (userDetails == null)
+                throw new IllegalArgumentException("User details cannot be null");
 
-        User existingUser = findById(id).orElseThrow(() -> new UserNotFoundException("User not found with id: " + id));
+            User existingUser = findByIdForUpdate(id).orElseThrow(() -> new UserNotFoundException("User not found with id: " + id));
         
-        Optional<User> emailCheck = getUserByEmail(userDetails.getEmail());
-        if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
-            throw new UserAlreadyExistsException("User with email " + userDetails.getEmail() + " already exists");
-
-        // Update fields manually
-        existingUser.setUserid(userDetails.getUserid());
-        // Only update password if provided (not null and not empty)
-        if (userDetails.getPassword() != null && !userDetails.getPassword().trim().isEmpty()) {
-            existingUser.setPassword(userDetails.getPassword());
-        }
-        existingUser.setRole(userDetails.getRole());
-        existingUser.setFirstName(userDetails.getFirstName());
-        existingUser.setLastName(userDetails.getLastName());
-        existingUser.setEmail(userDetails.getEmail());
-        existingUser.setJsonData(userDetails.getJsonData());
+            Optional<User> emailCheck = getUserByEmail(userDetails.getEmail());
+            if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
+                throw new UserAlreadyExistsException("User with email " + userDetails.getEmail() + " already exists");
+
+            // Update fields manually
+            existingUser.setUserid(userDetails.getUserid());
+            // Only update password if provided (not null and not empty)
+            if (userDetails.getPassword() != null && !userDetails.getPassword().trim().isEmpty()) {
+                existingUser.setPassword(userDetails.getPassword());
+            }
+            existingUser.setRole(userDetails.getRole());
+            existingUser.setFirstName(userDetails.getFirstName());
+            existingUser.setLastName(userDetails.getLastName());
+            existingUser.setEmail(userDetails.getEmail());
+            existingUser.setJsonData(userDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated user with ID: {}", id);
-        return existingUser;
+            saveItem(existingUser);
+            logger.info("Updated user with ID: {}", id);
+            return existingUser;
+        });
     }
 
     public void deleteUser(String id)
@@ -3,13 +3,14 @@ package com.edge.repository;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.config.JsonDbConfig;
 import com.edge.entity.Warehouse;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,26 +19,18 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse> {
     private static final Logger logger = LoggerFactory.getLogger(WarehouseRepository.class);
     private static final String DATA_FILE_NAME = "warehouses.json";
     private static final String DATA_DIR_NAME = "data";
+    private final SecondaryIndex<Warehouse> warehouseCodeIndex = registerIndex("warehouseCode", Warehouse::getWarehouseCode);
+    private final SecondaryIndex<Warehouse> activeIndex = registerIndex("active", Warehouse::isActive);
 
-    public WarehouseRepository() {
-        super(DATA_DIR_NAME, DATA_FILE_NAME, "warehouses");
+    @Autowired
+    public WarehouseRepository(JsonDbConfig config) {
+        this(config, resolveDataDir(DATA_DIR_NAME));
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty()) {
-            logger.info("Data file is empty, starting with empty warehouse list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Warehouse>>() {});
-            logger.info("Successfully loaded {} warehouses from data file", items.size());
-        } catch (Exception e) {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+    WarehouseRepository(JsonDbConfig config, Path dataDir) {
+        super(config, dataDir, DATA_FILE_NAME, "warehouses");
+        registerSortedIndex("warehouseCode", String.class, Warehouse::getWarehouseCode);
+        registerSortedIndex("warehouseName", String.class, Warehouse::getWarehouseName);
     }
 
     @Override
@@ -56,7 +49,7 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse> {
 
     public Optional<Warehouse> getWarehouseByCode(String warehouseCode) {
         if (warehouseCode == null || warehouseCode.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(warehouse -> warehouseCode.equals(warehouse.getWarehouseCode())).findFirst();
+        return findFirstByIndex(warehouseCodeIndex, warehouseCode);
     }
 
     public List<Warehouse> getAllWarehouses() {
@@ -64,47 +57,49 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse> {
     }
 
     public List<Warehouse> getActiveWarehouses() {
-        return items.stream()
-            .filter(warehouse -> warehouse.isActive())
-            .collect(java.util.stream.Collectors.toList());
+        return findAllByIndex(activeIndex, true);
     }
 
     public Warehouse createWarehouse(Warehouse warehouse) {
-        if (warehouse == null) throw new IllegalArgumentException("Warehouse cannot be null");
-        if (warehouse.getWarehouseCode() != null && !warehouse.getWarehouseCode().trim().isEmpty() && 
-            getWarehouseByCode(warehouse.getWarehouseCode()).isPresent()) {
-            throw new WarehouseAlreadyExistsException("Warehouse with code " + warehouse.getWarehouseCode() + " already exists");
-        }
-        return save(warehouse);
+        return writeLocked(() -> {
+            if (warehouse == null) throw new IllegalArgumentException("Warehouse cannot be null");
+            if (warehouse.getWarehouseCode() != null && !warehouse.getWarehouseCode().trim().isEmpty() && 
+                getWarehouseByCode(warehouse.getWarehouseCode()).isPresent()) {
+                throw new WarehouseAlreadyExistsException("Warehouse with code " + warehouse.getWarehouseCode() + " already exists");
+            }
+            return save(warehouse);
+        });
     }
 
     public Warehouse updateWarehouse(String id, Warehouse warehouseDetails) {
-        if (id == null || id.trim().isEmpty())
-            throw new IllegalArgumentException("Warehouse ID cannot be null or empty");
-        if (warehouseDetails == null)
-            throw new IllegalArgumentException("Warehouse details cannot be null");
-
-        Warehouse existingWarehouse = findById(id).orElseThrow(() -> 
-            new WarehouseNotFoundException("Warehouse not found with id: " + id));
-
-        if (warehouseDetails.getWarehouseCode() != null && !warehouseDetails.getWarehouseCode().trim().isEmpty()) {
-            Optional<Warehouse> codeCheck = getWarehouseByCode(warehouseDetails.getWarehouseCode());
-            if (codeCheck.isPresent() && !id.equals(codeCheck.get().getId())) {
-                throw new WarehouseAlreadyExistsException("Warehouse with code " + warehouseDetails.getWarehouseCode() + " already exists");
+        return writeLocked(() -> {
+            if (id == null || id.trim().isEmpty())
+                throw new IllegalArgumentException("Warehouse ID cannot be null or empty");
+            if (warehouseDetails == null)
+                throw new IllegalArgumentException("Warehouse details cannot be null");
+
+            Warehouse existingWarehouse = findByIdForUpdate(id).orElseThrow(() -> 
+                new WarehouseNotFoundException("Warehouse not found with id: " + id));
+
+            if (warehouseDetails.getWarehouseCode() != null && !warehouseDetails.getWarehouseCode().trim().isEmpty()) {
+                Optional<Warehouse> codeCheck = getWarehouseByCode(warehouseDetails.getWarehouseCode());
+                if (codeCheck.isPresent() && !id.equals(codeCheck.get().getId())) {
+                    throw new WarehouseAlreadyExistsException("Warehouse with code " + warehouseDetails.getWarehouseCode() + " already exists");
+                }
             }
-        }
-
-        // Update fields
-        existingWarehouse.setWarehouseCode(warehouseDetails.getWarehouseCode());
-        existingWarehouse.setWarehouseName(warehouseDetails.getWarehouseName());
-        existingWarehouse.setAddress(warehouseDetails.getAddress());
-        existingWarehouse.setDescription(warehouseDetails.getDescription());
-        existingWarehouse.setActive(warehouseDetails.isActive());
-        existingWarehouse.setJsonData(warehouseDetails.getJsonData());
+
+            // Update fields
+            existingWarehouse.setWarehouseCode(warehouseDetails.getWarehouseCode());
+            existingWarehouse.setWarehouseName(warehouseDetails.getWarehouseName());
+            existingWarehouse.setAddress(warehouseDetails.getAddress());
+            existingWarehouse.setDescription(warehouseDetails.getDescription());
+            existingWarehouse.setActive(warehouseDetails.isActive());
+            existingWarehouse.setJsonData(warehouseDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated warehouse with ID: {}", id);
-        return existingWarehouse;
+            saveItem(existingWarehouse);
+            logger.info("Updated warehouse with ID: {}", id);
+            return existingWarehouse;
+        });
     }
 
     public void deleteWarehouse(String id) {
@@ -0,0 +1,253 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only mutation log for a single repository data file.
+ * Every record is one line of compact JSON holding the full entity state, so replay is
+ * idempotent and a torn last line left behind by a crash can be detected and ignored.
+ * A checkpoint first {@link #rotate rotates} the log aside so appends can continue while the
+ * snapshot is written, then {@link #discardRotated discards} it once the snapshot is on disk.
+ */
+public class WriteAheadLog
+{
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String ROTATED_SUFFIX = ".checkpoint";
+
+    public enum Operation
+    {
+        PUT, DELETE
+    }
+
+    @FunctionalInterface
+    public interface ReplayHandler
+    {
+        void apply(Operation operation, String id, JsonNode data) throws IOException;
+    }
+
+    private final Path logFilePath;
+    private final Path rotatedFilePath;
+    private final ObjectMapper objectMapper;
+    private FileChannel channel;
+    private int recordCount;
+
+    public WriteAheadLog(Path logFilePath, ObjectMapper objectMapper)
+    {
+        this.logFilePath = logFilePath;
+        this.rotatedFilePath = logFilePath.resolveSibling(logFilePath.getFileName() + ROTATED_SUFFIX);
+        this.objectMapper = objectMapper;
+    }
+
+    public Path getLogFilePath()
+    {
+        return logFilePath;
+    }
+
+    /**
+     * Number of records appended since the last rotation (including replayed ones).
+     */
+    public synchronized int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    public synchronized void appendPut(String id, Object entity) throws IOException
+    {
+        append(Operation.PUT, id, entity);
+    }
+
+    public synchronized void appendDelete(String id) throws IOException
+    {
+        append(Operation.DELETE, id, null);
+    }
+
+    private void append(Operation operation, String id, Object entity) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        try (JsonGenerator generator = objectMapper.createGenerator(buffer))
+        {
+            generator.writeStartObject();
+            generator.writeStringField("op", operation.name());
+            generator.writeStringField("id", id);
+            if (entity != null)
+            {
+                generator.writeFieldName("data");
+                generator.writeObject(entity);
+            }
+            generator.writeEndObject();
+        }
+        buffer.write('\n');
+
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        FileChannel out = openChannel();
+        while (bytes.hasRemaining())
+        {
+            out.write(bytes);
+        }
+        recordCount++;
+    }
+
+    private FileChannel openChannel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        {
+            Files.createDirectories(logFilePath.getParent());
+            channel = FileChannel.open(logFilePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    /**
+     * Forces appended records to the storage device.
+     */
+    public synchronized void force() throws IOException
+    {
+        if (channel != null && channel.isOpen())
+        {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Replays all complete records in order, starting with a rotated log left behind by an
+     * interrupted checkpoint. Stops at the first unreadable line, which can only be a
+     * partially written tail, and cuts the file back to the last good record.
+     *
+     * @return the number of records applied
+     */
+    public synchronized int replay(ReplayHandler handler) throws IOException
+    {
+        recordCount = replayFile(rotatedFilePath, handler) + replayFile(logFilePath, handler);
+        return recordCount;
+    }
+
+    private int replayFile(Path file, ReplayHandler handler) throws IOException
+    {
+        if (!Files.exists(file))
+        {
+            return 0;
+        }
+
+        long fileSize = Files.size(file);
+        long validBytes = 0;
+        int applied = 0;
+        boolean torn = false;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                long lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1L;
+                if (validBytes + lineBytes > fileSize)
+                {
+                    // Last line has no terminating newline, so the append never completed
+                    torn = true;
+                    break;
+                }
+                if (line.isBlank())
+                {
+                    validBytes += lineBytes;
+                    continue;
+                }
+
+                JsonNode record;
+                try
+                {
+                    record = objectMapper.readTree(line);
+                }
+                catch (IOException e)
+                {
+                    torn = true;
+                    break;
+                }
+                if (record == null || !record.hasNonNull("op") || !record.hasNonNull("id"))
+                {
+                    torn = true;
+                    break;
+                }
+
+                handler.apply(Operation.valueOf(record.get("op").asText()), record.get("id").asText(), record.get("data"));
+                validBytes += lineBytes;
+                applied++;
+            }
+        }
+
+        if (torn)
+        {
+            logger.warn("Ignoring incomplete record at the end of {} after {} valid records", file, applied);
+            try (FileChannel truncateChannel = FileChannel.open(file, StandardOpenOption.WRITE))
+            {
+                truncateChannel.truncate(validBytes);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Moves the current records aside so new appends start a fresh log. If an earlier
+     * checkpoint never completed, the current records are added to its rotated log instead,
+     * keeping replay order intact.
+     */
+    public synchronized void rotate() throws IOException
+    {
+        force();
+        close();
+        if (Files.exists(logFilePath) && Files.size(logFilePath) > 0)
+        {
+            if (Files.exists(rotatedFilePath))
+            {
+                Files.write(rotatedFilePath, Files.readAllBytes(logFilePath), StandardOpenOption.APPEND);
+                Files.delete(logFilePath);
+            }
+            else
+            {
+                Files.move(logFilePath, rotatedFilePath, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        recordCount = 0;
+    }
+
+    /**
+     * Deletes the rotated records once a snapshot containing their effect is on disk.
+     */
+    public synchronized void discardRotated() throws IOException
+    {
+        Files.deleteIfExists(rotatedFilePath);
+    }
+
+    public synchronized void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to close write-ahead log {}: {}", logFilePath, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
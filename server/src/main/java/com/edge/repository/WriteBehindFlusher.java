@@ -0,0 +1,92 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background flusher for write-behind durability modes. Every flush interval it writes
+ * each dirty repository once, so all changes made in that window share a single write.
+ * Repositories flush their remaining changes themselves on shutdown.
+ */
+@Component
+public class WriteBehindFlusher
+{
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindFlusher.class);
+
+    @Autowired
+    private JsonDbConfig config;
+
+    @Autowired
+    private List<AbstractJsonRepository<?>> repositories;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void start()
+    {
+        if (!config.isWriteBehind())
+        {
+            return;
+        }
+        long interval = Math.max(1, config.getFlushIntervalMs());
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jsondb-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushAll, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Write-behind flusher started: durability={}, interval={}ms, {} repositories",
+            config.getDurability(), interval, repositories.size());
+    }
+
+    public void flushAll()
+    {
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            try
+            {
+                repository.flush();
+            }
+            catch (Exception e)
+            {
+                // Changes stay dirty and are retried on the next run
+                logger.error("Background flush failed for {}: {}", repository.entityName, e.getMessage(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        if (executor == null)
+        {
+            return;
+        }
+        executor.shutdown();
+        try
+        {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+            {
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -7,11 +7,17 @@ import com.edge.entity.Address;
 import com.edge.entity.Customer;
 import com.edge.repository.AddressRepository;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.RepositoryTransactionManager;
+import com.edge.repository.ResultPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
@@ -23,53 +29,42 @@ public class AddressService {
     @Autowired
     private CustomerRepository customerRepository;
     
+    @Autowired
+    private RepositoryTransactionManager transactionManager;
+    
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Address> getAllAddresses() {
-        return addressRepository.getAllAddresses();
+    public String forEachAddressAfter(String afterId, int limit, Consumer<? super Address> action) {
+        return addressRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Address> getAddressPage(PageQuery query) {
+        return addressRepository.findPage(query);
     }
     
     public Optional<Address> getAddressById(String id) {
         return addressRepository.getAddressById(id);
     }
     
+    public MultiGetResult<Address> getAddressesByIds(List<String> ids) {
+        return addressRepository.findAllById(ids);
+    }
+    
     public List<Address> getAddressesByCustomerId(String customerId) {
         if (customerId == null || customerId.trim().isEmpty()) {
             return java.util.Collections.emptyList();
         }
         
-        // Get customer to retrieve addressIds
-        Optional<Customer> customerOpt = customerRepository.getCustomerById(customerId);
-        if (!customerOpt.isPresent()) {
-            return java.util.Collections.emptyList();
-        }
-        
-        Customer customer = customerOpt.get();
-        List<String> addressIds = null;
-        
-        // Get addressIds from customer's jsonData
-        if (customer.getJsonData() != null && customer.getJsonData().containsKey("addressIds")) {
-            Object addressIdsObj = customer.getJsonData().get("addressIds");
-            if (addressIdsObj instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<String> ids = (List<String>) addressIdsObj;
-                addressIds = ids;
-            }
-        }
-        
-        if (addressIds == null || addressIds.isEmpty()) {
-            return java.util.Collections.emptyList();
-        }
-        
-        // Create a final copy for use in lambda
-        final List<String> finalAddressIds = new java.util.ArrayList<>(addressIds);
-        
-        // Get all addresses and filter by IDs
-        List<Address> allAddresses = addressRepository.getAllAddresses();
-        return allAddresses.stream()
-            .filter(address -> address.getId() != null && finalAddressIds.contains(address.getId()))
-            .collect(Collectors.toList());
+        // The customer lists its addresses in jsonData.addressIds; look them up by ID, without
+        // the request-sized cap of findAllById, as a customer may have any number of them
+        return customerRepository.getCustomerById(customerId)
+            .<List<Address>>map(customer -> new ArrayList<>(addressRepository.findMapById(CustomerRepository.getAddressIds(customer)).values()))
+            .orElse(java.util.Collections.emptyList());
+    }
+    
+    public List<Customer> getCustomersByAddressId(String addressId) {
+        return customerRepository.getCustomersByAddressId(addressId);
     }
     
     public List<Address> getAddressesByCustomerIdAndType(String customerId, String addressType) {
@@ -103,33 +98,14 @@ public class AddressService {
     }
     
     public void deleteAddress(String id) {
-        // Remove this address ID from all customers that reference it
-        List<Customer> allCustomers = customerRepository.getAllCustomers();
-        for (Customer customer : allCustomers) {
-            List<String> addressIds = null;
-            if (customer.getJsonData() != null && customer.getJsonData().containsKey("addressIds")) {
-                Object addressIdsObj = customer.getJsonData().get("addressIds");
-                if (addressIdsObj instanceof List) {
-                    @SuppressWarnings("unchecked")
-                    List<String> ids = (List<String>) addressIdsObj;
-                    addressIds = new java.util.ArrayList<>(ids);
-                }
-            }
-            
-            if (addressIds != null && addressIds.contains(id)) {
-                addressIds.remove(id);
-                // Update customer with updated addressIds
-                if (customer.getJsonData() == null) {
-                    customer.setJsonData(new java.util.HashMap<>());
-                }
-                customer.getJsonData().put("addressIds", addressIds);
-                customerRepository.updateCustomer(customer.getId(), customer);
-            }
-        }
-        
-        // Delete the address
-        addressRepository.deleteAddress(id);
+        // The address and every customer reference to it go in one transaction
+        List<Customer> updatedCustomers = transactionManager.execute(() -> {
+            List<Customer> customers = customerRepository.removeAddressId(id);
+            addressRepository.deleteAddress(id);
+            return customers;
+        }, addressRepository, customerRepository);
         if (webSocketService != null) {
+            webSocketService.broadcastCustomerBatch(updatedCustomers);
             webSocketService.broadcastAddressDelete(id);
         }
     }
@@ -4,12 +4,17 @@ package com.edge.service;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Customer;
+import com.edge.repository.BatchResult;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class CustomerService {
@@ -20,14 +25,22 @@ public class CustomerService {
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Customer> getAllCustomers() {
-        return customerRepository.getAllCustomers();
+    public String forEachCustomerAfter(String afterId, int limit, Consumer<? super Customer> action) {
+        return customerRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Customer> getCustomerPage(PageQuery query) {
+        return customerRepository.findPage(query);
     }
     
     public Optional<Customer> getCustomerById(String id) {
         return customerRepository.getCustomerById(id);
     }
     
+    public MultiGetResult<Customer> getCustomersByIds(List<String> ids) {
+        return customerRepository.findAllById(ids);
+    }
+    
     public Optional<Customer> getCustomerByEmail(String email) {
         return customerRepository.getCustomerByEmail(email);
     }
@@ -52,6 +65,45 @@ public class CustomerService {
         return updated;
     }
     
+    /**
+     * Creates customers without an id and updates those with one, with one persist and one
+     * notification.
+     */
+    public List<BatchResult<Customer>> saveCustomers(List<Customer> customers) {
+        // The repository repeats the uniqueness checks under the write lock, which also
+        // rejects duplicates within the batch
+        List<BatchResult<Customer>> results = customerRepository.applyBatch(customers, this::checkCustomer,
+            customer -> customer.getId() != null && !customer.getId().trim().isEmpty()
+                ? customerRepository.updateCustomer(customer.getId(), customer)
+                : customerRepository.createCustomer(customer));
+        if (webSocketService != null) {
+            webSocketService.broadcastCustomerBatch(BatchResult.savedItems(results));
+        }
+        return results;
+    }
+    
+    /**
+     * Read-only checks of a batch entry, run in parallel before the write lock is taken.
+     * Returns the reason to reject it, or null.
+     */
+    private String checkCustomer(Customer customer) {
+        boolean update = customer.getId() != null && !customer.getId().trim().isEmpty();
+        if (update && customerRepository.getCustomerById(customer.getId()).isEmpty()) {
+            return "Customer not found with id: " + customer.getId();
+        }
+        if (customer.getEmail() != null && !customer.getEmail().trim().isEmpty()) {
+            Optional<Customer> emailCheck = customerRepository.getCustomerByEmail(customer.getEmail());
+            if (emailCheck.isPresent() && !emailCheck.get().getId().equals(customer.getId())) {
+                return "Customer with email " + customer.getEmail() + " already exists";
+            }
+        }
+        if (!update && customer.getCustomerNumber() != null && !customer.getCustomerNumber().trim().isEmpty()
+                && customerRepository.getCustomerByCustomerNumber(customer.getCustomerNumber()).isPresent()) {
+            return "Customer with customer number " + customer.getCustomerNumber() + " already exists";
+        }
+        return null;
+    }
+    
     public void deleteCustomer(String id) {
         customerRepository.deleteCustomer(id);
         if (webSocketService != null) {
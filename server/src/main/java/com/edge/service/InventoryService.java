@@ -4,12 +4,19 @@ package com.edge.service;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Inventory;
+import com.edge.repository.BatchResult;
+import com.edge.repository.InventoryAdjustment;
 import com.edge.repository.InventoryRepository;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.RepositoryTransactionManager;
+import com.edge.repository.ResultPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class InventoryService {
@@ -17,17 +24,28 @@ public class InventoryService {
     @Autowired
     private InventoryRepository inventoryRepository;
     
+    @Autowired
+    private RepositoryTransactionManager transactionManager;
+    
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Inventory> getAllInventory() {
-        return inventoryRepository.getAllInventory();
+    public String forEachInventoryAfter(String afterId, int limit, Consumer<? super Inventory> action) {
+        return inventoryRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Inventory> getInventoryPage(PageQuery query) {
+        return inventoryRepository.findPage(query);
     }
     
     public Optional<Inventory> getInventoryById(String id) {
         return inventoryRepository.getInventoryById(id);
     }
     
+    public MultiGetResult<Inventory> getInventoryByIds(List<String> ids) {
+        return inventoryRepository.findAllById(ids);
+    }
+    
     public Optional<Inventory> getInventoryByProductAndWarehouse(String productId, String warehouseId) {
         return inventoryRepository.getInventoryByProductAndWarehouse(productId, warehouseId);
     }
@@ -56,6 +74,43 @@ public class InventoryService {
         return inventory;
     }
     
+    /**
+     * Runs the batch as one transaction, so it is committed as a single journal record and a
+     * failure part way through the saves rolls back the changes already made.
+     */
+    public List<Inventory> adjustInventory(List<InventoryAdjustment> adjustments) {
+        List<Inventory> adjusted = transactionManager.execute(
+            () -> inventoryRepository.adjustInventory(adjustments), inventoryRepository);
+        if (webSocketService != null) {
+            webSocketService.broadcastInventoryBatch(adjusted);
+        }
+        return adjusted;
+    }
+    
+    /**
+     * Sets stock levels in bulk with one persist and one notification. Entries with an id
+     * update that record; others set the quantity of their product in their warehouse,
+     * creating the record when there is none.
+     */
+    public List<BatchResult<Inventory>> saveInventory(List<Inventory> entries) {
+        List<BatchResult<Inventory>> results = inventoryRepository.applyBatch(entries, inventory -> {
+            if (inventory.getQuantity() != null && inventory.getQuantity() < 0) {
+                return "Inventory quantity cannot be negative";
+            }
+            boolean hasId = inventory.getId() != null && !inventory.getId().trim().isEmpty();
+            if (!hasId && (inventory.getProductId() == null || inventory.getWarehouseId() == null)) {
+                return "Product ID and Warehouse ID cannot be null";
+            }
+            return null;
+        }, inventory -> inventory.getId() != null && !inventory.getId().trim().isEmpty()
+            ? inventoryRepository.updateInventory(inventory.getId(), inventory)
+            : inventoryRepository.createOrUpdateInventory(inventory.getProductId(), inventory.getWarehouseId(), inventory.getQuantity()));
+        if (webSocketService != null) {
+            webSocketService.broadcastInventoryBatch(BatchResult.savedItems(results));
+        }
+        return results;
+    }
+    
     public Inventory createInventory(Inventory inventory) {
         Inventory created = inventoryRepository.createInventory(inventory);
         if (webSocketService != null) {
@@ -3,22 +3,40 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.entity.Inventory;
 import com.edge.entity.Order;
 import com.edge.entity.OrderItem;
 import com.edge.entity.Product;
 import com.edge.entity.Warehouse;
+import com.edge.repository.BatchResult;
+import com.edge.repository.InventoryRepository;
+import com.edge.repository.MultiGetResult;
 import com.edge.repository.OrderRepository;
+import com.edge.repository.PageQuery;
 import com.edge.repository.ProductRepository;
+import com.edge.repository.RepositoryTransactionManager;
+import com.edge.repository.ResultPage;
 import com.edge.repository.WarehouseRepository;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class OrderService {
     
+    // What include= can inline into an order, and the repository each reference points into
+    private static final Map<String, String> INCLUDES = Map.of(
+        "customer", "customers",
+        "shippingAddress", "addresses",
+        "billingAddress", "addresses",
+        "items.product", "products");
+    
     @Autowired
     private OrderRepository orderRepository;
     
@@ -29,19 +47,37 @@ public class OrderService {
     private WarehouseRepository warehouseRepository;
     
     @Autowired
-    private InventoryService inventoryService;
+    private InventoryRepository inventoryRepository;
+    
+    @Autowired
+    private RepositoryTransactionManager transactionManager;
+    
+    @Autowired
+    private ReferenceExpander referenceExpander;
     
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Order> getAllOrders() {
-        return orderRepository.getAllOrders();
+    public String forEachOrderAfter(String afterId, int limit, Consumer<? super Order> action) {
+        return orderRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Order> getOrderPage(PageQuery query) {
+        return orderRepository.findPage(query);
+    }
+    
+    public List<ObjectNode> expandOrders(List<Order> orders, List<String> include) {
+        return referenceExpander.expand(orders, include, INCLUDES);
     }
     
     public Optional<Order> getOrderById(String id) {
         return orderRepository.getOrderById(id);
     }
     
+    public MultiGetResult<Order> getOrdersByIds(List<String> ids) {
+        return orderRepository.findAllById(ids);
+    }
+    
     public Optional<Order> getOrderByOrderNumber(String orderNumber) {
         return orderRepository.getOrderByOrderNumber(orderNumber);
     }
@@ -64,26 +100,60 @@ public class OrderService {
         return created;
     }
     
+    /**
+     * Creates many orders with one persist and one notification, e.g. for an EDI import.
+     * Enrichment and product checks only read, so they run for all orders in parallel first.
+     */
+    public List<BatchResult<Order>> createOrders(List<Order> orders) {
+        List<BatchResult<Order>> results = orderRepository.createOrders(orders, order -> {
+            if (order.getId() != null && !order.getId().trim().isEmpty()) {
+                return "A new order cannot have an id";
+            }
+            if (order.getItems() != null) {
+                for (OrderItem item : order.getItems()) {
+                    if (item.getProductId() != null && productRepository.getProductById(item.getProductId()).isEmpty()) {
+                        return "Product not found with id: " + item.getProductId();
+                    }
+                }
+            }
+            enrichOrderItems(order);
+            return null;
+        });
+        if (webSocketService != null) {
+            webSocketService.broadcastOrderBatch(BatchResult.savedItems(results));
+        }
+        return results;
+    }
+    
     public Order updateOrder(String id, Order orderDetails) {
         System.out.println("OrderService.updateOrder - ID: " + id + ", Status: " + orderDetails.getStatus());
         
-        // Get existing order to check status change
-        Order existingOrder = orderRepository.getOrderById(id)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + id));
-        String oldStatus = existingOrder.getStatus();
-        
         // Enrich order items with product information
         enrichOrderItems(orderDetails);
-        Order updated = orderRepository.updateOrder(id, orderDetails);
-        System.out.println("OrderService.updateOrder - Updated status: " + updated.getStatus());
         
-        // Handle inventory decrease when order is shipped
-        if ("SHIPPED".equals(updated.getStatus()) && !"SHIPPED".equals(oldStatus)) {
-            decreaseInventoryForOrder(updated);
-        }
+        // The order and the inventory it ships from are committed together, or not at all
+        List<Inventory> adjustedInventory = new ArrayList<>();
+        Order updated = transactionManager.execute(() -> {
+            // Get existing order to check status change
+            Order existingOrder = orderRepository.getOrderById(id)
+                .orElseThrow(() -> new RuntimeException("Order not found with id: " + id));
+            String oldStatus = existingOrder.getStatus();
+            
+            Order saved = orderRepository.updateOrder(id, orderDetails);
+            
+            // Handle inventory decrease when order is shipped
+            if ("SHIPPED".equals(saved.getStatus()) && !"SHIPPED".equals(oldStatus)) {
+                adjustedInventory.addAll(decreaseInventoryForOrder(saved));
+            }
+            return saved;
+        }, orderRepository, inventoryRepository);
+        System.out.println("OrderService.updateOrder - Updated status: " + updated.getStatus());
         
         // Broadcast update via WebSocket
         if (webSocketService != null) {
+            for (Inventory inventory : adjustedInventory) {
+                webSocketService.broadcastInventoryUpdate(inventory);
+            }
             webSocketService.broadcastOrderUpdate(updated);
         }
         
@@ -91,66 +161,54 @@ public class OrderService {
     }
     
     public Order addOrderItem(String orderId, String productId, Integer quantity) {
-        Order order = orderRepository.getOrderById(orderId)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
-        
         Product product = productRepository.getProductById(productId)
             .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId));
         
-        // Check if item already exists
-        Optional<OrderItem> existingItem = order.getItems().stream()
-            .filter(item -> productId.equals(item.getProductId()))
-            .findFirst();
-        
-        if (existingItem.isPresent()) {
-            // Update quantity
-            OrderItem item = existingItem.get();
-            item.setQuantity(item.getQuantity() + quantity);
-            item.calculateLineTotal();
-        } else {
-            // Create new item
-            OrderItem newItem = new OrderItem();
-            newItem.setId(java.util.UUID.randomUUID().toString());
-            newItem.setProductId(product.getId());
-            newItem.setProductCode(product.getProductCode());
-            newItem.setProductName(product.getProductName());
-            newItem.setQuantity(quantity);
-            newItem.setUnitPrice(product.getUnitPrice());
-            newItem.calculateLineTotal();
-            order.getItems().add(newItem);
-        }
-        
-        order.calculateTotals();
-        return orderRepository.updateOrder(orderId, order);
+        return orderRepository.updateOrderItems(orderId, items -> {
+            // Check if item already exists
+            Optional<OrderItem> existingItem = items.stream()
+                .filter(item -> productId.equals(item.getProductId()))
+                .findFirst();
+            
+            if (existingItem.isPresent()) {
+                // Update quantity
+                OrderItem item = existingItem.get();
+                item.setQuantity(item.getQuantity() + quantity);
+                item.calculateLineTotal();
+            } else {
+                // Create new item
+                OrderItem newItem = new OrderItem();
+                newItem.setId(java.util.UUID.randomUUID().toString());
+                newItem.setProductId(product.getId());
+                newItem.setProductCode(product.getProductCode());
+                newItem.setProductName(product.getProductName());
+                newItem.setQuantity(quantity);
+                newItem.setUnitPrice(product.getUnitPrice());
+                newItem.calculateLineTotal();
+                items.add(newItem);
+            }
+        });
     }
     
     public Order updateOrderItemQuantity(String orderId, String itemId, Integer quantity) {
-        Order order = orderRepository.getOrderById(orderId)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
-        
-        OrderItem item = order.getItems().stream()
-            .filter(i -> itemId.equals(i.getId()))
-            .findFirst()
-            .orElseThrow(() -> new RuntimeException("Order item not found with id: " + itemId));
-        
-        item.setQuantity(quantity);
-        item.calculateLineTotal();
-        order.calculateTotals();
-        
-        return orderRepository.updateOrder(orderId, order);
+        return orderRepository.updateOrderItems(orderId, items -> {
+            OrderItem item = items.stream()
+                .filter(i -> itemId.equals(i.getId()))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Order item not found with id: " + itemId));
+            
+            item.setQuantity(quantity);
+            item.calculateLineTotal();
+        });
     }
     
     public Order removeOrderItem(String orderId, String itemId) {
-        Order order = orderRepository.getOrderById(orderId)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
-        
-        boolean removed = order.getItems().removeIf(item -> itemId.equals(item.getId()));
-        if (!removed) {
-            throw new RuntimeException("Order item not found with id: " + itemId);
-        }
-        
-        order.calculateTotals();
-        return orderRepository.updateOrder(orderId, order);
+        return orderRepository.updateOrderItems(orderId, items -> {
+            boolean removed = items.removeIf(item -> itemId.equals(item.getId()));
+            if (!removed) {
+                throw new RuntimeException("Order item not found with id: " + itemId);
+            }
+        });
     }
     
     public void deleteOrder(String id) {
@@ -183,9 +241,14 @@ public class OrderService {
         }
     }
     
-    private void decreaseInventoryForOrder(Order order) {
+    /**
+     * Must run inside the shipment transaction; an item that cannot be taken from stock
+     * throws and rolls back the whole shipment.
+     */
+    private List<Inventory> decreaseInventoryForOrder(Order order) {
+        List<Inventory> adjusted = new ArrayList<>();
         if (order.getItems() == null || order.getItems().isEmpty()) {
-            return;
+            return adjusted;
         }
         
         // Get default warehouse (first active warehouse, or first warehouse if none active)
@@ -196,7 +259,7 @@ public class OrderService {
         
         if (warehouses.isEmpty()) {
             System.out.println("Warning: No warehouses found. Cannot decrease inventory for order " + order.getId());
-            return;
+            return adjusted;
         }
         
         Warehouse defaultWarehouse = warehouses.get(0);
@@ -205,15 +268,11 @@ public class OrderService {
         // Decrease inventory for each order item
         for (OrderItem item : order.getItems()) {
             if (item.getProductId() != null && item.getQuantity() != null && item.getQuantity() > 0) {
-                try {
-                    inventoryService.adjustInventory(item.getProductId(), warehouseId, -item.getQuantity());
-                    System.out.println("Decreased inventory for product " + item.getProductId() + 
-                        " by " + item.getQuantity() + " in warehouse " + warehouseId);
-                } catch (Exception e) {
-                    System.err.println("Error decreasing inventory for product " + item.getProductId() + ": " + e.getMessage());
-                }
+                adjusted.add(inventoryRepository.adjustInventory(item.getProductId(), warehouseId, -item.getQuantity()));
+                System.out.println("Decreased inventory for product " + item.getProductId() + 
+                    " by " + item.getQuantity() + " in warehouse " + warehouseId);
             }
         }
+        return adjusted;
     }
 }
-
@@ -4,12 +4,17 @@ package com.edge.service;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Product;
+import com.edge.repository.BatchResult;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.repository.ProductRepository;
+import com.edge.repository.ResultPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class ProductService {
@@ -20,8 +25,12 @@ public class ProductService {
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Product> getAllProducts() {
-        return productRepository.getAllProducts();
+    public String forEachProductAfter(String afterId, int limit, Consumer<? super Product> action) {
+        return productRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Product> getProductPage(PageQuery query) {
+        return productRepository.findPage(query);
     }
     
     public List<Product> getActiveProducts() {
@@ -32,6 +41,10 @@ public class ProductService {
         return productRepository.getProductById(id);
     }
     
+    public MultiGetResult<Product> getProductsByIds(List<String> ids) {
+        return productRepository.findAllById(ids);
+    }
+    
     public Optional<Product> getProductByProductCode(String productCode) {
         return productRepository.getProductByProductCode(productCode);
     }
@@ -52,6 +65,41 @@ public class ProductService {
         return updated;
     }
     
+    /**
+     * Creates products without an id and updates those with one, with one persist and one
+     * notification.
+     */
+    public List<BatchResult<Product>> saveProducts(List<Product> products) {
+        // The repository repeats the uniqueness check under the write lock, which also rejects
+        // duplicates within the batch
+        List<BatchResult<Product>> results = productRepository.applyBatch(products, this::checkProduct,
+            product -> product.getId() != null && !product.getId().trim().isEmpty()
+                ? productRepository.updateProduct(product.getId(), product)
+                : productRepository.createProduct(product));
+        if (webSocketService != null) {
+            webSocketService.broadcastProductBatch(BatchResult.savedItems(results));
+        }
+        return results;
+    }
+    
+    /**
+     * Read-only checks of a batch entry, run in parallel before the write lock is taken.
+     * Returns the reason to reject it, or null.
+     */
+    private String checkProduct(Product product) {
+        boolean update = product.getId() != null && !product.getId().trim().isEmpty();
+        if (update && productRepository.getProductById(product.getId()).isEmpty()) {
+            return "Product not found with id: " + product.getId();
+        }
+        if (product.getProductCode() != null && !product.getProductCode().trim().isEmpty()) {
+            Optional<Product> codeCheck = productRepository.getProductByProductCode(product.getProductCode());
+            if (codeCheck.isPresent() && !codeCheck.get().getId().equals(product.getId())) {
+                return "Product with code " + product.getProductCode() + " already exists";
+            }
+        }
+        return null;
+    }
+    
     public void deleteProduct(String id) {
         productRepository.deleteProduct(id);
         if (webSocketService != null) {
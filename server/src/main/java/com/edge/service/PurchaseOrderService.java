@@ -3,22 +3,40 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.entity.Inventory;
 import com.edge.entity.PurchaseOrder;
 import com.edge.entity.PurchaseOrderItem;
 import com.edge.entity.Product;
 import com.edge.entity.Warehouse;
+import com.edge.repository.BatchResult;
+import com.edge.repository.InventoryRepository;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.repository.PurchaseOrderRepository;
 import com.edge.repository.ProductRepository;
+import com.edge.repository.RepositoryTransactionManager;
+import com.edge.repository.ResultPage;
 import com.edge.repository.WarehouseRepository;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class PurchaseOrderService {
     
+    // What include= can inline into a purchase order, and the repository each reference points into
+    private static final Map<String, String> INCLUDES = Map.of(
+        "supplier", "vendors",
+        "shippingAddress", "addresses",
+        "billingAddress", "addresses",
+        "items.product", "products");
+    
     @Autowired
     private PurchaseOrderRepository purchaseOrderRepository;
     
@@ -29,19 +47,37 @@ public class PurchaseOrderService {
     private WarehouseRepository warehouseRepository;
     
     @Autowired
-    private InventoryService inventoryService;
+    private InventoryRepository inventoryRepository;
+    
+    @Autowired
+    private RepositoryTransactionManager transactionManager;
+    
+    @Autowired
+    private ReferenceExpander referenceExpander;
     
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<PurchaseOrder> getAllPurchaseOrders() {
-        return purchaseOrderRepository.getAllPurchaseOrders();
+    public String forEachPurchaseOrderAfter(String afterId, int limit, Consumer<? super PurchaseOrder> action) {
+        return purchaseOrderRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<PurchaseOrder> getPurchaseOrderPage(PageQuery query) {
+        return purchaseOrderRepository.findPage(query);
+    }
+    
+    public List<ObjectNode> expandPurchaseOrders(List<PurchaseOrder> purchaseOrders, List<String> include) {
+        return referenceExpander.expand(purchaseOrders, include, INCLUDES);
     }
     
     public Optional<PurchaseOrder> getPurchaseOrderById(String id) {
         return purchaseOrderRepository.getPurchaseOrderById(id);
     }
     
+    public MultiGetResult<PurchaseOrder> getPurchaseOrdersByIds(List<String> ids) {
+        return purchaseOrderRepository.findAllById(ids);
+    }
+    
     public Optional<PurchaseOrder> getPurchaseOrderByOrderNumber(String orderNumber) {
         return purchaseOrderRepository.getPurchaseOrderByOrderNumber(orderNumber);
     }
@@ -64,26 +100,60 @@ public class PurchaseOrderService {
         return created;
     }
     
+    /**
+     * Creates many purchase orders with one persist and one notification. Enrichment and
+     * product checks only read, so they run for all purchase orders in parallel first.
+     */
+    public List<BatchResult<PurchaseOrder>> createPurchaseOrders(List<PurchaseOrder> pos) {
+        List<BatchResult<PurchaseOrder>> results = purchaseOrderRepository.createPurchaseOrders(pos, po -> {
+            if (po.getId() != null && !po.getId().trim().isEmpty()) {
+                return "A new purchase order cannot have an id";
+            }
+            if (po.getItems() != null) {
+                for (PurchaseOrderItem item : po.getItems()) {
+                    if (item.getProductId() != null && productRepository.getProductById(item.getProductId()).isEmpty()) {
+                        return "Product not found with id: " + item.getProductId();
+                    }
+                }
+            }
+            enrichPurchaseOrderItems(po);
+            return null;
+        });
+        if (webSocketService != null) {
+            webSocketService.broadcastPurchaseOrderBatch(BatchResult.savedItems(results));
+        }
+        return results;
+    }
+    
     public PurchaseOrder updatePurchaseOrder(String id, PurchaseOrder poDetails) {
         System.out.println("PurchaseOrderService.updatePurchaseOrder - ID: " + id + ", Status: " + poDetails.getStatus());
         
-        // Get existing PO to check status change
-        PurchaseOrder existingPO = purchaseOrderRepository.getPurchaseOrderById(id)
-            .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + id));
-        String oldStatus = existingPO.getStatus();
-        
         // Enrich PO items with product information
         enrichPurchaseOrderItems(poDetails);
-        PurchaseOrder updated = purchaseOrderRepository.updatePurchaseOrder(id, poDetails);
-        System.out.println("PurchaseOrderService.updatePurchaseOrder - Updated status: " + updated.getStatus());
         
-        // Handle inventory increase when PO is received
-        if ("RECEIVED".equals(updated.getStatus()) && !"RECEIVED".equals(oldStatus)) {
-            increaseInventoryForPurchaseOrder(updated);
-        }
+        // The receipt and the inventory it adds are committed together, or not at all
+        List<Inventory> adjustedInventory = new ArrayList<>();
+        PurchaseOrder updated = transactionManager.execute(() -> {
+            // Get existing PO to check status change
+            PurchaseOrder existingPO = purchaseOrderRepository.getPurchaseOrderById(id)
+                .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + id));
+            String oldStatus = existingPO.getStatus();
+            
+            PurchaseOrder saved = purchaseOrderRepository.updatePurchaseOrder(id, poDetails);
+            
+            // Handle inventory increase when PO is received
+            if ("RECEIVED".equals(saved.getStatus()) && !"RECEIVED".equals(oldStatus)) {
+                adjustedInventory.addAll(increaseInventoryForPurchaseOrder(saved));
+            }
+            return saved;
+        }, purchaseOrderRepository, inventoryRepository);
+        System.out.println("PurchaseOrderService.updatePurchaseOrder - Updated status: " + updated.getStatus());
         
         // Broadcast update via WebSocket
         if (webSocketService != null) {
+            for (Inventory inventory : adjustedInventory) {
+                webSocketService.broadcastInventoryUpdate(inventory);
+            }
             webSocketService.broadcastPurchaseOrderUpdate(updated);
         }
         
@@ -91,66 +161,54 @@ public class PurchaseOrderService {
     }
     
     public PurchaseOrder addPurchaseOrderItem(String poId, String productId, Integer quantity) {
-        PurchaseOrder po = purchaseOrderRepository.getPurchaseOrderById(poId)
-            .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + poId));
-        
         Product product = productRepository.getProductById(productId)
             .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId));
         
-        // Check if item already exists
-        Optional<PurchaseOrderItem> existingItem = po.getItems().stream()
-            .filter(item -> productId.equals(item.getProductId()))
-            .findFirst();
-        
-        if (existingItem.isPresent()) {
-            // Update quantity
-            PurchaseOrderItem item = existingItem.get();
-            item.setQuantity(item.getQuantity() + quantity);
-            item.calculateLineTotal();
-        } else {
-            // Create new item
-            PurchaseOrderItem newItem = new PurchaseOrderItem();
-            newItem.setId(java.util.UUID.randomUUID().toString());
-            newItem.setProductId(product.getId());
-            newItem.setProductCode(product.getProductCode());
-            newItem.setProductName(product.getProductName());
-            newItem.setQuantity(quantity);
-            newItem.setUnitPrice(product.getUnitPrice());
-            newItem.calculateLineTotal();
-            po.getItems().add(newItem);
-        }
-        
-        po.calculateTotals();
-        return purchaseOrderRepository.updatePurchaseOrder(poId, po);
+        return purchaseOrderRepository.updatePurchaseOrderItems(poId, items -> {
+            // Check if item already exists
+            Optional<PurchaseOrderItem> existingItem = items.stream()
+                .filter(item -> productId.equals(item.getProductId()))
+                .findFirst();
+            
+            if (existingItem.isPresent()) {
+                // Update quantity
+                PurchaseOrderItem item = existingItem.get();
+                item.setQuantity(item.getQuantity() + quantity);
+                item.calculateLineTotal();
+            } else {
+                // Create new item
+                PurchaseOrderItem newItem = new PurchaseOrderItem();
+                newItem.setId(java.util.UUID.randomUUID().toString());
+                newItem.setProductId(product.getId());
+                newItem.setProductCode(product.getProductCode());
+                newItem.setProductName(product.getProductName());
+                newItem.setQuantity(quantity);
+                newItem.setUnitPrice(product.getUnitPrice());
+                newItem.calculateLineTotal();
+                items.add(newItem);
+            }
+        });
     }
     
     public PurchaseOrder updatePurchaseOrderItemQuantity(String poId, String itemId, Integer quantity) {
-        PurchaseOrder po = purchaseOrderRepository.getPurchaseOrderById(poId)
-            .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + poId));
-        
-        PurchaseOrderItem item = po.getItems().stream()
-            .filter(i -> itemId.equals(i.getId()))
-            .findFirst()
-            .orElseThrow(() -> new RuntimeException("Purchase Order item not found with id: " + itemId));
-        
-        item.setQuantity(quantity);
-        item.calculateLineTotal();
-        po.calculateTotals();
-        
-        return purchaseOrderRepository.updatePurchaseOrder(poId, po);
+        return purchaseOrderRepository.updatePurchaseOrderItems(poId, items -> {
+            PurchaseOrderItem item = items.stream()
+                .filter(i -> itemId.equals(i.getId()))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Purchase Order item not found with id: " + itemId));
+            
+            item.setQuantity(quantity);
+            item.calculateLineTotal();
+        });
     }
     
     public PurchaseOrder removePurchaseOrderItem(String poId, String itemId) {
-        PurchaseOrder po = purchaseOrderRepository.getPurchaseOrderById(poId)
-            .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + poId));
-        
-        boolean removed = po.getItems().removeIf(item -> itemId.equals(item.getId()));
-        if (!removed) {
-            throw new RuntimeException("Purchase Order item not found with id: " + itemId);
-        }
-        
-        po.calculateTotals();
-        return purchaseOrderRepository.updatePurchaseOrder(poId, po);
+        return purchaseOrderRepository.updatePurchaseOrderItems(poId, items -> {
+            boolean removed = items.removeIf(item -> itemId.equals(item.getId()));
+            if (!removed) {
+                throw new RuntimeException("Purchase Order item not found with id: " + itemId);
+            }
+        });
     }
     
     public void deletePurchaseOrder(String id) {
@@ -183,9 +241,13 @@ public class PurchaseOrderService {
         }
     }
     
-    private void increaseInventoryForPurchaseOrder(PurchaseOrder po) {
+    /**
+     * Must run inside the receipt transaction; a failed adjustment rolls back the whole receipt.
+     */
+    private List<Inventory> increaseInventoryForPurchaseOrder(PurchaseOrder po) {
+        List<Inventory> adjusted = new ArrayList<>();
         if (po.getItems() == null || po.getItems().isEmpty()) {
-            return;
+            return adjusted;
         }
         
         // Get default warehouse (first active warehouse, or first warehouse if none active)
@@ -196,7 +258,7 @@ public class PurchaseOrderService {
         
         if (warehouses.isEmpty()) {
             System.out.println("Warning: No warehouses found. Cannot increase inventory for PO " + po.getId());
-            return;
+            return adjusted;
         }
         
         Warehouse defaultWarehouse = warehouses.get(0);
@@ -205,15 +267,11 @@ public class PurchaseOrderService {
         // Increase inventory for each PO item
         for (PurchaseOrderItem item : po.getItems()) {
             if (item.getProductId() != null && item.getQuantity() != null && item.getQuantity() > 0) {
-                try {
-                    inventoryService.adjustInventory(item.getProductId(), warehouseId, item.getQuantity());
-                    System.out.println("Increased inventory for product " + item.getProductId() + 
-                        " by " + item.getQuantity() + " in warehouse " + warehouseId);
-                } catch (Exception e) {
-                    System.err.println("Error increasing inventory for product " + item.getProductId() + ": " + e.getMessage());
-                }
+                adjusted.add(inventoryRepository.adjustInventory(item.getProductId(), warehouseId, item.getQuantity()));
+                System.out.println("Increased inventory for product " + item.getProductId() + 
+                    " by " + item.getQuantity() + " in warehouse " + warehouseId);
             }
         }
+        return adjusted;
     }
 }
-
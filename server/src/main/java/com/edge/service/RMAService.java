@@ -3,25 +3,41 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
+import com.edge.entity.Inventory;
 import com.edge.entity.RMA;
 import com.edge.entity.RMAItem;
 import com.edge.entity.Product;
 import com.edge.entity.Warehouse;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
 import com.edge.repository.RMARepository;
 import com.edge.repository.OrderRepository;
 import com.edge.repository.ProductRepository;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.InventoryRepository;
+import com.edge.repository.RepositoryTransactionManager;
+import com.edge.repository.ResultPage;
 import com.edge.repository.WarehouseRepository;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class RMAService {
     
+    // What include= can inline into an RMA, and the repository each reference points into
+    private static final Map<String, String> INCLUDES = Map.of(
+        "customer", "customers",
+        "order", "orders",
+        "items.product", "products");
+    
     @Autowired
     private RMARepository rmaRepository;
     
@@ -38,19 +54,37 @@ public class RMAService {
     private WarehouseRepository warehouseRepository;
     
     @Autowired
-    private InventoryService inventoryService;
+    private InventoryRepository inventoryRepository;
+    
+    @Autowired
+    private RepositoryTransactionManager transactionManager;
+    
+    @Autowired
+    private ReferenceExpander referenceExpander;
     
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<RMA> getAllRMAs() {
-        return rmaRepository.getAllRMAs();
+    public String forEachRMAAfter(String afterId, int limit, Consumer<? super RMA> action) {
+        return rmaRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<RMA> getRMAPage(PageQuery query) {
+        return rmaRepository.findPage(query);
+    }
+    
+    public List<ObjectNode> expandRMAs(List<RMA> rmas, List<String> include) {
+        return referenceExpander.expand(rmas, include, INCLUDES);
     }
     
     public Optional<RMA> getRMAById(String id) {
         return rmaRepository.getRMAById(id);
     }
     
+    public MultiGetResult<RMA> getRMAsByIds(List<String> ids) {
+        return rmaRepository.findAllById(ids);
+    }
+    
     public Optional<RMA> getRMAByRMANumber(String rmaNumber) {
         return rmaRepository.getRMAByRMANumber(rmaNumber);
     }
@@ -82,46 +116,54 @@ public class RMAService {
     public RMA updateRMA(String id, RMA rmaDetails) {
         System.out.println("RMAService.updateRMA - ID: " + id + ", Status: " + rmaDetails.getStatus());
         
-        // Get existing RMA to check status change
-        RMA existingRMA = rmaRepository.getRMAById(id)
-            .orElseThrow(() -> new RuntimeException("RMA not found with id: " + id));
-        String newStatus = rmaDetails.getStatus();
-        boolean wasReceived = isReceivedStatus(existingRMA);
-        boolean willBeReceived = "RECEIVED".equals(newStatus);
-        boolean willBeProcessed = "PROCESSED".equals(newStatus);
-        boolean willBeCancelled = "CANCELLED".equals(newStatus);
-        
         // Enrich RMA items with product information
         enrichRMAItems(rmaDetails);
         
-        // Set received date when status changes to RECEIVED or PROCESSED
-        if (willBeReceived && !wasReceived) {
-            // Status changing to RECEIVED for the first time
-            rmaDetails.setReceivedDate(LocalDateTime.now());
-        } else if (willBeProcessed && !wasReceived && rmaDetails.getReceivedDate() == null) {
-            // Status changing directly to PROCESSED (skipping RECEIVED)
-            // Set receivedDate to indicate items were received
-            rmaDetails.setReceivedDate(LocalDateTime.now());
-        }
-        
-        RMA updated = rmaRepository.updateRMA(id, rmaDetails);
+        // The RMA and any restock or restock rollback are committed together, or not at all
+        List<Inventory> adjustedInventory = new ArrayList<>();
+        RMA updated = transactionManager.execute(() -> {
+            // Get existing RMA to check status change
+            RMA existingRMA = rmaRepository.getRMAById(id)
+                .orElseThrow(() -> new RuntimeException("RMA not found with id: " + id));
+            String newStatus = rmaDetails.getStatus();
+            boolean wasReceived = isReceivedStatus(existingRMA);
+            boolean willBeReceived = "RECEIVED".equals(newStatus);
+            boolean willBeProcessed = "PROCESSED".equals(newStatus);
+            boolean willBeCancelled = "CANCELLED".equals(newStatus);
+            
+            // Set received date when status changes to RECEIVED or PROCESSED
+            if (willBeReceived && !wasReceived) {
+                // Status changing to RECEIVED for the first time
+                rmaDetails.setReceivedDate(LocalDateTime.now());
+            } else if (willBeProcessed && !wasReceived && rmaDetails.getReceivedDate() == null) {
+                // Status changing directly to PROCESSED (skipping RECEIVED)
+                // Set receivedDate to indicate items were received
+                rmaDetails.setReceivedDate(LocalDateTime.now());
+            }
+            
+            RMA saved = rmaRepository.updateRMA(id, rmaDetails);
+            
+            // Handle inventory adjustments based on status changes
+            if (willBeReceived && !wasReceived) {
+                // Status changed to RECEIVED - increase inventory
+                adjustedInventory.addAll(increaseInventoryForRMA(saved));
+            } else if (willBeProcessed && !wasReceived) {
+                // Status changed directly to PROCESSED (skipping RECEIVED) - increase inventory
+                // This handles the case where RMA is marked as PROCESSED without going through RECEIVED
+                adjustedInventory.addAll(increaseInventoryForRMA(saved));
+            } else if (willBeCancelled && wasReceived) {
+                // Status changed to CANCELLED after being received - rollback inventory
+                adjustedInventory.addAll(decreaseInventoryForRMA(existingRMA));
+            }
+            return saved;
+        }, rmaRepository, inventoryRepository);
         System.out.println("RMAService.updateRMA - Updated status: " + updated.getStatus());
         
-        // Handle inventory adjustments based on status changes
-        if (willBeReceived && !wasReceived) {
-            // Status changed to RECEIVED - increase inventory
-            increaseInventoryForRMA(updated);
-        } else if (willBeProcessed && !wasReceived) {
-            // Status changed directly to PROCESSED (skipping RECEIVED) - increase inventory
-            // This handles the case where RMA is marked as PROCESSED without going through RECEIVED
-            increaseInventoryForRMA(updated);
-        } else if (willBeCancelled && wasReceived) {
-            // Status changed to CANCELLED after being received - rollback inventory
-            decreaseInventoryForRMA(existingRMA);
-        }
-        
         // Broadcast update via WebSocket
         if (webSocketService != null) {
+            for (Inventory inventory : adjustedInventory) {
+                webSocketService.broadcastInventoryUpdate(inventory);
+            }
             webSocketService.broadcastRMAUpdate(updated);
         }
         
@@ -129,91 +171,60 @@ public class RMAService {
     }
     
     public RMA addRMAItem(String rmaId, String productId, Integer quantity, String reason) {
-        RMA rma = rmaRepository.getRMAById(rmaId)
-            .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
-        
         Product product = productRepository.getProductById(productId)
             .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId));
         
-        // Check if item already exists
-        Optional<RMAItem> existingItem = rma.getItems().stream()
-            .filter(item -> productId.equals(item.getProductId()))
-            .findFirst();
-        
-        if (existingItem.isPresent()) {
-            // Update quantity
-            RMAItem item = existingItem.get();
-            item.setQuantity(item.getQuantity() + quantity);
-            item.setReturnedQuantity(item.getQuantity()); // Initially, returned quantity equals requested quantity
-            item.calculateLineTotal();
-        } else {
-            // Create new item
-            RMAItem newItem = new RMAItem();
-            newItem.setId(java.util.UUID.randomUUID().toString());
-            newItem.setProductId(product.getId());
-            newItem.setProductCode(product.getProductCode());
-            newItem.setProductName(product.getProductName());
-            newItem.setQuantity(quantity);
-            newItem.setReturnedQuantity(quantity); // Initially, returned quantity equals requested quantity
-            newItem.setUnitPrice(product.getUnitPrice());
-            newItem.setReason(reason != null ? reason : "");
-            newItem.setCondition("USED"); // Default condition
-            newItem.calculateLineTotal();
-            rma.getItems().add(newItem);
-        }
-        
-        rma.calculateTotals();
-        return rmaRepository.updateRMA(rmaId, rma);
+        return rmaRepository.updateRMAItems(rmaId, items -> {
+            // Check if item already exists
+            Optional<RMAItem> existingItem = items.stream()
+                .filter(item -> productId.equals(item.getProductId()))
+                .findFirst();
+            
+            if (existingItem.isPresent()) {
+                // Update quantity
+                RMAItem item = existingItem.get();
+                item.setQuantity(item.getQuantity() + quantity);
+                item.setReturnedQuantity(item.getQuantity()); // Initially, returned quantity equals requested quantity
+                item.calculateLineTotal();
+            } else {
+                // Create new item
+                RMAItem newItem = new RMAItem();
+                newItem.setId(java.util.UUID.randomUUID().toString());
+                newItem.setProductId(product.getId());
+                newItem.setProductCode(product.getProductCode());
+                newItem.setProductName(product.getProductName());
+                newItem.setQuantity(quantity);
+                newItem.setReturnedQuantity(quantity); // Initially, returned quantity equals requested quantity
+                newItem.setUnitPrice(product.getUnitPrice());
+                newItem.setReason(reason != null ? reason : "");
+                newItem.setCondition("USED"); // Default condition
+                newItem.calculateLineTotal();
+                items.add(newItem);
+            }
+        });
     }
     
     public RMA updateRMAItemQuantity(String rmaId, String itemId, Integer quantity) {
-        RMA rma = rmaRepository.getRMAById(rmaId)
-            .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
-        
-        RMAItem item = rma.getItems().stream()
-            .filter(i -> itemId.equals(i.getId()))
-            .findFirst()
-            .orElseThrow(() -> new RuntimeException("RMA item not found with id: " + itemId));
-        
-        item.setQuantity(quantity);
-        if (item.getReturnedQuantity() == null || item.getReturnedQuantity() > quantity) {
-            item.setReturnedQuantity(quantity); // Adjust returned quantity if needed
-        }
-        item.calculateLineTotal();
-        rma.calculateTotals();
-        
-        return rmaRepository.updateRMA(rmaId, rma);
+        return rmaRepository.updateRMAItems(rmaId, items -> {
+            RMAItem item = findRMAItem(items, itemId);
+            item.setQuantity(quantity);
+            if (item.getReturnedQuantity() == null || item.getReturnedQuantity() > quantity) {
+                item.setReturnedQuantity(quantity); // Adjust returned quantity if needed
+            }
+            item.calculateLineTotal();
+        });
     }
     
     public RMA updateRMAItemReturnedQuantity(String rmaId, String itemId, Integer returnedQuantity) {
-        RMA rma = rmaRepository.getRMAById(rmaId)
-            .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
-        
-        RMAItem item = rma.getItems().stream()
-            .filter(i -> itemId.equals(i.getId()))
-            .findFirst()
-            .orElseThrow(() -> new RuntimeException("RMA item not found with id: " + itemId));
-        
-        item.setReturnedQuantity(returnedQuantity);
-        item.calculateLineTotal();
-        rma.calculateTotals();
-        
-        return rmaRepository.updateRMA(rmaId, rma);
+        return rmaRepository.updateRMAItems(rmaId, items -> {
+            RMAItem item = findRMAItem(items, itemId);
+            item.setReturnedQuantity(returnedQuantity);
+            item.calculateLineTotal();
+        });
     }
     
     public RMA updateRMAItemCondition(String rmaId, String itemId, String condition) {
-        RMA rma = rmaRepository.getRMAById(rmaId)
-            .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
-        
-        RMAItem item = rma.getItems().stream()
-            .filter(i -> itemId.equals(i.getId()))
-            .findFirst()
-            .orElseThrow(() -> new RuntimeException("RMA item not found with id: " + itemId));
-        
-        item.setCondition(condition);
-        rma.calculateTotals();
-        
-        RMA updated = rmaRepository.updateRMA(rmaId, rma);
+        RMA updated = rmaRepository.updateRMAItems(rmaId, items -> findRMAItem(items, itemId).setCondition(condition));
         
         // Broadcast update via WebSocket
         if (webSocketService != null) {
@@ -224,16 +235,19 @@ public class RMAService {
     }
     
     public RMA removeRMAItem(String rmaId, String itemId) {
-        RMA rma = rmaRepository.getRMAById(rmaId)
-            .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
-        
-        boolean removed = rma.getItems().removeIf(item -> itemId.equals(item.getId()));
-        if (!removed) {
-            throw new RuntimeException("RMA item not found with id: " + itemId);
-        }
-        
-        rma.calculateTotals();
-        return rmaRepository.updateRMA(rmaId, rma);
+        return rmaRepository.updateRMAItems(rmaId, items -> {
+            boolean removed = items.removeIf(item -> itemId.equals(item.getId()));
+            if (!removed) {
+                throw new RuntimeException("RMA item not found with id: " + itemId);
+            }
+        });
+    }
+    
+    private RMAItem findRMAItem(List<RMAItem> items, String itemId) {
+        return items.stream()
+            .filter(i -> itemId.equals(i.getId()))
+            .findFirst()
+            .orElseThrow(() -> new RuntimeException("RMA item not found with id: " + itemId));
     }
     
     public void deleteRMA(String id) {
@@ -296,9 +310,10 @@ public class RMAService {
     /**
      * Increases inventory when RMA items are received/restocked
      */
-    private void increaseInventoryForRMA(RMA rma) {
+    private List<Inventory> increaseInventoryForRMA(RMA rma) {
+        List<Inventory> adjusted = new ArrayList<>();
         if (rma.getItems() == null || rma.getItems().isEmpty()) {
-            return;
+            return adjusted;
         }
         
         // Get default warehouse (first active warehouse, or first warehouse if none active)
@@ -309,7 +324,7 @@ public class RMAService {
         
         if (warehouses.isEmpty()) {
             System.out.println("Warning: No warehouses found. Cannot increase inventory for RMA " + rma.getId());
-            return;
+            return adjusted;
         }
         
         Warehouse defaultWarehouse = warehouses.get(0);
@@ -318,25 +333,21 @@ public class RMAService {
         // Increase inventory for each RMA item (restock returned items)
         for (RMAItem item : rma.getItems()) {
             if (item.getProductId() != null && item.getReturnedQuantity() != null && item.getReturnedQuantity() > 0) {
-                try {
-                    inventoryService.adjustInventory(item.getProductId(), warehouseId, item.getReturnedQuantity());
-                    System.out.println("Increased inventory (restocked) for product " + item.getProductId() + 
-                        " by " + item.getReturnedQuantity() + " in warehouse " + warehouseId + " for RMA " + rma.getRmaNumber());
-                } catch (Exception e) {
-                    System.err.println("Error increasing inventory for product " + item.getProductId() + 
-                        " in RMA " + rma.getRmaNumber() + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
+                adjusted.add(inventoryRepository.adjustInventory(item.getProductId(), warehouseId, item.getReturnedQuantity()));
+                System.out.println("Increased inventory (restocked) for product " + item.getProductId() + 
+                    " by " + item.getReturnedQuantity() + " in warehouse " + warehouseId + " for RMA " + rma.getRmaNumber());
             }
         }
+        return adjusted;
     }
     
     /**
      * Decreases inventory when RMA is cancelled after items were received (rollback restock)
      */
-    private void decreaseInventoryForRMA(RMA rma) {
+    private List<Inventory> decreaseInventoryForRMA(RMA rma) {
+        List<Inventory> adjusted = new ArrayList<>();
         if (rma.getItems() == null || rma.getItems().isEmpty()) {
-            return;
+            return adjusted;
         }
         
         // Get default warehouse (first active warehouse, or first warehouse if none active)
@@ -347,7 +358,7 @@ public class RMAService {
         
         if (warehouses.isEmpty()) {
             System.out.println("Warning: No warehouses found. Cannot decrease inventory for RMA " + rma.getId());
-            return;
+            return adjusted;
         }
         
         Warehouse defaultWarehouse = warehouses.get(0);
@@ -356,18 +367,13 @@ public class RMAService {
         // Decrease inventory for each RMA item (rollback restock)
         for (RMAItem item : rma.getItems()) {
             if (item.getProductId() != null && item.getReturnedQuantity() != null && item.getReturnedQuantity() > 0) {
-                try {
-                    // Use negative quantity to decrease inventory
-                    inventoryService.adjustInventory(item.getProductId(), warehouseId, -item.getReturnedQuantity());
-                    System.out.println("Decreased inventory (rollback) for product " + item.getProductId() + 
-                        " by " + item.getReturnedQuantity() + " in warehouse " + warehouseId + " for cancelled RMA " + rma.getRmaNumber());
-                } catch (Exception e) {
-                    System.err.println("Error decreasing inventory for product " + item.getProductId() + 
-                        " in RMA " + rma.getRmaNumber() + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
+                // Use negative quantity to decrease inventory
+                adjusted.add(inventoryRepository.adjustInventory(item.getProductId(), warehouseId, -item.getReturnedQuantity()));
+                System.out.println("Decreased inventory (rollback) for product " + item.getProductId() + 
+                    " by " + item.getReturnedQuantity() + " in warehouse " + warehouseId + " for cancelled RMA " + rma.getRmaNumber());
             }
         }
+        return adjusted;
     }
 }
 
@@ -0,0 +1,139 @@
+package com.edge.service;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.repository.AbstractJsonRepository;
+import com.edge.repository.RepositoryRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inlines referenced entities for include=..., e.g. /api/orders?include=customer,items.product
+ * puts a customer object next to each order's customerId and a product object next to the
+ * productId of every item. A reference named x is read from the xId field, of the entity
+ * itself or, for a dotted name, of each element of the nested list. The IDs wanted from a
+ * repository are collected over the whole list first and fetched in one pass, so a page
+ * costs one lookup per referenced repository however many entities it holds. References
+ * that do not resolve are written as null. ?fields= does not apply to expanded responses.
+ */
+@Component
+public class ReferenceExpander {
+    
+    @Autowired
+    private RepositoryRegistry repositoryRegistry;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    // Where one resolved reference goes
+    private static class Slot {
+        private final ObjectNode owner;
+        private final String field;
+        private final String resource;
+        private final String id;
+        
+        private Slot(ObjectNode owner, String field, String resource, String id) {
+            this.owner = owner;
+            this.field = field;
+            this.resource = resource;
+            this.id = id;
+        }
+    }
+    
+    /**
+     * Serializes the entities with the requested references inlined. references maps every
+     * include the entity type supports to the resource name of the repository it points into;
+     * an include not in it is rejected with IllegalArgumentException.
+     */
+    public List<ObjectNode> expand(List<?> entities, Collection<String> includes, Map<String, String> references) {
+        Set<String> requested = new LinkedHashSet<>();
+        for (String include : includes) {
+            String name = include.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!references.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown include: " + name);
+            }
+            requested.add(name);
+        }
+        
+        List<ObjectNode> nodes = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            nodes.add(objectMapper.valueToTree(entity));
+        }
+        
+        List<Slot> slots = new ArrayList<>();
+        Map<String, Set<String>> idsByResource = new LinkedHashMap<>();
+        for (String include : requested) {
+            int dot = include.lastIndexOf('.');
+            String path = dot < 0 ? null : include.substring(0, dot);
+            String field = include.substring(dot + 1);
+            String resource = references.get(include);
+            for (ObjectNode node : nodes) {
+                for (ObjectNode owner : owners(node, path)) {
+                    JsonNode idNode = owner.get(field + "Id");
+                    String id = idNode != null && idNode.isTextual() ? idNode.asText() : null;
+                    slots.add(new Slot(owner, field, resource, id));
+                    if (id != null) {
+                        idsByResource.computeIfAbsent(resource, key -> new LinkedHashSet<>()).add(id);
+                    }
+                }
+            }
+        }
+        
+        // One lookup per repository; an entity referenced many times is serialized once
+        Map<String, Map<String, JsonNode>> resolved = new HashMap<>();
+        idsByResource.forEach((resource, ids) -> {
+            AbstractJsonRepository<?> repository = repositoryRegistry.find(resource)
+                .orElseThrow(() -> new IllegalStateException("No repository for " + resource));
+            Map<String, JsonNode> trees = new HashMap<>();
+            repository.findMapById(ids).forEach((id, entity) -> trees.put(id, objectMapper.valueToTree(entity)));
+            resolved.put(resource, trees);
+        });
+        for (Slot slot : slots) {
+            JsonNode target = slot.id != null ? resolved.get(slot.resource).get(slot.id) : null;
+            slot.owner.set(slot.field, target != null ? target : NullNode.getInstance());
+        }
+        return nodes;
+    }
+    
+    private List<ObjectNode> owners(ObjectNode node, String path) {
+        List<ObjectNode> owners = new ArrayList<>();
+        owners.add(node);
+        if (path == null) {
+            return owners;
+        }
+        for (String segment : path.split("\\.")) {
+            List<ObjectNode> next = new ArrayList<>();
+            for (ObjectNode owner : owners) {
+                JsonNode child = owner.get(segment);
+                if (child instanceof ObjectNode object) {
+                    next.add(object);
+                } else if (child != null && child.isArray()) {
+                    for (JsonNode element : child) {
+                        if (element instanceof ObjectNode object) {
+                            next.add(object);
+                        }
+                    }
+                }
+            }
+            owners = next;
+        }
+        return owners;
+    }
+}
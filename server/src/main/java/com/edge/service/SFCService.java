@@ -5,6 +5,9 @@ package com.edge.service;
  */
 import com.edge.entity.SFC;
 import com.edge.entity.RMA;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.repository.SFCRepository;
 import com.edge.repository.RMARepository;
 import com.edge.repository.CustomerRepository;
@@ -14,6 +17,7 @@ import org.springframework.stereotype.Component;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class SFCService {
@@ -30,14 +34,22 @@ public class SFCService {
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<SFC> getAllSFCs() {
-        return sfcRepository.getAllSFCs();
+    public String forEachSFCAfter(String afterId, int limit, Consumer<? super SFC> action) {
+        return sfcRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<SFC> getSFCPage(PageQuery query) {
+        return sfcRepository.findPage(query);
     }
     
     public Optional<SFC> getSFCById(String id) {
         return sfcRepository.getSFCById(id);
     }
     
+    public MultiGetResult<SFC> getSFCsByIds(List<String> ids) {
+        return sfcRepository.findAllById(ids);
+    }
+    
     public List<SFC> getSFCsByRMAId(String rmaId) {
         return sfcRepository.getSFCsByRMAId(rmaId);
     }
@@ -4,12 +4,16 @@ package com.edge.service;
  * @author Hidenori Takaku
  */
 import com.edge.entity.User;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class UserService
@@ -21,9 +25,14 @@ public class UserService
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<User> getAllUsers()
+    public String forEachUserAfter(String afterId, int limit, Consumer<? super User> action)
     {
-        return userRepository.getAllUsers();
+        return userRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<User> getUserPage(PageQuery query)
+    {
+        return userRepository.findPage(query);
     }
     
     public Optional<User> getUserById(String id)
@@ -31,6 +40,11 @@ public class UserService
         return userRepository.getUserById(id);
     }
     
+    public MultiGetResult<User> getUsersByIds(List<String> ids)
+    {
+        return userRepository.findAllById(ids);
+    }
+    
     public Optional<User> getUserByEmail(String email)
     {
         return userRepository.getUserByEmail(email);
@@ -41,6 +55,17 @@ public class UserService
         return userRepository.getUserByUserid(userid);
     }
     
+    /**
+     * A copy of the user without the password, for returning to the client. The repository's
+     * instance is shared and must not be changed.
+     */
+    public User withoutPassword(User user)
+    {
+        User copy = userRepository.copyOf(user);
+        copy.setPassword(null);
+        return copy;
+    }
+    
     public User createUser(User user)
     {
         User created = userRepository.createUser(user);
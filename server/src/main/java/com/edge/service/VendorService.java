@@ -4,12 +4,16 @@ package com.edge.service;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Vendor;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.repository.VendorRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class VendorService {
@@ -20,14 +24,22 @@ public class VendorService {
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Vendor> getAllVendors() {
-        return vendorRepository.getAllVendors();
+    public String forEachVendorAfter(String afterId, int limit, Consumer<? super Vendor> action) {
+        return vendorRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Vendor> getVendorPage(PageQuery query) {
+        return vendorRepository.findPage(query);
     }
     
     public Optional<Vendor> getVendorById(String id) {
         return vendorRepository.getVendorById(id);
     }
     
+    public MultiGetResult<Vendor> getVendorsByIds(List<String> ids) {
+        return vendorRepository.findAllById(ids);
+    }
+    
     public Optional<Vendor> getVendorByEmail(String email) {
         return vendorRepository.getVendorByEmail(email);
     }
@@ -4,12 +4,16 @@ package com.edge.service;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Warehouse;
+import com.edge.repository.MultiGetResult;
+import com.edge.repository.PageQuery;
+import com.edge.repository.ResultPage;
 import com.edge.repository.WarehouseRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class WarehouseService {
@@ -20,14 +24,22 @@ public class WarehouseService {
     @Autowired(required = false)
     private WebSocketService webSocketService;
     
-    public List<Warehouse> getAllWarehouses() {
-        return warehouseRepository.getAllWarehouses();
+    public String forEachWarehouseAfter(String afterId, int limit, Consumer<? super Warehouse> action) {
+        return warehouseRepository.forEachAfter(afterId, limit, action);
+    }
+    
+    public ResultPage<Warehouse> getWarehousePage(PageQuery query) {
+        return warehouseRepository.findPage(query);
     }
     
     public Optional<Warehouse> getWarehouseById(String id) {
         return warehouseRepository.getWarehouseById(id);
     }
     
+    public MultiGetResult<Warehouse> getWarehousesByIds(List<String> ids) {
+        return warehouseRepository.findAllById(ids);
+    }
+    
     public Optional<Warehouse> getWarehouseByCode(String warehouseCode) {
         return warehouseRepository.getWarehouseByCode(warehouseCode);
     }
@@ -20,6 +20,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class WebSocketService {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketService.class);
@@ -53,6 +55,22 @@ public class WebSocketService {
         }
     }
     
+    /**
+     * Send all entities saved by one batch request as a single message
+     */
+    public void broadcastEntityBatch(String entityType, List<?> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        try {
+            String topic = "/topic/" + entityType.toLowerCase() + "s/batch";
+            logger.info("Broadcasting {} {} updates in one batch", entities.size(), entityType);
+            messagingTemplate.convertAndSend(topic, entities);
+        } catch (Exception e) {
+            logger.error("Error broadcasting {} batch", entityType, e);
+        }
+    }
+    
     // Convenience methods for each entity type
     public void broadcastOrderUpdate(Order order) {
         broadcastEntityUpdate("order", order);
@@ -62,6 +80,10 @@ public class WebSocketService {
         broadcastEntityDelete("order", orderId);
     }
     
+    public void broadcastOrderBatch(List<Order> orders) {
+        broadcastEntityBatch("order", orders);
+    }
+    
     public void broadcastCustomerUpdate(Customer customer) {
         broadcastEntityUpdate("customer", customer);
     }
@@ -70,6 +92,10 @@ public class WebSocketService {
         broadcastEntityDelete("customer", customerId);
     }
     
+    public void broadcastCustomerBatch(List<Customer> customers) {
+        broadcastEntityBatch("customer", customers);
+    }
+    
     public void broadcastProductUpdate(Product product) {
         broadcastEntityUpdate("product", product);
     }
@@ -78,6 +104,10 @@ public class WebSocketService {
         broadcastEntityDelete("product", productId);
     }
     
+    public void broadcastProductBatch(List<Product> products) {
+        broadcastEntityBatch("product", products);
+    }
+    
     public void broadcastAddressUpdate(Address address) {
         broadcastEntityUpdate("address", address);
     }
@@ -102,6 +132,10 @@ public class WebSocketService {
         broadcastEntityDelete("purchaseOrder", poId);
     }
     
+    public void broadcastPurchaseOrderBatch(List<PurchaseOrder> pos) {
+        broadcastEntityBatch("purchaseOrder", pos);
+    }
+    
     public void broadcastVendorUpdate(Vendor vendor) {
         broadcastEntityUpdate("vendor", vendor);
     }
@@ -126,6 +160,10 @@ public class WebSocketService {
         broadcastEntityDelete("inventory", inventoryId);
     }
     
+    public void broadcastInventoryBatch(List<Inventory> inventory) {
+        broadcastEntityBatch("inventory", inventory);
+    }
+    
     public void broadcastRMAUpdate(RMA rma) {
         broadcastEntityUpdate("rma", rma);
     }
@@ -0,0 +1,103 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Dropping history from before the retention period.
+ */
+class HistoryLogTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Instant now = Instant.now();
+
+    @Test
+    void compactKeepsStateFromCutoffOn() throws IOException
+    {
+        Path historyFile = writeHistory();
+        Instant cutoff = now.minus(Duration.ofDays(5));
+
+        HistoryLog history = new HistoryLog(historyFile, objectMapper);
+        assertEquals(3, history.compact(cutoff));
+
+        // A keeps its last version before the cutoff, B was deleted before it, C is unchanged
+        assertEquals(List.of(3L, 6L), sequences(history.getEvents("A")));
+        assertEquals(List.of(), history.getEvents("B"));
+        assertEquals(List.of(5L), sequences(history.getEvents("C")));
+        Map<String, ?> state = history.getStateAt(now.minus(Duration.ofDays(2)));
+        assertEquals(List.of("A", "C"), List.copyOf(state.keySet()));
+        assertEquals("v2", history.getEvents("A").get(0).getData().get("name").asText());
+
+        // Cursors from before the cutoff may have missed a dropped delete
+        assertNull(history.getChangesSince(0, 10));
+        assertEquals(List.of(6L), sequences(history.getChangesSince(5, 10)));
+
+        // Numbering continues, and the next compaction is not due yet
+        assertEquals(7, history.appendDelete("C"));
+        history.close();
+        HistoryLog reopened = new HistoryLog(historyFile, objectMapper);
+        assertEquals(0, reopened.compact(cutoff.plus(Duration.ofHours(1))));
+        assertEquals(7, reopened.getLastSequence());
+        assertNull(reopened.getChangesSince(4, 10));
+        assertEquals(List.of(6L, 7L), sequences(reopened.getChangesSince(5, 10)));
+    }
+
+    @Test
+    void compactWithNothingBeforeCutoffLeavesFile() throws IOException
+    {
+        Path historyFile = writeHistory();
+        String before = Files.readString(historyFile);
+
+        assertEquals(0, new HistoryLog(historyFile, objectMapper).compact(now.minus(Duration.ofDays(30))));
+        assertEquals(before, Files.readString(historyFile));
+    }
+
+    /**
+     * A created, B created, A changed, B deleted, C created, then after the cutoff A changed
+     * again; sequences 1 to 6.
+     */
+    private Path writeHistory() throws IOException
+    {
+        StringBuilder lines = new StringBuilder();
+        lines.append(record(1, 10, "PUT", "A", "v1"));
+        lines.append(record(2, 9, "PUT", "B", "v1"));
+        lines.append(record(3, 8, "PUT", "A", "v2"));
+        lines.append(record(4, 7, "DELETE", "B", null));
+        lines.append(record(5, 6, "PUT", "C", "v1"));
+        lines.append(record(6, 1, "PUT", "A", "v3"));
+        Path historyFile = tempDir.resolve("test.json.history");
+        Files.writeString(historyFile, lines, StandardCharsets.UTF_8);
+        return historyFile;
+    }
+
+    private String record(long sequence, int daysAgo, String operation, String id, String name)
+    {
+        return "{\"seq\":" + sequence + ",\"at\":\"" + now.minus(Duration.ofDays(daysAgo)) + "\",\"op\":\"" + operation
+            + "\",\"id\":\"" + id + "\"" + (name != null ? ",\"data\":{\"name\":\"" + name + "\"}" : "") + "}\n";
+    }
+
+    private static List<Long> sequences(List<HistoryLog.Event> events)
+    {
+        return events.stream().map(HistoryLog.Event::getSequence).toList();
+    }
+}
@@ -0,0 +1,50 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Address;
+import com.edge.entity.Vendor;
+
+/**
+ * Configuration and entity factories shared by the repository tests. Repositories under test
+ * are created with the package-private constructors that take the data directory, so each
+ * test works in its own @TempDir.
+ */
+final class RepositoryTestSupport
+{
+    private RepositoryTestSupport()
+    {
+    }
+
+    /**
+     * Defaults with the history log off, so a test only writes the files it is about.
+     */
+    static JsonDbConfig config()
+    {
+        JsonDbConfig config = new JsonDbConfig();
+        config.setHistory(false);
+        return config;
+    }
+
+    static Vendor vendor(String vendorNumber, String companyName)
+    {
+        Vendor vendor = new Vendor();
+        vendor.setVendorNumber(vendorNumber);
+        vendor.setCompanyName(companyName);
+        vendor.setEmail(vendorNumber.toLowerCase() + "@example.com");
+        return vendor;
+    }
+
+    static Address address(String city)
+    {
+        Address address = new Address();
+        address.setCustomerId("C1");
+        address.setAddressType("SHIPPING");
+        address.setStreetAddress1("1 Main Street");
+        address.setCity(city);
+        address.setCountry("US");
+        return address;
+    }
+}
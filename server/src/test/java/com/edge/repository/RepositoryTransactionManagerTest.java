@@ -0,0 +1,135 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Vendor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.edge.repository.RepositoryTestSupport.address;
+import static com.edge.repository.RepositoryTestSupport.vendor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rollback and crash recovery of transactions spanning two repositories.
+ */
+class RepositoryTransactionManagerTest
+{
+    @TempDir
+    Path tempDir;
+
+    /**
+     * One application start: a journal, the two repositories wired to it and the manager.
+     */
+    private class Instance
+    {
+        final TransactionJournal journal;
+        final VendorRepository vendors;
+        final AddressRepository addresses;
+        final RepositoryTransactionManager transactionManager;
+
+        Instance(JsonDbConfig config)
+        {
+            journal = new TransactionJournal(config, tempDir);
+            vendors = new VendorRepository(config, tempDir);
+            addresses = new AddressRepository(config, tempDir);
+            ReflectionTestUtils.setField(vendors, "transactionJournal", journal);
+            ReflectionTestUtils.setField(addresses, "transactionJournal", journal);
+            transactionManager = new RepositoryTransactionManager(journal,
+                new RepositoryRegistry(List.of(vendors, addresses)), config);
+        }
+    }
+
+    @Test
+    void rollbackRestoresPreImages() throws IOException
+    {
+        JsonDbConfig config = config(JsonDbConfig.Durability.SYNC);
+        Instance instance = new Instance(config);
+        String vendorId = instance.vendors.save(vendor("V1", "Acme")).getId();
+        String addressId = instance.addresses.save(address("Boston")).getId();
+        String vendorsBefore = Files.readString(tempDir.resolve("vendors.json"));
+
+        RuntimeException failure = assertThrows(RuntimeException.class, () ->
+            instance.transactionManager.execute(() -> {
+                Vendor vendor = instance.vendors.findByIdForUpdate(vendorId).orElseThrow();
+                vendor.setCompanyName("Acme Holdings");
+                instance.vendors.save(vendor);
+                instance.vendors.save(vendor("V2", "Globex"));
+                instance.addresses.deleteById(addressId);
+                throw new IllegalStateException("work failed");
+            }, instance.vendors, instance.addresses));
+
+        assertEquals("work failed", failure.getMessage());
+        assertEquals(1, instance.vendors.count());
+        assertEquals("Acme", instance.vendors.findById(vendorId).orElseThrow().getCompanyName());
+        assertFalse(instance.vendors.getVendorByVendorNumber("V2").isPresent());
+        assertEquals("Boston", instance.addresses.findById(addressId).orElseThrow().getCity());
+        assertEquals(0, instance.journal.size());
+        assertEquals(vendorsBefore, Files.readString(tempDir.resolve("vendors.json")));
+
+        // The repositories stay usable after the rollback
+        Vendor vendor = instance.vendors.findByIdForUpdate(vendorId).orElseThrow();
+        vendor.setCompanyName("Acme Inc.");
+        instance.vendors.save(vendor);
+        assertEquals("Acme Inc.", instance.vendors.findById(vendorId).orElseThrow().getCompanyName());
+    }
+
+    @Test
+    void committedTransactionIsReplayedIntoStaleDataFiles() throws IOException
+    {
+        // ASYNC leaves the data files to the write-behind flusher, which does not run here, so
+        // after the commit only transactions.log has the changes, as after a crash at that point
+        JsonDbConfig config = config(JsonDbConfig.Durability.ASYNC);
+        Instance instance = new Instance(config);
+        String vendorId = instance.vendors.save(vendor("V1", "Acme")).getId();
+        String addressId = instance.addresses.save(address("Boston")).getId();
+        instance.vendors.saveAll();
+        instance.addresses.saveAll();
+
+        String newVendorId = instance.transactionManager.execute(() -> {
+            Vendor vendor = instance.vendors.findByIdForUpdate(vendorId).orElseThrow();
+            vendor.setCompanyName("Acme Holdings");
+            instance.vendors.save(vendor);
+            instance.addresses.deleteById(addressId);
+            return instance.vendors.save(vendor("V2", "Globex")).getId();
+        }, instance.vendors, instance.addresses);
+        assertEquals(1, instance.journal.size());
+        assertFalse(Files.readString(tempDir.resolve("vendors.json")).contains("Acme Holdings"));
+        assertTrue(Files.readString(tempDir.resolve("addresses.json")).contains(addressId));
+        // No close(): the process dies here
+
+        Instance restarted = new Instance(config);
+        assertEquals(2, restarted.vendors.count());
+        assertEquals("Acme Holdings", restarted.vendors.findById(vendorId).orElseThrow().getCompanyName());
+        assertEquals("Globex", restarted.vendors.findById(newVendorId).orElseThrow().getCompanyName());
+        assertEquals(0, restarted.addresses.count());
+
+        // The load wrote the replayed state back and checkpointed it, so compaction drops the transaction
+        assertTrue(Files.readString(tempDir.resolve("vendors.json")).contains("Acme Holdings"));
+        assertFalse(Files.readString(tempDir.resolve("addresses.json")).contains(addressId));
+        restarted.journal.compact();
+        assertEquals(0, restarted.journal.size());
+
+        Instance again = new Instance(config);
+        assertEquals(2, again.vendors.count());
+        assertEquals(0, again.addresses.count());
+    }
+
+    private static JsonDbConfig config(JsonDbConfig.Durability durability)
+    {
+        JsonDbConfig config = RepositoryTestSupport.config();
+        config.setDurability(durability);
+        return config;
+    }
+}
@@ -0,0 +1,112 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Numbering after a restart, with and without a clean shutdown.
+ */
+class SequenceStoreTest
+{
+    private static final String SEQUENCE = "order";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void issuesConsecutiveNumbersAcrossBlocks()
+    {
+        SequenceStore store = open();
+        for (long expected = 1001; expected <= 1025; expected++)
+        {
+            assertEquals(expected, store.next(SEQUENCE));
+        }
+    }
+
+    @Test
+    void restartWithoutCloseResumesAboveHighWaterMark()
+    {
+        SequenceStore store = open();
+        assertEquals(1001, store.next(SEQUENCE));
+        assertEquals(1002, store.next(SEQUENCE));
+        assertEquals(1003, store.next(SEQUENCE));
+        // No close(): the rest of the reserved block (up to 1010) is skipped
+
+        SequenceStore restarted = open();
+        assertEquals(1011, restarted.next(SEQUENCE));
+    }
+
+    @Test
+    void closeGivesBackUnusedNumbers()
+    {
+        SequenceStore store = open();
+        store.next(SEQUENCE);
+        store.next(SEQUENCE);
+        assertEquals(1003, store.next(SEQUENCE));
+        store.close();
+
+        SequenceStore restarted = open();
+        assertEquals(1004, restarted.next(SEQUENCE));
+        // A crash after the give-back still stays above the block reserved since
+        SequenceStore afterCrash = open();
+        assertEquals(1014, afterCrash.next(SEQUENCE));
+    }
+
+    @Test
+    void reserveAheadCoversWholeBatch()
+    {
+        SequenceStore store = open();
+        store.reserveAhead(SEQUENCE, 25);
+        long last = 0;
+        for (int i = 0; i < 25; i++)
+        {
+            last = store.next(SEQUENCE);
+        }
+        assertEquals(1025, last);
+
+        // The batch used exactly the reserved range, so nothing is skipped even without close()
+        SequenceStore restarted = open();
+        assertEquals(1026, restarted.next(SEQUENCE));
+    }
+
+    @Test
+    void continuesFromLegacyCounterFile() throws IOException
+    {
+        Files.writeString(tempDir.resolve("orderCounter.txt"), "1500");
+
+        SequenceStore store = new SequenceStore(config(), tempDir);
+        store.define(SEQUENCE, 1000, "orderCounter.txt");
+        assertEquals(1501, store.next(SEQUENCE));
+        store.close();
+
+        // Once the log has a record, the counter file is no longer read
+        Files.writeString(tempDir.resolve("orderCounter.txt"), "1");
+        SequenceStore restarted = new SequenceStore(config(), tempDir);
+        restarted.define(SEQUENCE, 1000, "orderCounter.txt");
+        assertEquals(1502, restarted.next(SEQUENCE));
+    }
+
+    private SequenceStore open()
+    {
+        SequenceStore store = new SequenceStore(config(), tempDir);
+        store.define(SEQUENCE, 1000, null);
+        return store;
+    }
+
+    private static JsonDbConfig config()
+    {
+        JsonDbConfig config = new JsonDbConfig();
+        config.setSequenceBlockSize(10);
+        return config;
+    }
+}
@@ -0,0 +1,139 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import com.edge.entity.OrderItem;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Startup benchmark comparing OrderRepository load time from the JSON data file and from the
+ * Smile binary snapshot. Excluded from the regular test run; use {@code gradle startupBenchmark}
+ * (order count via -Pbenchmark.orders, default 500000).
+ */
+@Tag("benchmark")
+class SnapshotFormatBenchmarkTest
+{
+    private static final String[] STATUSES = {"DRAFT", "APPROVED", "SHIPPED", "INVOICED", "PAID"};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compareJsonAndSmileStartup() throws IOException
+    {
+        int orderCount = Integer.getInteger("benchmark.orders", 500_000);
+        JsonDbConfig config = new JsonDbConfig();
+
+        ObjectMapper mapper = newRepository(config).createObjectMapper();
+        writeOrders(tempDir.resolve("orders.json"), orderCount, mapper);
+
+        config.setBinarySnapshot(true);
+        // Loads the JSON (no binary snapshot yet) and writes both formats
+        newRepository(config).saveAll();
+
+        long jsonBytes = Files.size(tempDir.resolve("orders.json"));
+        long smileBytes = Files.size(tempDir.resolve("orders.json.smile"));
+        System.out.printf("Dataset: %,d orders, JSON %,d bytes, Smile %,d bytes (%.0f%%)%n",
+            orderCount, jsonBytes, smileBytes, 100.0 * smileBytes / jsonBytes);
+
+        for (int round = 1; round <= 2; round++)
+        {
+            // Touching the JSON file makes it newer than the Smile file, so it is loaded instead
+            touch(tempDir.resolve("orders.json"));
+            long jsonMs = timeLoad(config, orderCount);
+
+            touch(tempDir.resolve("orders.json.smile"));
+            long smileMs = timeLoad(config, orderCount);
+
+            System.out.printf("Round %d: JSON load %,d ms, Smile load %,d ms (%.1fx)%n",
+                round, jsonMs, smileMs, (double) jsonMs / Math.max(1, smileMs));
+        }
+    }
+
+    private long timeLoad(JsonDbConfig config, int expectedCount)
+    {
+        System.gc();
+        long start = System.nanoTime();
+        OrderRepository repository = newRepository(config);
+        // Constructors no longer load, so the load has to be triggered inside the timed region
+        repository.ensureLoaded();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(expectedCount, repository.count());
+        return elapsedMs;
+    }
+
+    /**
+     * An order repository with its data file and sequence log in the benchmark directory.
+     */
+    private OrderRepository newRepository(JsonDbConfig config)
+    {
+        return new OrderRepository(config, new SequenceStore(config, tempDir), tempDir);
+    }
+
+    private static void touch(Path file) throws IOException
+    {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+    }
+
+    private static void writeOrders(Path file, int count, ObjectMapper mapper) throws IOException
+    {
+        LocalDateTime baseDate = LocalDateTime.of(2024, 1, 1, 9, 0);
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(file.toFile(), JsonEncoding.UTF8))
+        {
+            generator.writeStartArray();
+            for (int i = 0; i < count; i++)
+            {
+                Order order = new Order();
+                order.setId("order-" + i);
+                order.setOrderNumber(String.valueOf(100000 + i));
+                order.setCustomerId("customer-" + (i % 5000));
+                order.setShippingAddressId("address-" + (i % 5000));
+                order.setBillingAddressId("address-" + (i % 5000));
+                order.setOrderDate(baseDate.plusMinutes(i));
+                order.setStatus(STATUSES[i % STATUSES.length]);
+                List<OrderItem> items = new ArrayList<>();
+                for (int line = 0; line < 3; line++)
+                {
+                    OrderItem item = new OrderItem();
+                    item.setId("item-" + i + "-" + line);
+                    item.setProductId("product-" + ((i + line) % 2000));
+                    item.setProductCode("PROD-" + ((i + line) % 2000));
+                    item.setProductName("Product " + ((i + line) % 2000));
+                    item.setQuantity(1 + (i + line) % 10);
+                    item.setUnitPrice(BigDecimal.valueOf(100 + (i + line) % 900));
+                    item.calculateLineTotal();
+                    items.add(item);
+                }
+                order.setItems(items);
+                order.setTax(BigDecimal.TEN);
+                Map<String, Object> jsonData = new HashMap<>();
+                jsonData.put("channel", i % 2 == 0 ? "web" : "phone");
+                order.setJsonData(jsonData);
+                order.calculateTotals();
+                generator.writeObject(order);
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.entity.Vendor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.edge.repository.RepositoryTestSupport.config;
+import static com.edge.repository.RepositoryTestSupport.vendor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Loading from checksummed snapshot generations when the current one is damaged.
+ */
+class SnapshotRecoveryTest
+{
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void saveRotatesGenerationsWithChecksums() throws IOException
+    {
+        String id = writeThreeGenerations();
+
+        assertTrue(Files.exists(tempDir.resolve("vendors.json.crc")));
+        assertTrue(Files.exists(tempDir.resolve("vendors.json.1.crc")));
+        assertTrue(Files.exists(tempDir.resolve("vendors.json.2.crc")));
+        assertTrue(Files.readString(tempDir.resolve("vendors.json")).contains("Globex Corporation"));
+        assertTrue(Files.readString(tempDir.resolve("vendors.json.1")).contains("\"Globex\""));
+        assertFalse(Files.readString(tempDir.resolve("vendors.json.2")).contains(id));
+    }
+
+    @Test
+    void checksumMismatchFallsBackToOlderGeneration() throws IOException
+    {
+        String id = writeThreeGenerations();
+        corrupt(tempDir.resolve("vendors.json"), "Globex Corporation", "Globex Corporatiom");
+
+        VendorRepository recovered = new VendorRepository(config(), tempDir);
+        recovered.ensureLoaded();
+
+        assertTrue(recovered.isAvailable());
+        assertEquals(2, recovered.count());
+        assertEquals("Globex", recovered.findById(id).orElseThrow().getCompanyName());
+
+        List<Path> quarantined = list(tempDir.resolve("quarantine"));
+        assertEquals(2, quarantined.size());
+        assertTrue(quarantined.stream().anyMatch(path -> path.getFileName().toString().matches("vendors\\.json\\.\\d+\\.corrupt")));
+        // The recovered state was written back as the new current snapshot
+        assertTrue(Files.readString(tempDir.resolve("vendors.json")).contains("\"Globex\""));
+        assertEquals(2, new VendorRepository(config(), tempDir).count());
+    }
+
+    @Test
+    void allGenerationsDamagedFailsLoad() throws IOException
+    {
+        writeThreeGenerations();
+        corrupt(tempDir.resolve("vendors.json"), "Acme", "Acne");
+        corrupt(tempDir.resolve("vendors.json.1"), "Acme", "Acne");
+        corrupt(tempDir.resolve("vendors.json.2"), "Acme", "Acne");
+
+        VendorRepository damaged = new VendorRepository(config(), tempDir);
+
+        assertThrows(AbstractJsonRepository.DataPersistenceException.class, damaged::ensureLoaded);
+        assertTrue(damaged.isLoaded());
+        assertFalse(damaged.isAvailable());
+        assertNotNull(damaged.getLoadFailure());
+        // Nothing is moved or overwritten, so the files can still be repaired by hand
+        assertTrue(Files.exists(tempDir.resolve("vendors.json")));
+        assertTrue(Files.exists(tempDir.resolve("vendors.json.1")));
+        assertTrue(Files.exists(tempDir.resolve("vendors.json.2")));
+        assertFalse(Files.exists(tempDir.resolve("quarantine")));
+    }
+
+    /**
+     * Leaves vendors.json with both vendors, the second renamed, vendors.json.1 before the
+     * rename and vendors.json.2 with only the first vendor.
+     *
+     * @return the ID of the second vendor
+     */
+    private String writeThreeGenerations()
+    {
+        VendorRepository repository = new VendorRepository(config(), tempDir);
+        repository.save(vendor("V1", "Acme"));
+        Vendor globex = repository.save(vendor("V2", "Globex"));
+        globex.setCompanyName("Globex Corporation");
+        repository.save(globex);
+        repository.close();
+        return globex.getId();
+    }
+
+    /**
+     * Changes bytes in place but keeps the modification time, so only the checksum can tell.
+     */
+    private static void corrupt(Path snapshot, String from, String to) throws IOException
+    {
+        FileTime modified = Files.getLastModifiedTime(snapshot);
+        String content = Files.readString(snapshot, StandardCharsets.UTF_8);
+        assertTrue(content.contains(from));
+        Files.writeString(snapshot, content.replace(from, to), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(snapshot, modified);
+    }
+
+    private static List<Path> list(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.list(dir))
+        {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.edge.repository;
+
+/**
+ * @author Hidenori Takaku
+ */
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Vendor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.edge.repository.RepositoryTestSupport.config;
+import static com.edge.repository.RepositoryTestSupport.vendor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replay of the per-repository write-ahead log after a crash.
+ */
+class WriteAheadLogTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void replayAppliesRecordsInOrder() throws IOException
+    {
+        Path logFile = tempDir.resolve("test.json.log");
+        WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+        log.appendPut("1", Map.of("name", "first"));
+        log.appendPut("2", Map.of("name", "second"));
+        log.appendPut("1", Map.of("name", "updated"));
+        log.appendDelete("2");
+        log.force();
+        log.close();
+
+        List<String> applied = new ArrayList<>();
+        int count = new WriteAheadLog(logFile, objectMapper).replay((operation, id, data) ->
+            applied.add(operation + " " + id + (data != null ? " " + data.get("name").asText() : "")));
+
+        assertEquals(4, count);
+        assertEquals(List.of("PUT 1 first", "PUT 2 second", "PUT 1 updated", "DELETE 2"), applied);
+    }
+
+    @Test
+    void replayTruncatesTornTail() throws IOException
+    {
+        Path logFile = tempDir.resolve("test.json.log");
+        WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+        log.appendPut("1", Map.of("name", "first"));
+        log.appendPut("2", Map.of("name", "second"));
+        log.close();
+        long validBytes = Files.size(logFile);
+        // An append cut short by a crash: no terminating newline
+        Files.write(logFile, "{\"op\":\"PUT\",\"id\":\"3\",\"da".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<String> applied = new ArrayList<>();
+        WriteAheadLog recovered = new WriteAheadLog(logFile, objectMapper);
+        assertEquals(2, recovered.replay((operation, id, data) -> applied.add(id)));
+        assertEquals(List.of("1", "2"), applied);
+        assertEquals(validBytes, Files.size(logFile));
+
+        // New appends continue after the last good record
+        recovered.appendPut("3", Map.of("name", "third"));
+        recovered.close();
+        applied.clear();
+        assertEquals(3, new WriteAheadLog(logFile, objectMapper).replay((operation, id, data) -> applied.add(id)));
+        assertEquals(List.of("1", "2", "3"), applied);
+    }
+
+    @Test
+    void replayStopsAtUnreadableLine() throws IOException
+    {
+        Path logFile = tempDir.resolve("test.json.log");
+        WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+        log.appendPut("1", Map.of("name", "first"));
+        log.close();
+        long validBytes = Files.size(logFile);
+        Files.write(logFile, "\u0000\u0000garbage\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(1, new WriteAheadLog(logFile, objectMapper).replay((operation, id, data) -> { }));
+        assertEquals(validBytes, Files.size(logFile));
+    }
+
+    @Test
+    void replayIncludesInterruptedCheckpoint() throws IOException
+    {
+        Path logFile = tempDir.resolve("test.json.log");
+        Path rotatedFile = tempDir.resolve("test.json.log.checkpoint");
+        WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+        log.appendPut("1", Map.of("name", "first"));
+        log.appendPut("2", Map.of("name", "second"));
+        // Checkpoint started but the snapshot was never written, so discardRotated() never ran
+        log.rotate();
+        log.appendPut("1", Map.of("name", "updated"));
+        log.close();
+        assertTrue(Files.exists(rotatedFile));
+
+        List<String> applied = new ArrayList<>();
+        int count = new WriteAheadLog(logFile, objectMapper).replay((operation, id, data) ->
+            applied.add(id + " " + data.get("name").asText()));
+
+        assertEquals(3, count);
+        assertEquals(List.of("1 first", "2 second", "1 updated"), applied);
+    }
+
+    @Test
+    void secondInterruptedCheckpointKeepsReplayOrder() throws IOException
+    {
+        Path logFile = tempDir.resolve("test.json.log");
+        WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+        log.appendPut("1", Map.of("name", "first"));
+        log.rotate();
+        log.appendPut("1", Map.of("name", "second"));
+        log.rotate();
+        log.appendPut("1", Map.of("name", "third"));
+        log.close();
+
+        List<String> applied = new ArrayList<>();
+        new WriteAheadLog(logFile, objectMapper).replay((operation, id, data) -> applied.add(data.get("name").asText()));
+
+        assertEquals(List.of("first", "second", "third"), applied);
+    }
+
+    @Test
+    void repositoryRecoversUnflushedChangesFromLog()
+    {
+        JsonDbConfig config = config();
+        config.setStorageMode(JsonDbConfig.StorageMode.LOG);
+
+        VendorRepository repository = new VendorRepository(config, tempDir);
+        String acmeId = repository.save(vendor("V1", "Acme")).getId();
+        String globexId = repository.save(vendor("V2", "Globex")).getId();
+        repository.deleteById(acmeId);
+        Vendor renamed = repository.findByIdForUpdate(globexId).orElseThrow();
+        renamed.setCompanyName("Globex Corporation");
+        repository.save(renamed);
+        // No close(): the process dies with the changes only in the log
+        assertFalse(Files.exists(tempDir.resolve("vendors.json")));
+
+        VendorRepository recovered = new VendorRepository(config, tempDir);
+        assertEquals(1, recovered.count());
+        assertFalse(recovered.findById(acmeId).isPresent());
+        assertEquals("Globex Corporation", recovered.findById(globexId).orElseThrow().getCompanyName());
+    }
+}